@@ -0,0 +1,110 @@
+package ca.footeware.javafx.journal.benchmarks;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Command line options of the form <code>--name value</code>, or just
+ * <code>--name</code> for a flag.
+ */
+final class Arguments {
+
+	private final Map<String, String> values = new HashMap<>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param args {@link String} array
+	 * @throws IllegalArgumentException if an argument isn't an option
+	 */
+	Arguments(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			if (!args[i].startsWith("--")) {
+				throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+			}
+			String name = args[i].substring(2);
+			boolean flag = i + 1 == args.length || args[i + 1].startsWith("--");
+			values.put(name, flag ? "" : args[++i]);
+		}
+	}
+
+	/**
+	 * Gets a date option.
+	 *
+	 * @param name         {@link String}
+	 * @param defaultValue {@link LocalDate}
+	 * @return {@link LocalDate}
+	 */
+	LocalDate date(String name, LocalDate defaultValue) {
+		try {
+			return values.containsKey(name) ? LocalDate.parse(values.get(name)) : defaultValue;
+		} catch (DateTimeParseException e) {
+			throw new IllegalArgumentException("--" + name + " must be a date in the format yyyy-MM-dd", e);
+		}
+	}
+
+	/**
+	 * Gets a decimal option.
+	 *
+	 * @param name         {@link String}
+	 * @param defaultValue double
+	 * @return double
+	 */
+	double decimal(String name, double defaultValue) {
+		try {
+			return values.containsKey(name) ? Double.parseDouble(values.get(name)) : defaultValue;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("--" + name + " must be a number", e);
+		}
+	}
+
+	/**
+	 * Determines if a flag or option was given.
+	 *
+	 * @param name {@link String}
+	 * @return boolean
+	 */
+	boolean has(String name) {
+		return values.containsKey(name);
+	}
+
+	/**
+	 * Gets a whole number option.
+	 *
+	 * @param name         {@link String}
+	 * @param defaultValue int
+	 * @return int
+	 */
+	int integer(String name, int defaultValue) {
+		try {
+			return values.containsKey(name) ? Integer.parseInt(values.get(name)) : defaultValue;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("--" + name + " must be a whole number", e);
+		}
+	}
+
+	/**
+	 * Gets a file option.
+	 *
+	 * @param name {@link String}
+	 * @return {@link Path} null if not given
+	 */
+	Path path(String name) {
+		String value = values.get(name);
+		return value == null || value.isEmpty() ? null : Path.of(value);
+	}
+
+	/**
+	 * Gets a text option.
+	 *
+	 * @param name         {@link String}
+	 * @param defaultValue {@link String}
+	 * @return {@link String}
+	 */
+	String text(String name, String defaultValue) {
+		return values.getOrDefault(name, defaultValue);
+	}
+}
@@ -0,0 +1,42 @@
+package ca.footeware.javafx.journal.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks selected by the usual JMH command line, writing the
+ * results as JSON to jmh-result.json unless another format or file is given,
+ * so that runs before and after a change can be compared.
+ */
+public class BenchmarkRunner {
+
+	/**
+	 * Run the benchmarks.
+	 *
+	 * @param args {@link String} array of JMH options
+	 * @throws CommandLineOptionException if the options are invalid
+	 * @throws RunnerException            if a benchmark fails
+	 */
+	public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+		if (!commandLine.getResultFormat().hasValue()) {
+			options.resultFormat(ResultFormatType.JSON);
+		}
+		if (!commandLine.getResult().hasValue()) {
+			options.result("jmh-result.json");
+		}
+		new Runner(options.build()).run();
+	}
+
+	/**
+	 * Constructor, hidden because all methods are static.
+	 */
+	private BenchmarkRunner() {
+	}
+}
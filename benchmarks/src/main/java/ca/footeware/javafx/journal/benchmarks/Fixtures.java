@@ -0,0 +1,131 @@
+package ca.footeware.javafx.journal.benchmarks;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.LocalDate;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
+
+import ca.footeware.javafx.journal.model.Journal;
+
+/**
+ * Synthetic journals shared by the benchmarks. Each size is generated once by
+ * the {@link JournalGenerator}, with a fixed seed, into a folder under the
+ * system temporary directory and reused by later forks and runs.
+ * <p>
+ * A journal's file name holds a fingerprint of the generator's settings and
+ * version and of the journal classes that wrote it, so that runs before and
+ * after a change to either never share a journal: each measures one generated
+ * from the same settings, in its own format. Journals of the same size with
+ * another fingerprint are deleted.
+ */
+final class Fixtures {
+
+	/**
+	 * The password of every journal generated.
+	 */
+	static final String PASSWORD = "benchmark";
+
+	private static final Path DIRECTORY = Path.of(System.getProperty("java.io.tmpdir"), "journal-benchmarks");
+	private static byte[] libraryDigest;
+
+	/**
+	 * Makes a working copy of a journal, for benchmarks that change it.
+	 *
+	 * @param entries int the number of entries
+	 * @return {@link Path} a new file, deleted on exit
+	 * @throws GeneralSecurityException
+	 * @throws IOException
+	 */
+	static Path copy(int entries) throws GeneralSecurityException, IOException {
+		Path copy = Files.createTempFile(DIRECTORY, "copy-" + entries + "-", ".journal");
+		copy.toFile().deleteOnExit();
+		Files.copy(journal(entries), copy, StandardCopyOption.REPLACE_EXISTING);
+		return copy;
+	}
+
+	/**
+	 * Identifies a generated journal.
+	 *
+	 * @param settings {@link JournalGenerator.Settings}
+	 * @return {@link String} hexadecimal
+	 * @throws GeneralSecurityException
+	 * @throws IOException
+	 */
+	private static String fingerprint(JournalGenerator.Settings settings)
+			throws GeneralSecurityException, IOException {
+		MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		digest.update((settings + "/" + JournalGenerator.VERSION).getBytes(StandardCharsets.UTF_8));
+		digest.update(libraryDigest());
+		return HexFormat.of().formatHex(digest.digest(), 0, 8);
+	}
+
+	/**
+	 * Gets a generated journal, generating it if need be.
+	 *
+	 * @param entries int the number of entries
+	 * @return {@link Path}
+	 * @throws GeneralSecurityException
+	 * @throws IOException
+	 */
+	static synchronized Path journal(int entries) throws GeneralSecurityException, IOException {
+		JournalGenerator.Settings settings = new JournalGenerator.Settings(entries, PASSWORD, 400, 0.6, 0.85,
+				LocalDate.of(1990, 1, 1), entries);
+		String prefix = "journal-" + entries + "-";
+		Path file = DIRECTORY.resolve(prefix + fingerprint(settings) + ".journal");
+		if (!Files.exists(file)) {
+			Files.createDirectories(DIRECTORY);
+			try (DirectoryStream<Path> stale = Files.newDirectoryStream(DIRECTORY, prefix + "*")) {
+				for (Path old : stale) {
+					Files.deleteIfExists(old);
+				}
+			}
+			JournalGenerator.generate(file, settings);
+		}
+		return file;
+	}
+
+	/**
+	 * Digests the classes of the journal library, the jar or folder holding
+	 * {@link Journal}.
+	 *
+	 * @return byte array
+	 * @throws GeneralSecurityException
+	 * @throws IOException
+	 */
+	private static byte[] libraryDigest() throws GeneralSecurityException, IOException {
+		if (libraryDigest == null) {
+			Path library;
+			try {
+				library = Path.of(Journal.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+			} catch (URISyntaxException e) {
+				throw new IOException("Cannot locate the journal classes.", e);
+			}
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			List<Path> files;
+			try (Stream<Path> walk = Files.walk(library)) {
+				files = walk.filter(Files::isRegularFile).sorted().toList();
+			}
+			for (Path file : files) {
+				digest.update(library.relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+				digest.update(Files.readAllBytes(file));
+			}
+			libraryDigest = digest.digest();
+		}
+		return libraryDigest;
+	}
+
+	/**
+	 * Constructor, hidden because all methods are static.
+	 */
+	private Fixtures() {
+	}
+}
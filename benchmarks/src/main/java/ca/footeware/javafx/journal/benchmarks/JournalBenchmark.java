@@ -0,0 +1,125 @@
+package ca.footeware.javafx.journal.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.footeware.javafx.journal.model.Journal;
+
+/**
+ * Loading, saving and unlocking {@link Journal}s of increasing size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JournalBenchmark {
+
+	/**
+	 * The number of entries in the journal.
+	 */
+	@Param({ "1000", "10000", "100000" })
+	public int entries;
+
+	private int edits;
+	private Path file;
+	private Path fixture;
+	private Journal journal;
+	private String[] keys;
+
+	/**
+	 * Opens a working copy of the journal to be saved.
+	 *
+	 * @throws GeneralSecurityException
+	 * @throws IOException
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws GeneralSecurityException, IOException {
+		fixture = Fixtures.journal(entries);
+		file = Fixtures.copy(entries);
+		journal = new Journal(file.toFile(), Fixtures.PASSWORD, true);
+		keys = journal.getKeys().toArray(String[]::new);
+	}
+
+	/**
+	 * Closes and deletes the working copy.
+	 *
+	 * @throws IOException
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		journal.close();
+		Files.deleteIfExists(file);
+	}
+
+	/**
+	 * Reads every entry into memory, as when a journal is created.
+	 *
+	 * @return {@link Set} of keys
+	 * @throws IOException
+	 */
+	@Benchmark
+	public Set<String> loadEager() throws IOException {
+		return new Journal(fixture.toFile(), Fixtures.PASSWORD, false).getKeys();
+	}
+
+	/**
+	 * Indexes the entries without reading them, as when a journal is opened.
+	 *
+	 * @return {@link Set} of keys
+	 * @throws IOException
+	 */
+	@Benchmark
+	public Set<String> loadLazy() throws IOException {
+		return new Journal(fixture.toFile(), Fixtures.PASSWORD, true).getKeys();
+	}
+
+	/**
+	 * Changes an entry and saves, appending it to the file and compacting the
+	 * file in the background when enough records are superseded.
+	 *
+	 * @throws GeneralSecurityException
+	 * @throws IOException
+	 */
+	@Benchmark
+	public void save() throws GeneralSecurityException, IOException {
+		int edit = edits++;
+		journal.addEntry(keys[edit % keys.length], "Edit " + edit + " of the journal.");
+		journal.save();
+	}
+
+	/**
+	 * Opens the journal and checks the password, which derives the journal key.
+	 *
+	 * @return boolean
+	 * @throws IOException
+	 */
+	@Benchmark
+	public boolean testPassword() throws IOException {
+		Journal opened = new Journal(fixture.toFile(), Fixtures.PASSWORD, true);
+		try {
+			return opened.testPassword();
+		} finally {
+			opened.close();
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package ca.footeware.javafx.journal.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import ca.footeware.javafx.journal.model.Journal;
+
+/**
+ * Generates synthetic journals in the real format, without the UI, for
+ * benchmarks and load tests. Entry lengths follow a log-normal distribution
+ * and the days between entries a geometric one, both reproducible from a seed.
+ * <p>
+ * Run it with
+ * <code>java -cp benchmarks.jar ca.footeware.javafx.journal.benchmarks.JournalGenerator --output FILE</code>
+ * and any of <code>--entries</code>, <code>--password</code>,
+ * <code>--mean-length</code>, <code>--length-spread</code>,
+ * <code>--density</code>, <code>--start</code> and <code>--seed</code>.
+ */
+public final class JournalGenerator {
+
+	/**
+	 * What to generate.
+	 *
+	 * @param entries      int the number of entries
+	 * @param password     {@link String}
+	 * @param meanLength   int the mean length of an entry in characters
+	 * @param lengthSpread double the standard deviation of the logarithm of the
+	 *                     length, 0 for entries all of the mean length
+	 * @param density      double the fraction of days with an entry, from
+	 *                     greater than 0 to 1
+	 * @param start        {@link LocalDate} the date of the first entry
+	 * @param seed         long
+	 */
+	record Settings(int entries, String password, int meanLength, double lengthSpread, double density,
+			LocalDate start, long seed) {
+
+		/**
+		 * Constructor, checking the settings.
+		 */
+		Settings {
+			if (entries < 0 || meanLength < 1 || lengthSpread < 0 || density <= 0 || density > 1) {
+				throw new IllegalArgumentException("Invalid settings: " + this);
+			}
+		}
+	}
+
+	/**
+	 * Increased whenever the journal generated from the same settings changes, so
+	 * that journals generated before aren't mistaken for it.
+	 */
+	static final int VERSION = 1;
+
+	private static final int BATCH_SIZE = 10000;
+	private static final String[] WORDS = { "the", "morning", "walk", "coffee", "rain", "garden", "wrote", "read",
+			"meeting", "friend", "tired", "happy", "dinner", "river", "train", "letter", "music", "quiet", "city",
+			"remember", "tomorrow", "work", "cold", "sun", "long", "day", "evening", "book", "call", "home" };
+
+	/**
+	 * Generates a journal, replacing any file already there. It is written
+	 * beside the file and moved into place once complete.
+	 *
+	 * @param file     {@link Path}
+	 * @param settings {@link Settings}
+	 * @throws GeneralSecurityException
+	 * @throws IOException
+	 */
+	static void generate(Path file, Settings settings) throws GeneralSecurityException, IOException {
+		Path partial = file.resolveSibling(file.getFileName() + ".partial");
+		Files.deleteIfExists(partial);
+		Files.createFile(partial);
+		Journal journal = new Journal(partial.toFile(), settings.password());
+		try {
+			Random random = new Random(settings.seed());
+			Map<String, String> batch = new LinkedHashMap<>();
+			LocalDate date = settings.start();
+			for (int i = 0; i < settings.entries(); i++) {
+				batch.put(date.toString(), text(random, length(random, settings)));
+				if (batch.size() == BATCH_SIZE || i == settings.entries() - 1) {
+					journal.addEntries(batch);
+					journal.save();
+					batch.clear();
+				}
+				date = date.plusDays(1);
+				while (random.nextDouble() >= settings.density()) {
+					date = date.plusDays(1);
+				}
+			}
+			journal.save();
+		} finally {
+			journal.close();
+		}
+		Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Picks the length of an entry.
+	 *
+	 * @param random   {@link Random}
+	 * @param settings {@link Settings}
+	 * @return int at least 1
+	 */
+	private static int length(Random random, Settings settings) {
+		double spread = settings.lengthSpread();
+		// the mean of a log-normal distribution is exp(mu + spread^2 / 2)
+		double length = settings.meanLength() * Math.exp(spread * random.nextGaussian() - spread * spread / 2);
+		return (int) Math.max(1, Math.round(length));
+	}
+
+	/**
+	 * Generate a journal.
+	 *
+	 * @param args {@link String} array of options
+	 * @throws GeneralSecurityException
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws GeneralSecurityException, IOException {
+		Arguments arguments = new Arguments(args);
+		Path output = arguments.path("output");
+		if (output == null) {
+			System.err.println("Usage: JournalGenerator --output FILE [--entries 10000] [--password password]"
+					+ " [--mean-length 600] [--length-spread 0.8] [--density 0.8] [--start 2000-01-01]"
+					+ " [--seed 1]");
+			System.exit(2);
+		}
+		Settings settings = settings(arguments);
+		long start = System.nanoTime();
+		generate(output, settings);
+		System.out.printf("Generated %d entries in %s in %.1f s.%n", settings.entries(), output,
+				(System.nanoTime() - start) / 1e9);
+	}
+
+	/**
+	 * Reads the generator's settings from the command line.
+	 *
+	 * @param arguments {@link Arguments}
+	 * @return {@link Settings}
+	 */
+	static Settings settings(Arguments arguments) {
+		return new Settings(arguments.integer("entries", 10000), arguments.text("password", "password"),
+				arguments.integer("mean-length", 600), arguments.decimal("length-spread", 0.8),
+				arguments.decimal("density", 0.8), arguments.date("start", LocalDate.of(2000, 1, 1)),
+				arguments.integer("seed", 1));
+	}
+
+	/**
+	 * Generates text of sentences of common words.
+	 *
+	 * @param random {@link Random}
+	 * @param length int the length in characters
+	 * @return {@link String}
+	 */
+	static String text(Random random, int length) {
+		StringBuilder builder = new StringBuilder(length + 16);
+		while (builder.length() < length) {
+			int words = 4 + random.nextInt(12);
+			for (int j = 0; j < words; j++) {
+				String word = WORDS[random.nextInt(WORDS.length)];
+				builder.append(j == 0 ? Character.toUpperCase(word.charAt(0)) + word.substring(1) : word);
+				builder.append(j == words - 1 ? random.nextInt(5) == 0 ? ".\n\n" : ". " : " ");
+			}
+		}
+		builder.setLength(length);
+		return builder.toString();
+	}
+
+	/**
+	 * Constructor, hidden because all methods are static.
+	 */
+	private JournalGenerator() {
+	}
+}
@@ -0,0 +1,307 @@
+package ca.footeware.javafx.journal.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import ca.footeware.javafx.journal.exceptions.JournalException;
+import ca.footeware.javafx.journal.model.JournalManager;
+
+/**
+ * Measures a journal the way the editor uses it, through
+ * {@link JournalManager} and without starting JavaFX: how long it takes to
+ * open, to show the first entry, to save an entry and to step from one entry
+ * to the next. Each run works on a fresh copy of the journal and the median of
+ * the runs is reported, after warm-up runs that are not.
+ * <p>
+ * The results are compared with a baseline file, and the harness exits with
+ * status 1 if any is slower than its baseline by more than the tolerance. A
+ * missing baseline, or <code>--update-baseline</code>, writes the results as
+ * the new baseline instead.
+ * <p>
+ * Run it with
+ * <code>java -cp benchmarks.jar ca.footeware.javafx.journal.benchmarks.LoadHarness --baseline FILE</code>
+ * and either <code>--journal FILE</code> or the {@link JournalGenerator}'s
+ * options to generate one, plus any of <code>--runs</code>,
+ * <code>--warmups</code>, <code>--saves</code>, <code>--steps</code>,
+ * <code>--tolerance</code>,
+ * <code>--slack-micros</code> and <code>--results FILE</code>.
+ */
+public final class LoadHarness {
+
+	private static final String FIRST_ENTRY = "firstEntry.micros";
+	private static final String NAVIGATION_P50 = "navigation.p50.micros";
+	private static final String NAVIGATION_P95 = "navigation.p95.micros";
+	private static final String OPEN = "open.micros";
+	private static final String SAVE_P50 = "save.p50.micros";
+	private static final String SAVE_P95 = "save.p95.micros";
+	private static final List<String> METRICS = List.of(OPEN, FIRST_ENTRY, SAVE_P50, SAVE_P95, NAVIGATION_P50,
+			NAVIGATION_P95);
+
+	/**
+	 * Compares results with a baseline.
+	 *
+	 * @param results     {@link Map} of metric to microseconds
+	 * @param baseline    {@link Properties}
+	 * @param tolerance   double the fraction by which a result may exceed its
+	 *                    baseline
+	 * @param slackMicros long the amount by which a result may exceed its
+	 *                    baseline regardless, so that tiny timings don't fail on
+	 *                    noise
+	 * @return boolean true if nothing regressed
+	 */
+	private static boolean compare(Map<String, Long> results, Properties baseline, double tolerance,
+			long slackMicros) {
+		boolean passed = true;
+		System.out.printf("%-24s %12s %12s %8s%n", "metric", "result", "baseline", "change");
+		for (String metric : METRICS) {
+			long result = results.get(metric);
+			String stored = baseline.getProperty(metric);
+			if (stored == null) {
+				System.out.printf("%-24s %12d %12s %8s%n", metric, result, "-", "new");
+				continue;
+			}
+			long expected = Long.parseLong(stored);
+			boolean regressed = result > expected * (1 + tolerance) && result - expected > slackMicros;
+			System.out.printf("%-24s %12d %12d %+7.1f%%%s%n", metric, result, expected,
+					expected == 0 ? 0 : (result - expected) * 100.0 / expected, regressed ? " REGRESSED" : "");
+			passed &= !regressed;
+		}
+		return passed;
+	}
+
+	/**
+	 * Copies a journal and its search index, if any, to be changed by a run.
+	 *
+	 * @param journal {@link Path}
+	 * @return {@link Path} the copy
+	 * @throws IOException
+	 */
+	private static Path copy(Path journal) throws IOException {
+		Path copy = Files.createTempFile("load-", ".journal");
+		Files.copy(journal, copy, StandardCopyOption.REPLACE_EXISTING);
+		Path index = Path.of(journal + ".index");
+		if (Files.exists(index)) {
+			Files.copy(index, Path.of(copy + ".index"), StandardCopyOption.REPLACE_EXISTING);
+		}
+		return copy;
+	}
+
+	/**
+	 * Deletes a copy made by {@link #copy(Path)} and the files written beside it.
+	 *
+	 * @param copy {@link Path}
+	 * @throws IOException
+	 */
+	private static void delete(Path copy) throws IOException {
+		for (String suffix : new String[] { "", ".index", ".history", ".compact" }) {
+			Files.deleteIfExists(Path.of(copy + suffix));
+		}
+	}
+
+	/**
+	 * Measure a journal and compare the results with the baseline.
+	 *
+	 * @param args {@link String} array of options
+	 * @throws GeneralSecurityException
+	 * @throws IOException
+	 * @throws JournalException
+	 */
+	public static void main(String[] args) throws GeneralSecurityException, IOException, JournalException {
+		Arguments arguments = new Arguments(args);
+		Path baselineFile = arguments.path("baseline");
+		if (baselineFile == null) {
+			System.err.println("Usage: LoadHarness --baseline FILE [--journal FILE | generator options]"
+					+ " [--password password] [--runs 5] [--warmups 1] [--saves 200] [--steps 2000] [--tolerance 0.25]"
+					+ " [--slack-micros 500] [--results FILE] [--update-baseline]");
+			System.exit(2);
+		}
+		String password = arguments.text("password", "password");
+		Path journal = arguments.path("journal");
+		boolean generated = journal == null;
+		if (generated) {
+			journal = Files.createTempFile("generated-", ".journal");
+			JournalGenerator.Settings settings = JournalGenerator.settings(arguments);
+			System.out.printf("Generating %d entries...%n", settings.entries());
+			JournalGenerator.generate(journal, settings);
+		}
+		int runs = arguments.integer("runs", 5);
+		int warmups = arguments.integer("warmups", 1);
+		Map<String, long[]> samples = new LinkedHashMap<>();
+		METRICS.forEach(metric -> samples.put(metric, new long[runs]));
+		try {
+			for (int run = -warmups; run < runs; run++) {
+				Path copy = copy(journal);
+				try {
+					Map<String, Long> results = run(copy, password, arguments.integer("saves", 200),
+							arguments.integer("steps", 2000), run);
+					if (run >= 0) {
+						for (String metric : METRICS) {
+							samples.get(metric)[run] = results.get(metric);
+						}
+					}
+				} finally {
+					delete(copy);
+				}
+			}
+		} finally {
+			if (generated) {
+				delete(journal);
+			}
+		}
+		Map<String, Long> medians = new LinkedHashMap<>();
+		samples.forEach((metric, values) -> medians.put(metric, percentile(values, 50)));
+
+		Path resultsFile = arguments.path("results");
+		if (resultsFile != null) {
+			store(medians, resultsFile, "Load harness results");
+		}
+		Properties baseline = new Properties();
+		if (arguments.has("update-baseline") || !Files.exists(baselineFile)) {
+			store(medians, baselineFile, "Load harness baseline");
+			medians.forEach((metric, value) -> System.out.printf("%-24s %12d%n", metric, value));
+			System.out.println("Baseline written to " + baselineFile + ".");
+			return;
+		}
+		try (InputStream in = Files.newInputStream(baselineFile)) {
+			baseline.load(in);
+		}
+		if (!compare(medians, baseline, arguments.decimal("tolerance", 0.25),
+				arguments.integer("slack-micros", 500))) {
+			System.out.println("Performance regressed past the baseline in " + baselineFile + ".");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Gets the microseconds elapsed since a start time.
+	 *
+	 * @param start long from {@link System#nanoTime()}
+	 * @return long
+	 */
+	private static long micros(long start) {
+		return (System.nanoTime() - start) / 1000;
+	}
+
+	/**
+	 * Gets a percentile of some timings.
+	 *
+	 * @param values     long array, sorted by this method
+	 * @param percentile int from 0 to 100
+	 * @return long
+	 */
+	private static long percentile(long[] values, int percentile) {
+		Arrays.sort(values);
+		return values[Math.min(values.length - 1, values.length * percentile / 100)];
+	}
+
+	/**
+	 * Measures one run against a copy of the journal.
+	 *
+	 * @param journal  {@link Path}
+	 * @param password {@link String}
+	 * @param saves    int the number of saves to time
+	 * @param steps    int the number of navigation steps to time
+	 * @param seed     long
+	 * @return {@link Map} of metric to microseconds
+	 * @throws IOException
+	 * @throws JournalException
+	 */
+	private static Map<String, Long> run(Path journal, String password, int saves, int steps, long seed)
+			throws IOException, JournalException {
+		Map<String, Long> results = new LinkedHashMap<>();
+		long start = System.nanoTime();
+		JournalManager.openJournal(journal.toString(), password);
+		results.put(OPEN, micros(start));
+		try {
+			// the editor shows the latest entry first
+			LocalDate last = JournalManager.getLastEntryDate();
+			if (last == null) {
+				throw new IOException("The journal has no entries.");
+			}
+			JournalManager.getEntry(last);
+			results.put(FIRST_ENTRY, micros(start));
+			// let the search index fill so that it doesn't compete with what follows
+			JournalManager.search("");
+
+			Random random = new Random(seed);
+			List<LocalDate> dates = JournalManager.getEntryDates();
+			long[] timings = new long[saves];
+			for (int i = 0; i < saves; i++) {
+				LocalDate date = dates.get(random.nextInt(dates.size()));
+				String text = JournalGenerator.text(random, 200 + random.nextInt(800));
+				// flushed as the editor does on leaving, so the writer doesn't wait for more
+				long saveStart = System.nanoTime();
+				CompletableFuture<Void> saved = JournalManager.saveEntry(date, text);
+				JournalManager.flush();
+				saved.get();
+				timings[i] = micros(saveStart);
+			}
+			results.put(SAVE_P50, percentile(timings, 50));
+			results.put(SAVE_P95, percentile(timings, 95));
+
+			timings = new long[steps];
+			LocalDate date = JournalManager.getFirstEntryDate();
+			for (int i = 0; i < steps; i++) {
+				if (i % 50 == 0) {
+					// jump somewhere else, as picking a month in the calendar does
+					date = dates.get(random.nextInt(dates.size()));
+				}
+				long stepStart = System.nanoTime();
+				LocalDate next = JournalManager.getNextEntryDate(date);
+				if (next != null) {
+					JournalManager.getEntry(next);
+					date = next;
+				} else {
+					date = JournalManager.getFirstEntryDate();
+				}
+				timings[i] = micros(stepStart);
+			}
+			results.put(NAVIGATION_P50, percentile(timings, 50));
+			results.put(NAVIGATION_P95, percentile(timings, 95));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted saving.", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Error saving.", e.getCause());
+		} finally {
+			JournalManager.closeJournal();
+		}
+		return results;
+	}
+
+	/**
+	 * Writes results to a properties file.
+	 *
+	 * @param results {@link Map} of metric to microseconds
+	 * @param file    {@link Path}
+	 * @param comment {@link String}
+	 * @throws IOException
+	 */
+	private static void store(Map<String, Long> results, Path file, String comment) throws IOException {
+		Properties properties = new Properties();
+		results.forEach((metric, value) -> properties.setProperty(metric, Long.toString(value)));
+		try (OutputStream out = Files.newOutputStream(file)) {
+			properties.store(out, comment);
+		}
+	}
+
+	/**
+	 * Constructor, hidden because all methods are static.
+	 */
+	private LoadHarness() {
+	}
+}
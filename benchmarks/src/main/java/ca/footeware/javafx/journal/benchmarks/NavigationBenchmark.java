@@ -0,0 +1,119 @@
+package ca.footeware.javafx.journal.benchmarks;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.footeware.javafx.journal.exceptions.JournalException;
+import ca.footeware.javafx.journal.model.JournalManager;
+
+/**
+ * Date queries against the journal open in {@link JournalManager}, as made by
+ * the calendar and the navigation buttons.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NavigationBenchmark {
+
+	private static final int DATES = 1024;
+
+	/**
+	 * The number of entries in the journal.
+	 */
+	@Param({ "1000", "10000", "100000" })
+	public int entries;
+
+	private final LocalDate[] dates = new LocalDate[DATES];
+	private int next;
+
+	/**
+	 * Opens the journal and picks dates spread over it, with and without
+	 * entries.
+	 *
+	 * @throws GeneralSecurityException
+	 * @throws IOException
+	 * @throws JournalException
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws GeneralSecurityException, IOException, JournalException {
+		JournalManager.openJournal(Fixtures.journal(entries).toString(), Fixtures.PASSWORD);
+		// don't measure alongside the search index being filled
+		JournalManager.search("");
+		Random random = new Random(entries);
+		LocalDate first = JournalManager.getFirstEntryDate();
+		int days = (int) (JournalManager.getLastEntryDate().toEpochDay() - first.toEpochDay());
+		for (int i = 0; i < DATES; i++) {
+			dates[i] = first.plusDays(random.nextInt(days + 1));
+		}
+	}
+
+	/**
+	 * Closes the journal.
+	 *
+	 * @throws JournalException
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws JournalException {
+		JournalManager.closeJournal();
+	}
+
+	/**
+	 * Gets the next of the dates picked.
+	 *
+	 * @return {@link LocalDate}
+	 */
+	private LocalDate date() {
+		return dates[next++ & (DATES - 1)];
+	}
+
+	/**
+	 * Lists the dates of every entry.
+	 *
+	 * @return {@link List} of {@link LocalDate}
+	 */
+	@Benchmark
+	public List<LocalDate> getEntryDates() {
+		return JournalManager.getEntryDates();
+	}
+
+	/**
+	 * Finds the entry after a date.
+	 *
+	 * @return {@link LocalDate}
+	 */
+	@Benchmark
+	public LocalDate getNextEntryDate() {
+		return JournalManager.getNextEntryDate(date());
+	}
+
+	/**
+	 * Determines if a date has an entry.
+	 *
+	 * @return boolean
+	 */
+	@Benchmark
+	public boolean hasDate() {
+		return JournalManager.hasDate(date());
+	}
+}
@@ -0,0 +1,128 @@
+package ca.footeware.javafx.journal.benchmarks;
+
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.footeware.javafx.journal.model.Superstar;
+
+/**
+ * Encrypting and decrypting single entries with {@link Superstar}, in both
+ * entry formats and with or without compression, and deriving the journal key.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SuperstarBenchmark {
+
+	/**
+	 * The length in characters of the entry.
+	 */
+	@Param({ "500", "5000" })
+	public int length;
+
+	private String compressed;
+	private SecretKey key;
+	private String legacy;
+	private byte[] salt;
+	private String text;
+	private String v2;
+
+	/**
+	 * Prepares an entry, its ciphertexts and the key.
+	 *
+	 * @throws GeneralSecurityException
+	 */
+	@Setup
+	public void setUp() throws GeneralSecurityException {
+		text = JournalGenerator.text(new Random(length), length);
+		salt = Superstar.newSalt();
+		key = Superstar.deriveKey(Fixtures.PASSWORD, salt, Superstar.KDF_ITERATIONS, null);
+		v2 = Superstar.encrypt(text, key);
+		compressed = Superstar.encrypt(text, key, true);
+		legacy = Superstar.encrypt(text, Fixtures.PASSWORD);
+	}
+
+	/**
+	 * Decrypts a version 2 entry with the journal key.
+	 *
+	 * @return {@link String}
+	 * @throws GeneralSecurityException
+	 */
+	@Benchmark
+	public String decrypt() throws GeneralSecurityException {
+		return Superstar.decrypt(v2, key);
+	}
+
+	/**
+	 * Decrypts a version 2 entry that was compressed, inflating it.
+	 *
+	 * @return {@link String}
+	 * @throws GeneralSecurityException
+	 */
+	@Benchmark
+	public String decryptCompressed() throws GeneralSecurityException {
+		return Superstar.decrypt(compressed, key);
+	}
+
+	/**
+	 * Decrypts a version 1 entry, deriving its key from its own salt.
+	 *
+	 * @return {@link String}
+	 * @throws GeneralSecurityException
+	 */
+	@Benchmark
+	public String decryptLegacy() throws GeneralSecurityException {
+		return Superstar.decrypt(legacy, Fixtures.PASSWORD);
+	}
+
+	/**
+	 * Derives the journal key, as done once when a journal is opened.
+	 *
+	 * @return {@link SecretKey}
+	 * @throws GeneralSecurityException
+	 */
+	@Benchmark
+	public SecretKey deriveKey() throws GeneralSecurityException {
+		return Superstar.deriveKey(Fixtures.PASSWORD, salt, Superstar.KDF_ITERATIONS, null);
+	}
+
+	/**
+	 * Encrypts an entry with the journal key.
+	 *
+	 * @return {@link String}
+	 * @throws GeneralSecurityException
+	 */
+	@Benchmark
+	public String encrypt() throws GeneralSecurityException {
+		return Superstar.encrypt(text, key);
+	}
+
+	/**
+	 * Compresses an entry and encrypts it with the journal key.
+	 *
+	 * @return {@link String}
+	 * @throws GeneralSecurityException
+	 */
+	@Benchmark
+	public String encryptCompressed() throws GeneralSecurityException {
+		return Superstar.encrypt(text, key, true);
+	}
+}
@@ -10,6 +10,9 @@ import java.util.prefs.Preferences;
 
 import org.controlsfx.control.NotificationPane;
 
+import ca.footeware.javafx.journal.exceptions.JournalException;
+import ca.footeware.javafx.journal.model.JournalManager;
+import ca.footeware.javafx.journal.model.Metrics;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.fxml.FXMLLoader;
@@ -18,6 +21,9 @@ import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.control.ProgressBar;
 import javafx.scene.image.Image;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyCodeCombination;
+import javafx.scene.input.KeyCombination;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
@@ -28,6 +34,7 @@ import javafx.stage.Window;
  */
 public class App extends Application {
 
+	private static Stage diagnosticsStage;
 	private static FXMLLoader loader;
 	private static NotificationPane notificationPane;
 	private static ProgressBar progressBar;
@@ -104,11 +111,36 @@ public class App extends Application {
 	 * @throws IOException if some other worlds collide
 	 */
 	public static void setRoot(String fxml) throws IOException {
+		// the page being left may still have saves queued
+		try {
+			JournalManager.flush();
+		} catch (JournalException e) {
+			notify(e.getMessage());
+		}
 		loadFXML(fxml);
 		Parent page = loader.getRoot();
 		notificationPane.setContent(page);
 	}
 
+	/**
+	 * Shows the diagnostics page in a window of its own, so that the page it's
+	 * opened over, and any unsaved text or running task on it, is left alone.
+	 *
+	 * @throws IOException if worlds collide
+	 */
+	private static void showDiagnostics() throws IOException {
+		if (diagnosticsStage == null) {
+			Parent page = new FXMLLoader(App.class.getResource("/diagnosticsPage.fxml")).load();
+			diagnosticsStage = new Stage();
+			diagnosticsStage.initOwner(getPrimaryStage());
+			diagnosticsStage.getIcons().addAll(((Stage) getPrimaryStage()).getIcons());
+			diagnosticsStage.setTitle("Journal Diagnostics");
+			diagnosticsStage.setScene(new Scene(page));
+		}
+		diagnosticsStage.show();
+		diagnosticsStage.toFront();
+	}
+
 	private Preferences preferences;
 
 	@Override
@@ -142,6 +174,17 @@ public class App extends Application {
 		scene = new Scene(container, width, height);
 		URL resource = App.class.getResource("/styles.css");
 		scene.getStylesheets().add(resource.toExternalForm());
+		// the diagnostics page is hidden, reached only by shortcut
+		scene.getAccelerators().put(
+				new KeyCodeCombination(KeyCode.D, KeyCombination.SHORTCUT_DOWN, KeyCombination.SHIFT_DOWN), () -> {
+					try {
+						showDiagnostics();
+					} catch (IOException e) {
+						notify(e.getMessage());
+					}
+				});
+		Metrics.startDumping();
+		StallDetector.start();
 		Image icon = new Image(getClass().getResourceAsStream("/journal.png"));
 		stage.getIcons().add(icon);
 		stage.setTitle("Journal");
@@ -153,5 +196,8 @@ public class App extends Application {
 	public void stop() throws Exception {
 		preferences.putDouble("stage.width", getPrimaryStage().getWidth());
 		preferences.putDouble("stage.height", getPrimaryStage().getHeight());
+		StallDetector.stop();
+		JournalManager.closeJournal();
+		Metrics.stopDumping();
 	}
 }
\ No newline at end of file
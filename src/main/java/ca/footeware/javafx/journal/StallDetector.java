@@ -0,0 +1,231 @@
+package ca.footeware.javafx.journal;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import ca.footeware.javafx.journal.model.Metrics;
+import javafx.application.Platform;
+
+/**
+ * A watchdog for the JavaFX application thread. It posts a runnable to the FX
+ * thread at regular intervals and records how long each waits to run. Once one
+ * has waited longer than the budget set by {@link #BUDGET_PROPERTY}, the FX
+ * thread's stack is sampled until it runs, and the stall is then written to
+ * the file named by {@link #FILE_PROPERTY}, along with the controller method it
+ * was stuck in.
+ */
+final class StallDetector {
+
+	/**
+	 * A stall in progress.
+	 */
+	private static final class Incident {
+
+		private String culprit;
+		private final StackTraceElement[] firstStack;
+		private int samples;
+		private final long started;
+		private final Instant time;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param started long the {@link System#nanoTime()} the stall started
+		 * @param stack   {@link StackTraceElement}[] the FX thread's stack once
+		 *                over budget
+		 */
+		private Incident(long started, StackTraceElement[] stack) {
+			this.started = started;
+			this.firstStack = stack;
+			this.time = Instant.now().minusNanos(System.nanoTime() - started);
+		}
+
+		/**
+		 * Notes another sample of the FX thread's stack, blaming the first
+		 * controller method seen.
+		 *
+		 * @param stack {@link StackTraceElement}[]
+		 */
+		private void sample(StackTraceElement[] stack) {
+			samples++;
+			if (culprit == null) {
+				culprit = handler(stack);
+			}
+		}
+	}
+
+	/**
+	 * The system property giving the milliseconds the FX thread may be busy before
+	 * it counts as stalled, 0 to not watch it. The default is 250.
+	 */
+	static final String BUDGET_PROPERTY = "journal.stall.budget";
+
+	/**
+	 * The system property naming the file stalls are written to, by default
+	 * .journal-stalls.log in the user's home folder.
+	 */
+	static final String FILE_PROPERTY = "journal.stall.file";
+
+	/**
+	 * The classes whose methods are blamed for stalls.
+	 */
+	private static final String CONTROLLERS = "ca.footeware.javafx.journal.controllers.";
+
+	/**
+	 * The size at which the stall log is moved aside, to a file of the same name
+	 * ending in .1, and a new one started.
+	 */
+	private static final long MAX_LOG_BYTES = 1024 * 1024;
+
+	private static final Metrics.Histogram LATENCIES = Metrics.histogram("fx.latency.micros");
+	private static final Metrics.Histogram STALLS = Metrics.histogram("fx.stall.micros");
+
+	/**
+	 * The {@link #sent} time of the last ping to have run on the FX thread.
+	 */
+	private static volatile long answered;
+
+	/**
+	 * The {@link System#nanoTime()} the last ping ran on the FX thread.
+	 */
+	private static volatile long answeredAt;
+	private static long budget;
+	private static Thread fxThread;
+	private static Incident incident;
+	private static Path logFile;
+
+	/**
+	 * The {@link System#nanoTime()} the outstanding ping was posted, 0 if none.
+	 */
+	private static long sent;
+	private static ScheduledExecutorService watchdog;
+
+	/**
+	 * Gets the outermost controller method on a stack, the handler the FX thread
+	 * was dispatching to.
+	 *
+	 * @param stack {@link StackTraceElement}[]
+	 * @return {@link String} null if there's none
+	 */
+	private static String handler(StackTraceElement[] stack) {
+		for (int i = stack.length - 1; i >= 0; i--) {
+			StackTraceElement frame = stack[i];
+			if (frame.getClassName().startsWith(CONTROLLERS)) {
+				return frame.getClassName().substring(CONTROLLERS.length()) + "." + frame.getMethodName() + " ("
+						+ frame.getFileName() + ":" + frame.getLineNumber() + ")";
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Checks on the FX thread, from the watchdog thread: samples its stack if the
+	 * outstanding ping is over budget, logs a stall that has ended, and posts a
+	 * new ping once the last has run.
+	 */
+	private static void check() {
+		long now = System.nanoTime();
+		if (sent != 0 && answered != sent) {
+			if (now - sent >= budget) {
+				StackTraceElement[] stack = fxThread.getStackTrace();
+				if (incident == null) {
+					incident = new Incident(sent, stack);
+				}
+				incident.sample(stack);
+			}
+			return;
+		}
+		if (incident != null) {
+			long stalled = answeredAt - incident.started;
+			STALLS.record(stalled / 1000);
+			log(incident, stalled);
+			incident = null;
+		}
+		long stamp = now;
+		sent = stamp;
+		Platform.runLater(() -> {
+			long ran = System.nanoTime();
+			LATENCIES.record((ran - stamp) / 1000);
+			answeredAt = ran;
+			answered = stamp;
+		});
+	}
+
+	/**
+	 * Appends a stall to the log.
+	 *
+	 * @param stall   {@link Incident}
+	 * @param stalled long nanoseconds the FX thread was busy
+	 */
+	private static void log(Incident stall, long stalled) {
+		try {
+			if (Files.exists(logFile) && Files.size(logFile) >= MAX_LOG_BYTES) {
+				Files.move(logFile, logFile.resolveSibling(logFile.getFileName() + ".1"),
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+			try (BufferedWriter writer = Files.newBufferedWriter(logFile, StandardCharsets.UTF_8,
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+				writer.write(stall.time + " FX thread stalled for " + stalled / 1_000_000 + " ms in "
+						+ (stall.culprit == null ? "no controller" : stall.culprit) + ", " + stall.samples
+						+ (stall.samples == 1 ? " sample" : " samples"));
+				writer.newLine();
+				for (StackTraceElement frame : stall.firstStack) {
+					writer.write("\tat " + frame);
+					writer.newLine();
+				}
+				writer.newLine();
+			}
+		} catch (IOException _) {
+			// diagnostics are best effort, the stall is still counted in the metrics
+		}
+	}
+
+	/**
+	 * Starts watching the FX thread, unless {@link #BUDGET_PROPERTY} is 0. Must be
+	 * called on the FX thread.
+	 */
+	static synchronized void start() {
+		budget = TimeUnit.MILLISECONDS.toNanos(Long.getLong(BUDGET_PROPERTY, 250));
+		if (watchdog != null || budget <= 0) {
+			return;
+		}
+		fxThread = Thread.currentThread();
+		logFile = Path.of(System.getProperty(FILE_PROPERTY,
+				Path.of(System.getProperty("user.home"), ".journal-stalls.log").toString()));
+		watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "journal-watchdog");
+			thread.setDaemon(true);
+			return thread;
+		});
+		// sample several times within the budget so a stall is caught early in it
+		long period = Math.clamp(budget / 4, TimeUnit.MILLISECONDS.toNanos(10), TimeUnit.MILLISECONDS.toNanos(50));
+		watchdog.scheduleWithFixedDelay(StallDetector::check, period, period, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Stops watching the FX thread.
+	 */
+	static synchronized void stop() {
+		if (watchdog != null) {
+			watchdog.shutdownNow();
+			watchdog = null;
+			sent = 0;
+			incident = null;
+		}
+	}
+
+	/**
+	 * Constructor, hidden because the FX thread is watched statically.
+	 */
+	private StallDetector() {
+	}
+}
@@ -3,41 +3,50 @@ package ca.footeware.javafx.journal.controllers;
 import java.time.LocalDate;
 import java.time.Month;
 import java.time.YearMonth;
-import java.util.List;
 
 import ca.footeware.javafx.journal.exceptions.JournalException;
 import ca.footeware.javafx.journal.model.DateSelection;
 import ca.footeware.javafx.journal.model.JournalManager;
+import ca.footeware.javafx.journal.model.Metrics;
 import ca.footeware.javafx.journal.model.SelectionEvent;
+import javafx.css.PseudoClass;
 import javafx.fxml.FXML;
 import javafx.geometry.HPos;
-import javafx.geometry.Insets;
-import javafx.scene.Cursor;
-import javafx.scene.Node;
 import javafx.scene.control.Label;
-import javafx.scene.layout.Background;
-import javafx.scene.layout.BackgroundFill;
-import javafx.scene.layout.Border;
-import javafx.scene.layout.BorderStroke;
-import javafx.scene.layout.BorderStrokeStyle;
-import javafx.scene.layout.BorderWidths;
-import javafx.scene.layout.CornerRadii;
 import javafx.scene.layout.GridPane;
 import javafx.scene.layout.VBox;
-import javafx.scene.paint.Color;
-import javafx.scene.text.Font;
-import javafx.scene.text.FontPosture;
-import javafx.scene.text.FontWeight;
 
 /**
- * Controls the calendar component.
+ * Controls the calendar component. The days are a fixed grid of 42 cells,
+ * created once and rebound to each month drawn, styled by pseudo-classes.
  */
 public class CalendarController extends VBox {
 
+	private static final int CELL_COUNT = 42;
+	private static final Metrics.Histogram COLORIZE_TIMES = Metrics.histogram("fx.calendar.colorize.micros");
+	private static final String[] DAY_TEXT = new String[31];
+	private static final Metrics.Histogram DRAW_TIMES = Metrics.histogram("fx.calendar.draw.micros");
+	private static final PseudoClass ENTRY = PseudoClass.getPseudoClass("entry");
+	private static final PseudoClass SELECTED = PseudoClass.getPseudoClass("selected");
+	private static final PseudoClass TODAY = PseudoClass.getPseudoClass("today");
+
+	static {
+		for (int i = 0; i < DAY_TEXT.length; i++) {
+			DAY_TEXT[i] = Integer.toString(i + 1);
+		}
+	}
+
+	private final Label[] cells = new Label[CELL_COUNT];
 	private YearMonth currentYearMonth;
 	@FXML
 	private GridPane dateGrid;
 
+	/**
+	 * The index of the cell showing the 1st of {@link #currentYearMonth}, Sunday
+	 * being 0.
+	 */
+	private int firstCell;
+
 	@FXML
 	private Label monthLabel;
 
@@ -56,24 +65,21 @@ public class CalendarController extends VBox {
 	}
 
 	/**
-	 * Clear the calendar days' background colors.
-	 */
-	private void clearBackgrounds() {
-		dateGrid.getChildren().forEach(node -> {
-			if (node instanceof Label label) {
-				label.setBackground(null);
-			}
-		});
-	}
-
-	/**
-	 * Clear all {@link #dateGrid} labels of borders.
+	 * Bind the cells to {@link #currentYearMonth}, showing only those of its days.
 	 */
-	private void clearBorders() {
-		for (Node node : dateGrid.getChildren()) {
-			if (node instanceof Label label) {
-				label.setBorder(null);
+	private void bindCells() {
+		// find the cell index of the 1st day with Sunday=0
+		firstCell = currentYearMonth.atDay(1).getDayOfWeek().getValue() % 7;
+		int lengthOfMonth = currentYearMonth.lengthOfMonth();
+		for (int i = 0; i < CELL_COUNT; i++) {
+			int day = i - firstCell + 1;
+			Label cell = cells[i];
+			boolean inMonth = day >= 1 && day <= lengthOfMonth;
+			cell.setVisible(inMonth);
+			if (inMonth) {
+				cell.setText(DAY_TEXT[day - 1]);
 			}
+			cell.pseudoClassStateChanged(SELECTED, false);
 		}
 	}
 
@@ -81,61 +87,37 @@ public class CalendarController extends VBox {
 	 * Colorize days that have journal entries in the calendar.
 	 */
 	public void colorizeEntryDays() {
-		clearBackgrounds();
-		List<LocalDate> entryDates = JournalManager.getEntryDates();
-		for (LocalDate entryDate : entryDates) {
-			// filter to retain only those days in the currently selected YearMonth
-			if (entryDate.getYear() == currentYearMonth.getYear()
-					&& entryDate.getMonth() == currentYearMonth.getMonth()) {
-				int dayNum = entryDate.getDayOfMonth();
-				Node node = dateGrid.getChildren().get(dayNum - 1);
-				if (node instanceof Label label) {
-					label.setBackground(new Background(
-							new BackgroundFill(Color.color(0.275, 0.51, 0.706), new CornerRadii(5), null))); // blue
-				}
-			}
+		long start = System.nanoTime();
+		int mask = JournalManager.getMonthMask(currentYearMonth);
+		for (int i = 0; i < CELL_COUNT; i++) {
+			int day = i - firstCell;
+			cells[i].pseudoClassStateChanged(ENTRY, day >= 0 && day < Integer.SIZE && (mask & (1 << day)) != 0);
 		}
+		COLORIZE_TIMES.recordSince(start);
 	}
 
 	/**
 	 * Stylize today's date in the calendar.
 	 */
 	private void colorizeToday() {
-		LocalDate now = LocalDate.now();
-		Label label = findDateLabel(now);
-		if (label != null) {
-			label.setFont(Font.font(label.getFont().getFamily(), FontWeight.EXTRA_BOLD, FontPosture.REGULAR, 14.0));
-			label.getStyleClass().add("today");
+		Label today = findDateLabel(LocalDate.now());
+		for (Label cell : cells) {
+			cell.pseudoClassStateChanged(TODAY, cell == today);
 		}
 	}
 
 	/**
-	 * Create this month's calendar days in the {@link #dateGrid}.
+	 * Create the calendar's day cells in the {@link #dateGrid}, once.
 	 */
 	private void createDateGrid() {
-		dateGrid.getChildren().clear();
-
-		int lengthOfMonth = currentYearMonth.lengthOfMonth();
-
-		// find the column index of the 1st day with Sunday=0
-		LocalDate firstOfMonth = currentYearMonth.atDay(1);
-		int firstColumn = firstOfMonth.getDayOfWeek().getValue() % 7;
-
-		for (int day = 1; day <= lengthOfMonth; day++) {
-			int index = firstColumn + (day - 1);
-			int row = index / 7;
-			int col = index % 7;
-
-			final Label dayLabel = new Label(Integer.toString(day));
-			GridPane.setHalignment(dayLabel, HPos.CENTER);
-
-			dayLabel.setOnMouseClicked(_ -> fireSelectionEvent(getDate(dayLabel)));
-			dayLabel.setCursor(Cursor.HAND);
-			dayLabel.setTextFill(Color.WHITE);
-			dayLabel.setFont(Font.font(dayLabel.getFont().getFamily(), FontWeight.NORMAL, FontPosture.REGULAR, 14.0));
-			dayLabel.setPadding(new Insets(1, 10, 1, 10));
-
-			dateGrid.add(dayLabel, col, row);
+		for (int i = 0; i < CELL_COUNT; i++) {
+			final int index = i;
+			Label cell = new Label();
+			cell.getStyleClass().add("day");
+			GridPane.setHalignment(cell, HPos.CENTER);
+			cell.setOnMouseClicked(_ -> fireSelectionEvent(currentYearMonth.atDay(index - firstCell + 1)));
+			cells[i] = cell;
+			dateGrid.add(cell, i % 7, i / 7);
 		}
 	}
 
@@ -145,13 +127,15 @@ public class CalendarController extends VBox {
 	 * @param ym {@link YearMonth}
 	 */
 	public void drawMonth(YearMonth ym) {
+		long start = System.nanoTime();
 		currentYearMonth = ym;
 		yearLabel.setText(String.valueOf(currentYearMonth.getYear()));
 		monthLabel.setText(currentYearMonth.getMonth().toString());
 
-		createDateGrid();
+		bindCells();
 		colorizeEntryDays();
 		colorizeToday();
+		DRAW_TIMES.recordSince(start);
 	}
 
 	/**
@@ -162,18 +146,10 @@ public class CalendarController extends VBox {
 	 * @return {@link Label} may be null
 	 */
 	private Label findDateLabel(LocalDate date) {
-		for (Node node : dateGrid.getChildren()) {
-			// if it's this year and month
-			if (date != null && currentYearMonth.getYear() == date.getYear()
-					&& currentYearMonth.getMonth() == date.getMonth() && node instanceof Label label) {
-
-				LocalDate nodeDate = LocalDate.of(currentYearMonth.getYear(), currentYearMonth.getMonth(),
-						Integer.parseInt(label.getText()));
-
-				if (nodeDate.equals(date)) {
-					return label;
-				}
-			}
+		// if it's this year and month
+		if (date != null && currentYearMonth.getYear() == date.getYear()
+				&& currentYearMonth.getMonth() == date.getMonth()) {
+			return cells[firstCell + date.getDayOfMonth() - 1];
 		}
 		return null;
 	}
@@ -191,8 +167,7 @@ public class CalendarController extends VBox {
 		LocalDate newSelectedDate = null;
 		Label dateLabel = findDateLabel(date);
 		if (dateLabel != null) {
-			newSelectedDate = LocalDate.of(currentYearMonth.getYear(), currentYearMonth.getMonth(),
-					Integer.parseInt(dateLabel.getText()));
+			newSelectedDate = date;
 			setBorder(dateLabel);
 		}
 
@@ -213,10 +188,6 @@ public class CalendarController extends VBox {
 		return previousSelection;
 	}
 
-	private LocalDate getDate(Label label) {
-		return LocalDate.of(currentYearMonth.getYear(), currentYearMonth.getMonth(), Integer.parseInt(label.getText()));
-	}
-
 	/**
 	 * Gets the currently selected date.
 	 *
@@ -233,6 +204,7 @@ public class CalendarController extends VBox {
 	@FXML
 	private void initialize() {
 		createDateGrid();
+		bindCells();
 		colorizeEntryDays();
 		colorizeToday();
 
@@ -298,10 +270,7 @@ public class CalendarController extends VBox {
 	 * @param day int
 	 */
 	public void selectDayOfMonth(int day) {
-		Node node = dateGrid.getChildrenUnmodifiable().get(day - 1);
-		if (node instanceof Label label) {
-			fireSelectionEvent(getDate(label));
-		}
+		fireSelectionEvent(currentYearMonth.atDay(day));
 	}
 
 	/**
@@ -310,8 +279,8 @@ public class CalendarController extends VBox {
 	 * @param label {@link Label}
 	 */
 	private void setBorder(Label label) {
-		clearBorders();
-		label.setBorder(new Border(
-				new BorderStroke(Color.BURLYWOOD, BorderStrokeStyle.SOLID, new CornerRadii(5), new BorderWidths(3))));
+		for (Label cell : cells) {
+			cell.pseudoClassStateChanged(SELECTED, cell == label);
+		}
 	}
 }
@@ -0,0 +1,77 @@
+package ca.footeware.javafx.journal.controllers;
+
+import java.util.Locale;
+import java.util.Map;
+
+import ca.footeware.javafx.journal.model.Metrics;
+import ca.footeware.javafx.journal.model.Metrics.Snapshot;
+import ca.footeware.javafx.journal.model.Metrics.Summary;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.fxml.FXML;
+import javafx.scene.Scene;
+import javafx.scene.control.TextArea;
+import javafx.stage.Window;
+import javafx.util.Duration;
+
+/**
+ * MVC Controller for the hidden "Diagnostics" page, opened in its own window
+ * with Shortcut+Shift+D. It shows the {@link Metrics}, refreshed every second, with
+ * rates since the previous refresh. Times are in microseconds.
+ */
+public class DiagnosticsPageController {
+
+	private static final Duration REFRESH = Duration.seconds(1);
+
+	@FXML
+	private TextArea metricsArea;
+
+	private Snapshot previous;
+	private Timeline refresher;
+
+	/**
+	 * Called after injection of widgets.
+	 */
+	@FXML
+	private void initialize() {
+		refresh();
+		refresher = new Timeline(new KeyFrame(REFRESH, _ -> refresh()));
+		refresher.setCycleCount(Animation.INDEFINITE);
+		// refresh only while the window is open
+		metricsArea.sceneProperty().flatMap(Scene::windowProperty).flatMap(Window::showingProperty).orElse(false)
+				.addListener((_, _, showing) -> {
+					if (showing) {
+						refresh();
+						refresher.play();
+					} else {
+						refresher.stop();
+					}
+				});
+	}
+
+	/**
+	 * Show a new snapshot of the metrics.
+	 */
+	private void refresh() {
+		Snapshot snapshot = Metrics.snapshot();
+		StringBuilder text = new StringBuilder();
+		text.append(String.format(Locale.ROOT, "%-28s %10s %9s%n", "Counter", "Count", "/s"));
+		for (Map.Entry<String, Long> counter : snapshot.counters().entrySet()) {
+			text.append(String.format(Locale.ROOT, "%-28s %10d %9.1f%n", counter.getKey(), counter.getValue(),
+					snapshot.perSecond(counter.getKey(), previous)));
+		}
+		text.append(String.format(Locale.ROOT, "%n%-28s %10s %9s %9s %9s %9s %9s %9s%n", "Histogram", "Count", "/s",
+				"Mean", "p50", "p95", "p99", "Max"));
+		for (Map.Entry<String, Summary> histogram : snapshot.histograms().entrySet()) {
+			Summary summary = histogram.getValue();
+			text.append(String.format(Locale.ROOT, "%-28s %10d %9.1f %9.1f %9d %9d %9d %9d%n", histogram.getKey(),
+					summary.count(), snapshot.perSecond(histogram.getKey(), previous), summary.mean(), summary.p50(),
+					summary.p95(), summary.p99(), summary.max()));
+		}
+		previous = snapshot;
+		double scrollTop = metricsArea.getScrollTop();
+		metricsArea.setText(text.toString());
+		metricsArea.setScrollTop(scrollTop);
+	}
+}
@@ -1,5 +1,6 @@
 package ca.footeware.javafx.journal.controllers;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.time.LocalDate;
@@ -8,18 +9,30 @@ import java.time.format.DateTimeFormatter;
 
 import ca.footeware.javafx.journal.App;
 import ca.footeware.javafx.journal.exceptions.JournalException;
-import ca.footeware.javafx.journal.model.DateSelection;
+import ca.footeware.javafx.journal.model.DirtyTracker;
+import ca.footeware.javafx.journal.model.JournalExporter;
+import ca.footeware.javafx.journal.model.JournalExporter.Format;
+import ca.footeware.javafx.journal.model.JournalImporter;
 import ca.footeware.javafx.journal.model.JournalManager;
+import ca.footeware.javafx.journal.model.Metrics;
 import ca.footeware.javafx.journal.model.SelectionEvent;
-import javafx.concurrent.Task;
+import javafx.application.Platform;
 import javafx.event.Event;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Node;
 import javafx.scene.control.Alert;
+import javafx.scene.control.Button;
 import javafx.scene.control.ButtonType;
+import javafx.scene.control.Dialog;
+import javafx.scene.control.Label;
+import javafx.scene.control.PasswordField;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.TextArea;
+import javafx.scene.layout.GridPane;
 import javafx.scene.layout.HBox;
+import javafx.stage.DirectoryChooser;
+import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 
 /**
@@ -28,14 +41,34 @@ import javafx.stage.Stage;
 public class EditorPageController {
 
 	private static final DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("MMM d, yyyy");
+	private static final Metrics.Histogram NAVIGATION_TIMES = Metrics.histogram("fx.editor.navigation.micros");
+	private static final Metrics.Histogram SAVE_TIMES = Metrics.histogram("fx.editor.save.micros");
+	private static final Metrics.Histogram SELECTION_TIMES = Metrics.histogram("fx.editor.selection.micros");
 	private CalendarController calendarController;
+	private final DirtyTracker dirtyTracker = new DirtyTracker();
 
 	@FXML
 	private HBox calendarWrapper;
 
+	@FXML
+	private Button exportButton;
+
+	@FXML
+	private Button importButton;
+
+	@FXML
+	private Button passwordButton;
+
+	private int savesInProgress;
+
 	@FXML
 	private TextArea textArea;
 
+	/**
+	 * True while an import, export or password change is running.
+	 */
+	private boolean transferring;
+
 	/**
 	 * Determine if the textArea has altered text and, if so, prompt the user to
 	 * save.
@@ -46,22 +79,31 @@ public class EditorPageController {
 	private void checkDirty(LocalDate oldDate, LocalDate newDate) {
 		if (oldDate != null) {
 			String displayedText = textArea.getText();
-			try {
-				String oldEntry = JournalManager.getEntry(oldDate);
-				boolean datesEqual = oldDate.equals(newDate); // selected same day
-				boolean noEntry = (displayedText == null || displayedText.isEmpty()) && oldEntry == null;
-				boolean textsMatch = oldEntry != null && oldEntry.equals(displayedText);
-				boolean isDirty = !datesEqual && !noEntry && !textsMatch;
-				if (isDirty) {
-					// edits made, prompt to save then show newly selected entry
-					promptToSave(oldDate, displayedText);
-				}
-			} catch (JournalException e) {
-				App.notify(e.getMessage());
+			boolean datesEqual = oldDate.equals(newDate); // selected same day
+			boolean isDirty = !datesEqual && dirtyTracker.isDirty(displayedText);
+			if (isDirty) {
+				// edits made, prompt to save then show newly selected entry
+				promptToSave(oldDate, displayedText);
 			}
 		}
 	}
 
+	/**
+	 * Restore the UI once an import, export or password change has finished.
+	 *
+	 * @param message {@link String} the outcome, for the user
+	 */
+	private void finishTransfer(String message) {
+		transferring = false;
+		exportButton.setDisable(false);
+		importButton.setDisable(false);
+		passwordButton.setDisable(false);
+		if (savesInProgress == 0) {
+			App.getProgressBar().setVisible(false);
+		}
+		App.notify(message);
+	}
+
 	/**
 	 * Called after injection of widgets.
 	 */
@@ -92,28 +134,138 @@ public class EditorPageController {
 		}
 	}
 
+	/**
+	 * Prompt for a file and format and export the journal to it on a background
+	 * thread, showing progress in the progress bar.
+	 */
+	@FXML
+	private void onExportAction() {
+		FileChooser fileChooser = new FileChooser();
+		fileChooser.setTitle("Export Journal");
+		for (Format format : Format.values()) {
+			fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter(
+					format.getLabel() + " (*." + format.getExtension() + ")", "*." + format.getExtension()));
+		}
+		File file = fileChooser.showSaveDialog(App.getPrimaryStage());
+		if (file == null) {
+			return;
+		}
+		// the file name's extension wins over the selected filter
+		Format format = Format.MARKDOWN;
+		int filter = fileChooser.getExtensionFilters().indexOf(fileChooser.getSelectedExtensionFilter());
+		if (filter >= 0) {
+			format = Format.values()[filter];
+		}
+		for (Format candidate : Format.values()) {
+			if (file.getName().endsWith("." + candidate.getExtension())) {
+				format = candidate;
+			}
+		}
+		Alert alert = new Alert(Alert.AlertType.CONFIRMATION);
+		alert.setTitle("Export Journal");
+		alert.setHeaderText("Write a separate file for each year?");
+		ButtonType yesButton = new ButtonType("Yes", ButtonType.YES.getButtonData());
+		ButtonType noButton = new ButtonType("No", ButtonType.NO.getButtonData());
+		alert.getButtonTypes().setAll(yesButton, noButton);
+		boolean splitByYear = alert.showAndWait().orElse(noButton) == yesButton;
+
+		startTransfer(0);
+		Format chosen = format;
+		Thread exporter = new Thread(() -> {
+			try {
+				JournalExporter.export(file.toPath(), chosen, splitByYear,
+						fraction -> Platform.runLater(() -> App.getProgressBar().setProgress(fraction)));
+				Platform.runLater(() -> finishTransfer("Journal was exported."));
+			} catch (JournalException e) {
+				Platform.runLater(() -> finishTransfer(e.getMessage()));
+			}
+		}, "journal-export");
+		exporter.setDaemon(true);
+		exporter.start();
+	}
+
 	@FXML
 	private void onFirstEntryAction() {
+		long start = System.nanoTime();
 		LocalDate firstEntryDate = JournalManager.getFirstEntryDate();
 		if (firstEntryDate != null) {
 			YearMonth yearMonth = YearMonth.of(firstEntryDate.getYear(), firstEntryDate.getMonth());
 			calendarController.drawMonth(yearMonth);
 			calendarController.selectDayOfMonth(firstEntryDate.getDayOfMonth());
 		}
+		NAVIGATION_TIMES.recordSince(start);
+	}
+
+	/**
+	 * Prompt for a file or folder of entries and import them on a background
+	 * thread, then show them in the calendar.
+	 */
+	@FXML
+	private void onImportAction() {
+		Alert alert = new Alert(Alert.AlertType.CONFIRMATION);
+		alert.setTitle("Import Entries");
+		alert.setHeaderText("Import a JSON, Markdown or dated text file, or a folder of Markdown files?");
+		ButtonType fileButton = new ButtonType("File", ButtonType.YES.getButtonData());
+		ButtonType folderButton = new ButtonType("Folder", ButtonType.NO.getButtonData());
+		alert.getButtonTypes().setAll(fileButton, folderButton, ButtonType.CANCEL);
+		ButtonType response = alert.showAndWait().orElse(ButtonType.CANCEL);
+		File source;
+		if (response == fileButton) {
+			FileChooser fileChooser = new FileChooser();
+			fileChooser.setTitle("Import Entries");
+			for (JournalImporter.Format format : JournalImporter.Format.values()) {
+				fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter(
+						format.getLabel() + " (*." + format.getExtension() + ")", "*." + format.getExtension()));
+			}
+			fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("All files", "*.*"));
+			source = fileChooser.showOpenDialog(App.getPrimaryStage());
+		} else if (response == folderButton) {
+			DirectoryChooser directoryChooser = new DirectoryChooser();
+			directoryChooser.setTitle("Import Markdown Folder");
+			source = directoryChooser.showDialog(App.getPrimaryStage());
+		} else {
+			source = null;
+		}
+		if (source == null) {
+			return;
+		}
+
+		startTransfer(ProgressBar.INDETERMINATE_PROGRESS);
+		Thread importer = new Thread(() -> {
+			try {
+				int count = JournalImporter.importEntries(source.toPath(), JournalImporter.Format.of(source.toPath()));
+				Platform.runLater(() -> {
+					calendarController.colorizeEntryDays();
+					// show the imported text unless there are edits to keep
+					LocalDate selectedDate = calendarController.getSelectedDate();
+					if (selectedDate != null && !dirtyTracker.isDirty(textArea.getText())) {
+						calendarController.selectDayOfMonth(selectedDate.getDayOfMonth());
+					}
+					finishTransfer(count == 1 ? "1 entry was imported." : count + " entries were imported.");
+				});
+			} catch (JournalException e) {
+				Platform.runLater(() -> finishTransfer(e.getMessage()));
+			}
+		}, "journal-import");
+		importer.setDaemon(true);
+		importer.start();
 	}
 
 	@FXML
 	private void onLastEntryAction() {
+		long start = System.nanoTime();
 		LocalDate lastEntryDate = JournalManager.getLastEntryDate();
 		if (lastEntryDate != null) {
 			YearMonth yearMonth = YearMonth.of(lastEntryDate.getYear(), lastEntryDate.getMonth());
 			calendarController.drawMonth(yearMonth);
 			calendarController.selectDayOfMonth(lastEntryDate.getDayOfMonth());
 		}
+		NAVIGATION_TIMES.recordSince(start);
 	}
 
 	@FXML
 	private void onNextEntryAction() {
+		long start = System.nanoTime();
 		LocalDate selectedDate = calendarController.getSelectedDate();
 		if (selectedDate != null) {
 			LocalDate nextEntryDate = JournalManager.getNextEntryDate(selectedDate);
@@ -123,10 +275,61 @@ public class EditorPageController {
 				calendarController.selectDayOfMonth(nextEntryDate.getDayOfMonth());
 			}
 		}
+		NAVIGATION_TIMES.recordSince(start);
+	}
+
+	/**
+	 * Prompt for the current and new passwords and re-encrypt the journal with the
+	 * new one on a background thread, showing progress in the progress bar.
+	 */
+	@FXML
+	private void onPasswordAction() {
+		PasswordField currentField = new PasswordField();
+		PasswordField newField = new PasswordField();
+		PasswordField confirmField = new PasswordField();
+		GridPane grid = new GridPane();
+		grid.setHgap(10);
+		grid.setVgap(10);
+		grid.addRow(0, new Label("Current password"), currentField);
+		grid.addRow(1, new Label("New password"), newField);
+		grid.addRow(2, new Label("Confirm new password"), confirmField);
+		Dialog<ButtonType> dialog = new Dialog<>();
+		dialog.setTitle("Change Password");
+		dialog.setHeaderText("Every entry will be re-encrypted with the new password.");
+		dialog.getDialogPane().setContent(grid);
+		dialog.getDialogPane().getButtonTypes().setAll(ButtonType.OK, ButtonType.CANCEL);
+		Platform.runLater(currentField::requestFocus);
+		if (dialog.showAndWait().orElse(ButtonType.CANCEL) != ButtonType.OK) {
+			return;
+		}
+		String oldPassword = currentField.getText();
+		String newPassword = newField.getText();
+		if (newPassword.isBlank()) {
+			App.notify("The new password is blank");
+			return;
+		}
+		if (!newPassword.equals(confirmField.getText())) {
+			App.notify("Passwords do not match");
+			return;
+		}
+
+		startTransfer(0);
+		Thread rekeyer = new Thread(() -> {
+			try {
+				JournalManager.changePassword(oldPassword, newPassword,
+						fraction -> Platform.runLater(() -> App.getProgressBar().setProgress(fraction)));
+				Platform.runLater(() -> finishTransfer("Password was changed."));
+			} catch (JournalException e) {
+				Platform.runLater(() -> finishTransfer(e.getMessage()));
+			}
+		}, "journal-rekey");
+		rekeyer.setDaemon(true);
+		rekeyer.start();
 	}
 
 	@FXML
 	private void onPreviousEntryAction() {
+		long start = System.nanoTime();
 		LocalDate selectedDate = calendarController.getSelectedDate();
 		if (selectedDate != null) {
 			LocalDate previousEntryDate = JournalManager.getPreviousEntryDate(selectedDate);
@@ -136,15 +339,18 @@ public class EditorPageController {
 				calendarController.selectDayOfMonth(previousEntryDate.getDayOfMonth());
 			}
 		}
+		NAVIGATION_TIMES.recordSince(start);
 	}
 
 	@FXML
 	private void onSaveAction() {
+		long start = System.nanoTime();
 		LocalDate selectedDate = calendarController.getSelectedDate();
 		if (selectedDate != null) {
 			String text = textArea.getText();
 			save(selectedDate, text);
 		}
+		SAVE_TIMES.recordSince(start);
 	}
 
 	/**
@@ -153,6 +359,7 @@ public class EditorPageController {
 	 * @param Event {@link Event}
 	 */
 	private void onSelectionEvent(Event event) {
+		long start = System.nanoTime();
 		if (event instanceof SelectionEvent selectionEvent) {
 			LocalDate oldDate = selectionEvent.getSelection().oldDate();
 			LocalDate newDate = selectionEvent.getSelection().newDate();
@@ -163,6 +370,7 @@ public class EditorPageController {
 			if (newDate != null && JournalManager.hasDate(newDate)) {
 				try {
 					String newEntry = JournalManager.getEntry(newDate);
+					dirtyTracker.reset(newEntry);
 					textArea.setText(newEntry);
 					textArea.requestFocus();
 
@@ -172,6 +380,7 @@ public class EditorPageController {
 					App.notify(e.getMessage());
 				}
 			} else {
+				dirtyTracker.reset(null);
 				textArea.setText(null);
 				textArea.requestFocus();
 
@@ -180,35 +389,26 @@ public class EditorPageController {
 			}
 		}
 		event.consume();
+		SELECTION_TIMES.recordSince(start);
 	}
 
 	/**
-	 * Respond to textual changes in the journal editor.
+	 * Respond to textual changes in the journal editor by comparing against the
+	 * text last loaded or saved.
 	 *
 	 * @param newValue {@link String}
 	 */
 	private void onTextChanged(String newValue) {
-		DateSelection currentSelection = calendarController.getCurrentSelection();
-		if (currentSelection != null && currentSelection.newDate() != null) {
-			try {
-				String entry = JournalManager.getEntry(currentSelection.newDate());
-				if ((newValue != null && newValue.equals(entry)) || (entry != null && newValue == null)
-						|| (newValue != null && entry != null)) {
-					setDirty(true);
-				}
-			} catch (JournalException e) {
-				App.notify(e.getMessage());
-			}
-		} else if (newValue != null) {
-			setDirty(true);
-		}
+		setDirty(dirtyTracker.isDirty(newValue));
 	}
 
 	@FXML
 	private void onTodayAction() {
+		long start = System.nanoTime();
 		LocalDate now = LocalDate.now();
 		calendarController.drawMonth(YearMonth.now());
 		calendarController.selectDayOfMonth(now.getDayOfMonth());
+		NAVIGATION_TIMES.recordSince(start);
 	}
 
 	/**
@@ -235,40 +435,34 @@ public class EditorPageController {
 	}
 
 	/**
-	 * Save the provided date and associated text in the journal.
+	 * Save the provided date and associated text in the journal. The save is
+	 * queued to the journal's background writer and the UI updated once it is on
+	 * disk.
 	 *
 	 * @param date {@link LocalDate}
 	 * @param text {@link String}
 	 */
 	private void save(LocalDate date, String text) {
-		// run in a new Thread then update UI
-		Task<Void> saveTask = new Task<>() {
-			@Override
-			protected Void call() throws Exception {
-				updateProgress(2, 10);
-				App.getProgressBar().setVisible(true);
-				updateProgress(4, 10);
-				JournalManager.addEntry(date, text);
-				updateProgress(6, 10);
-				JournalManager.saveJournal();
-				updateProgress(10, 10);
-				return null;
-			}
-
-			@Override
-			protected void succeeded() {
-				setDirty(false);
-				calendarController.colorizeEntryDays();
-				textArea.requestFocus();
-				App.notify("Journal was saved.");
-				App.getProgressBar().progressProperty().unbind();
+		savesInProgress++;
+		App.getProgressBar().setProgress(ProgressBar.INDETERMINATE_PROGRESS);
+		App.getProgressBar().setVisible(true);
+		JournalManager.saveEntry(date, text).whenComplete((_, e) -> Platform.runLater(() -> {
+			if (--savesInProgress == 0 && !transferring) {
 				App.getProgressBar().setVisible(false);
 			}
-		};
-		App.getProgressBar().progressProperty().bind(saveTask.progressProperty());
-		var thread = new Thread(saveTask);
-		thread.setDaemon(true);
-		thread.start();
+			if (e != null) {
+				App.notify(e.getMessage());
+				return;
+			}
+			// a prompted save may be for a date no longer displayed
+			if (date.equals(calendarController.getSelectedDate())) {
+				dirtyTracker.reset(text);
+				setDirty(dirtyTracker.isDirty(textArea.getText()));
+			}
+			calendarController.colorizeEntryDays();
+			textArea.requestFocus();
+			App.notify("Journal was saved.");
+		}));
 	}
 
 	/**
@@ -288,4 +482,20 @@ public class EditorPageController {
 			}
 		}
 	}
+
+	/**
+	 * Show the progress bar and disable importing, exporting and changing the
+	 * password until
+	 * {@link #finishTransfer(String)}.
+	 *
+	 * @param progress double the initial progress
+	 */
+	private void startTransfer(double progress) {
+		transferring = true;
+		exportButton.setDisable(true);
+		importButton.setDisable(true);
+		passwordButton.setDisable(true);
+		App.getProgressBar().setProgress(progress);
+		App.getProgressBar().setVisible(true);
+	}
 }
\ No newline at end of file
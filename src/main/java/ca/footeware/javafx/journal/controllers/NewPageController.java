@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.IOException;
 
 import ca.footeware.javafx.journal.App;
+import ca.footeware.javafx.journal.exceptions.JournalException;
 import ca.footeware.javafx.journal.model.JournalManager;
 import javafx.animation.FadeTransition;
 import javafx.fxml.FXML;
@@ -61,7 +62,7 @@ public class NewPageController {
 				}
 			});
 			transition.play();
-		} catch (IllegalArgumentException | IOException e) {
+		} catch (IllegalArgumentException | IOException | JournalException e) {
 			App.notify(e.getMessage());
 		}
 	}
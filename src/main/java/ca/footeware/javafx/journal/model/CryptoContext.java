@@ -0,0 +1,531 @@
+package ca.footeware.javafx.journal.model;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Per-thread state for {@link Superstar}: a reusable {@link Cipher} and
+ * {@link SecretKeyFactory}, a UTF-8 encoder, a {@link Deflater} and
+ * {@link Inflater}, and growable buffers that entries are Base64-decoded,
+ * compressed, encrypted and decrypted into without intermediate copies.
+ * Plaintext is zeroed from the buffers once it has been consumed.
+ */
+final class CryptoContext {
+
+	private static final byte[] BASE64_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+			.getBytes(StandardCharsets.US_ASCII);
+	private static final int[] BASE64_VALUES = new int[128];
+
+	/**
+	 * Entries shorter than this, in UTF-8 bytes, aren't worth compressing.
+	 */
+	private static final int COMPRESSION_THRESHOLD = 128;
+	private static final ThreadLocal<CryptoContext> CONTEXT = ThreadLocal.withInitial(CryptoContext::new);
+
+	/**
+	 * The bit of a version 2 entry's flags byte set when its plaintext was
+	 * deflated before encryption. A flags byte other than 0 is authenticated
+	 * along with the ciphertext.
+	 */
+	static final int DEFLATED = 1;
+	private static final byte[] DEFLATED_FLAGS = { DEFLATED };
+	private static final int INITIAL_CAPACITY = 4096;
+	private static final byte[] NO_FLAGS = { 0 };
+	private static final int TAG_LENGTH = 128;
+
+	static {
+		Arrays.fill(BASE64_VALUES, -1);
+		for (int i = 0; i < BASE64_ALPHABET.length; i++) {
+			BASE64_VALUES[BASE64_ALPHABET[i]] = i;
+		}
+	}
+
+	/**
+	 * Gets the calling thread's context.
+	 *
+	 * @return {@link CryptoContext}
+	 */
+	static CryptoContext get() {
+		return CONTEXT.get();
+	}
+
+	private Cipher cipher;
+	private Deflater deflater;
+	private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private Inflater inflater;
+	private byte[] input = new byte[INITIAL_CAPACITY];
+	private SecretKeyFactory keyFactory;
+	private byte[] output = new byte[INITIAL_CAPACITY];
+
+	/**
+	 * Holds plaintext on its way into or out of compression.
+	 */
+	private byte[] spare = new byte[INITIAL_CAPACITY];
+	private byte[] text = new byte[INITIAL_CAPACITY];
+
+	/**
+	 * Constructor, hidden because contexts are obtained through {@link #get()}.
+	 */
+	private CryptoContext() {
+		// empty
+	}
+
+	/**
+	 * Gets the reusable AES/GCM cipher.
+	 *
+	 * @return {@link Cipher}
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchPaddingException
+	 */
+	private Cipher cipher() throws NoSuchAlgorithmException, NoSuchPaddingException {
+		if (cipher == null) {
+			cipher = Cipher.getInstance("AES/GCM/NoPadding");
+		}
+		return cipher;
+	}
+
+	/**
+	 * Base64-decodes the provided string, from the provided index, into the input
+	 * buffer.
+	 *
+	 * @param encoded {@link String}
+	 * @param from    int the index of the first Base64 character
+	 * @return int the number of decoded bytes
+	 */
+	int decode(String encoded, int from) {
+		int end = encoded.length();
+		while (end > from && encoded.charAt(end - 1) == '=') {
+			end--;
+		}
+		int length = (end - from) * 3 / 4;
+		input = ensureCapacity(input, length);
+		int bits = 0;
+		int bitCount = 0;
+		int position = 0;
+		for (int i = from; i < end; i++) {
+			char c = encoded.charAt(i);
+			int value = c < 128 ? BASE64_VALUES[c] : -1;
+			if (value < 0) {
+				throw new IllegalArgumentException("Illegal base64 character " + Integer.toHexString(c));
+			}
+			bits = (bits << 6) | value;
+			bitCount += 6;
+			if (bitCount >= 8) {
+				bitCount -= 8;
+				input[position++] = (byte) (bits >> bitCount);
+			}
+		}
+		return position;
+	}
+
+	/**
+	 * Deflates the start of the input buffer into the spare buffer, provided the
+	 * result is smaller.
+	 *
+	 * @param length int the number of bytes to deflate
+	 * @return int the deflated length, or -1 if deflating doesn't shrink them
+	 */
+	private int deflateInput(int length) {
+		if (deflater == null) {
+			deflater = new Deflater();
+		}
+		deflater.reset();
+		deflater.setInput(input, 0, length);
+		deflater.finish();
+		spare = ensureCapacity(spare, length);
+		int size = 0;
+		while (!deflater.finished() && size < length) {
+			size += deflater.deflate(spare, size, length - size);
+		}
+		if (deflater.finished() && size < length) {
+			return size;
+		}
+		Arrays.fill(spare, 0, size, (byte) 0);
+		return -1;
+	}
+
+	/**
+	 * Base64-encodes a region of the output buffer, after the provided prefix.
+	 *
+	 * @param prefix {@link String} ASCII, may be empty
+	 * @param length int the number of bytes to encode from the start of the output
+	 *               buffer
+	 * @return {@link String}
+	 */
+	private String encode(String prefix, int length) {
+		int encodedLength = prefix.length() + (length + 2) / 3 * 4;
+		text = ensureCapacity(text, encodedLength);
+		int position = 0;
+		for (int i = 0; i < prefix.length(); i++) {
+			text[position++] = (byte) prefix.charAt(i);
+		}
+		int i = 0;
+		for (; i + 2 < length; i += 3) {
+			int bits = (output[i] & 0xff) << 16 | (output[i + 1] & 0xff) << 8 | (output[i + 2] & 0xff);
+			text[position++] = BASE64_ALPHABET[bits >>> 18];
+			text[position++] = BASE64_ALPHABET[(bits >>> 12) & 0x3f];
+			text[position++] = BASE64_ALPHABET[(bits >>> 6) & 0x3f];
+			text[position++] = BASE64_ALPHABET[bits & 0x3f];
+		}
+		int remaining = length - i;
+		if (remaining > 0) {
+			int bits = (output[i] & 0xff) << 16 | (remaining == 2 ? (output[i + 1] & 0xff) << 8 : 0);
+			text[position++] = BASE64_ALPHABET[bits >>> 18];
+			text[position++] = BASE64_ALPHABET[(bits >>> 12) & 0x3f];
+			text[position++] = remaining == 2 ? BASE64_ALPHABET[(bits >>> 6) & 0x3f] : (byte) '=';
+			text[position++] = '=';
+		}
+		return new String(text, 0, position, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Returns the provided buffer if it can hold the provided number of bytes,
+	 * otherwise a larger replacement.
+	 *
+	 * @param buffer byte array
+	 * @param length int
+	 * @return byte array
+	 */
+	private static byte[] ensureCapacity(byte[] buffer, int length) {
+		if (buffer.length >= length) {
+			return buffer;
+		}
+		return new byte[Math.max(length, buffer.length * 2)];
+	}
+
+	/**
+	 * Inflates the start of the output buffer into the spare buffer.
+	 *
+	 * @param length int the number of deflated bytes
+	 * @return int the inflated length
+	 * @throws DataFormatException if the bytes are not deflated data
+	 */
+	private int inflateOutput(int length) throws DataFormatException {
+		if (inflater == null) {
+			inflater = new Inflater();
+		}
+		inflater.reset();
+		inflater.setInput(output, 0, length);
+		spare = ensureCapacity(spare, length * 4);
+		int size = 0;
+		while (!inflater.finished()) {
+			if (size == spare.length) {
+				byte[] larger = Arrays.copyOf(spare, spare.length * 2);
+				Arrays.fill(spare, (byte) 0);
+				spare = larger;
+			}
+			int inflated = inflater.inflate(spare, size, spare.length - size);
+			if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+				throw new DataFormatException("Truncated entry.");
+			}
+			size += inflated;
+		}
+		return size;
+	}
+
+	/**
+	 * Gets the input buffer that {@link #decode(String, int)} wrote into.
+	 *
+	 * @return byte array
+	 */
+	byte[] input() {
+		return input;
+	}
+
+	/**
+	 * Gets the reusable key factory for the provided algorithm.
+	 *
+	 * @param algorithm {@link String}
+	 * @return {@link SecretKeyFactory}
+	 * @throws NoSuchAlgorithmException
+	 */
+	SecretKeyFactory keyFactory(String algorithm) throws NoSuchAlgorithmException {
+		if (keyFactory == null || !keyFactory.getAlgorithm().equals(algorithm)) {
+			keyFactory = SecretKeyFactory.getInstance(algorithm);
+		}
+		return keyFactory;
+	}
+
+	/**
+	 * Decrypts a region of the input buffer.
+	 *
+	 * @param secretKey {@link SecretKey}
+	 * @param ivOffset  int the offset of the IV in the input buffer
+	 * @param offset    int the offset of the ciphertext, which runs to the end
+	 * @param end       int the end of the ciphertext
+	 * @return {@link String} the UTF-8 plaintext
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchPaddingException
+	 * @throws InvalidKeyException
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 */
+	String open(SecretKey secretKey, int ivOffset, int offset, int end)
+			throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException,
+			InvalidAlgorithmParameterException, IllegalBlockSizeException, BadPaddingException {
+		int length = openToOutput(secretKey, ivOffset, offset, end, 0);
+		String plaintext = new String(output, 0, length, StandardCharsets.UTF_8);
+		Arrays.fill(output, 0, length, (byte) 0);
+		return plaintext;
+	}
+
+	/**
+	 * Decrypts a region of the input buffer to bytes.
+	 *
+	 * @param secretKey {@link SecretKey}
+	 * @param ivOffset  int the offset of the IV in the input buffer
+	 * @param offset    int the offset of the ciphertext
+	 * @param end       int the end of the ciphertext
+	 * @return byte array the plaintext
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchPaddingException
+	 * @throws InvalidKeyException
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 */
+	byte[] openBytes(SecretKey secretKey, int ivOffset, int offset, int end)
+			throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException,
+			InvalidAlgorithmParameterException, IllegalBlockSizeException, BadPaddingException {
+		int length = openToOutput(secretKey, ivOffset, offset, end, 0);
+		byte[] plaintext = Arrays.copyOf(output, length);
+		Arrays.fill(output, 0, length, (byte) 0);
+		return plaintext;
+	}
+
+	/**
+	 * Decrypts a version 2 entry in the input buffer: a flags byte, the IV and
+	 * the ciphertext. The plaintext is inflated if the flags say it was deflated.
+	 *
+	 * @param secretKey {@link SecretKey}
+	 * @param end       int the end of the ciphertext
+	 * @return {@link String} the UTF-8 plaintext
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchPaddingException
+	 * @throws InvalidKeyException
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException if the entry has been tampered with, including
+	 *                             its flags
+	 */
+	String openEntry(SecretKey secretKey, int end)
+			throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException,
+			InvalidAlgorithmParameterException, IllegalBlockSizeException, BadPaddingException {
+		int flags = input[0] & 0xff;
+		if ((flags & ~DEFLATED) != 0) {
+			throw new IllegalArgumentException("Unsupported entry flags " + Integer.toHexString(flags) + ".");
+		}
+		int length = openToOutput(secretKey, 1, 1 + NonceSource.IV_LENGTH, end, flags == 0 ? 0 : 1);
+		if (flags == 0) {
+			String plaintext = new String(output, 0, length, StandardCharsets.UTF_8);
+			Arrays.fill(output, 0, length, (byte) 0);
+			return plaintext;
+		}
+		int size = 0;
+		try {
+			size = inflateOutput(length);
+			return new String(spare, 0, size, StandardCharsets.UTF_8);
+		} catch (DataFormatException e) {
+			// authenticated, so deflated by a faulty writer rather than tampered with
+			BadPaddingException corrupt = new BadPaddingException("Corrupt compressed entry.");
+			corrupt.initCause(e);
+			throw corrupt;
+		} finally {
+			Arrays.fill(output, 0, length, (byte) 0);
+			Arrays.fill(spare, 0, size, (byte) 0);
+		}
+	}
+
+	/**
+	 * Decrypts a region of the input buffer into the start of the output buffer.
+	 *
+	 * @param secretKey {@link SecretKey}
+	 * @param ivOffset  int the offset of the IV in the input buffer
+	 * @param offset    int the offset of the ciphertext
+	 * @param end       int the end of the ciphertext
+	 * @param aadLength int the number of bytes at the start of the input buffer
+	 *                  authenticated along with the ciphertext
+	 * @return int the length of the plaintext
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchPaddingException
+	 * @throws InvalidKeyException
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 */
+	private int openToOutput(SecretKey secretKey, int ivOffset, int offset, int end, int aadLength)
+			throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException,
+			InvalidAlgorithmParameterException, IllegalBlockSizeException, BadPaddingException {
+		Cipher gcm = cipher();
+		gcm.init(Cipher.DECRYPT_MODE, secretKey,
+				new GCMParameterSpec(TAG_LENGTH, input, ivOffset, NonceSource.IV_LENGTH));
+		if (aadLength > 0) {
+			gcm.updateAAD(input, 0, aadLength);
+		}
+		output = ensureCapacity(output, gcm.getOutputSize(end - offset));
+		try {
+			return gcm.doFinal(input, offset, end - offset, output, 0);
+		} catch (ShortBufferException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Encrypts the provided data, producing the Base64 encoding of the header, a
+	 * fresh IV and the ciphertext, after the provided prefix.
+	 *
+	 * @param data      {@link String}
+	 * @param secretKey {@link SecretKey}
+	 * @param header    byte array written before the IV
+	 * @param prefix    {@link String} ASCII, may be empty
+	 * @return {@link String}
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchPaddingException
+	 * @throws InvalidKeyException
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 */
+	String seal(String data, SecretKey secretKey, byte[] header, String prefix)
+			throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException,
+			InvalidAlgorithmParameterException, IllegalBlockSizeException, BadPaddingException {
+		return sealInput(toInput(data), secretKey, header, prefix, false);
+	}
+
+	/**
+	 * Encrypts the provided bytes, producing the Base64 encoding of the header, a
+	 * fresh IV and the ciphertext, after the provided prefix.
+	 *
+	 * @param data      byte array
+	 * @param secretKey {@link SecretKey}
+	 * @param header    byte array written before the IV
+	 * @param prefix    {@link String} ASCII, may be empty
+	 * @return {@link String}
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchPaddingException
+	 * @throws InvalidKeyException
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 */
+	String seal(byte[] data, SecretKey secretKey, byte[] header, String prefix)
+			throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException,
+			InvalidAlgorithmParameterException, IllegalBlockSizeException, BadPaddingException {
+		input = ensureCapacity(input, data.length);
+		System.arraycopy(data, 0, input, 0, data.length);
+		return sealInput(data.length, secretKey, header, prefix, false);
+	}
+
+	/**
+	 * Encrypts the provided text as a version 2 entry: the Base64 encoding of a
+	 * flags byte, a fresh IV and the ciphertext, after the provided prefix. Text
+	 * long enough to be worth it is deflated first if that shrinks it.
+	 *
+	 * @param data      {@link String}
+	 * @param secretKey {@link SecretKey}
+	 * @param prefix    {@link String} ASCII
+	 * @param compress  boolean true to deflate text that shrinks
+	 * @return {@link String}
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchPaddingException
+	 * @throws InvalidKeyException
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 */
+	String sealEntry(String data, SecretKey secretKey, String prefix, boolean compress)
+			throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException,
+			InvalidAlgorithmParameterException, IllegalBlockSizeException, BadPaddingException {
+		int length = toInput(data);
+		int deflated = compress && length >= COMPRESSION_THRESHOLD ? deflateInput(length) : -1;
+		if (deflated < 0) {
+			return sealInput(length, secretKey, NO_FLAGS, prefix, false);
+		}
+		// encrypt the deflated text, which sealInput zeroes
+		Arrays.fill(input, 0, length, (byte) 0);
+		byte[] swap = input;
+		input = spare;
+		spare = swap;
+		return sealInput(deflated, secretKey, DEFLATED_FLAGS, prefix, true);
+	}
+
+	/**
+	 * Encrypts the start of the input buffer, zeroing it afterwards.
+	 *
+	 * @param plainLength  int the number of plaintext bytes in the input buffer
+	 * @param secretKey    {@link SecretKey}
+	 * @param header       byte array written before the IV
+	 * @param prefix       {@link String} ASCII, may be empty
+	 * @param authenticate boolean true to authenticate the header along with the
+	 *                     ciphertext
+	 * @return {@link String}
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchPaddingException
+	 * @throws InvalidKeyException
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 */
+	private String sealInput(int plainLength, SecretKey secretKey, byte[] header, String prefix,
+			boolean authenticate)
+			throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException,
+			InvalidAlgorithmParameterException, IllegalBlockSizeException, BadPaddingException {
+		int ivOffset = header.length;
+		int offset = ivOffset + NonceSource.IV_LENGTH;
+		Cipher gcm = cipher();
+		output = ensureCapacity(output, offset + plainLength + TAG_LENGTH / 8);
+		System.arraycopy(header, 0, output, 0, header.length);
+		NonceSource.nextIv(output, ivOffset);
+		gcm.init(Cipher.ENCRYPT_MODE, secretKey,
+				new GCMParameterSpec(TAG_LENGTH, output, ivOffset, NonceSource.IV_LENGTH));
+		if (authenticate) {
+			gcm.updateAAD(header);
+		}
+		int length;
+		try {
+			length = gcm.doFinal(input, 0, plainLength, output, offset);
+		} catch (ShortBufferException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			Arrays.fill(input, 0, plainLength, (byte) 0);
+		}
+		return encode(prefix, offset + length);
+	}
+
+	/**
+	 * UTF-8 encodes the provided text into the start of the input buffer.
+	 *
+	 * @param data {@link String}
+	 * @return int the number of bytes
+	 */
+	private int toInput(String data) {
+		// UTF-8 needs at most 3 bytes per UTF-16 char
+		input = ensureCapacity(input, data.length() * 3);
+		ByteBuffer plain = ByteBuffer.wrap(input);
+		encoder.reset();
+		encoder.encode(CharBuffer.wrap(data), plain, true);
+		encoder.flush(plain);
+		return plain.position();
+	}
+}
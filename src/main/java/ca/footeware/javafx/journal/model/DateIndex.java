@@ -0,0 +1,221 @@
+package ca.footeware.javafx.journal.model;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * An index of the dates having entries, kept as a sorted array of epoch days
+ * for ordered navigation and a bitmap of the same days for membership tests.
+ * Dates are usually added at the end, which costs nothing to keep sorted. A
+ * month's occupancy is read straight from the bitmap, so its cost doesn't
+ * depend on the number of entries.
+ */
+class DateIndex {
+
+	/**
+	 * Converts a key in the format yyyy-MM-dd to an epoch day without the
+	 * overhead of a {@link java.time.format.DateTimeFormatter}.
+	 *
+	 * @param key {@link String}
+	 * @return int
+	 */
+	static int parse(String key) {
+		return (int) LocalDate.of(Integer.parseInt(key, 0, 4, 10), Integer.parseInt(key, 5, 7, 10),
+				Integer.parseInt(key, 8, 10, 10)).toEpochDay();
+	}
+
+	/**
+	 * The epoch day of the first bit of {@link #words}, a multiple of 64.
+	 */
+	private int base;
+	private int[] days = new int[16];
+	private int size;
+	private long[] words = new long[0];
+
+	/**
+	 * Constructor.
+	 *
+	 * @param keys {@link Collection} of dates in the format yyyy-MM-dd
+	 */
+	DateIndex(Collection<String> keys) {
+		for (String key : keys) {
+			insert(parse(key));
+		}
+	}
+
+	/**
+	 * Adds a date to the index.
+	 *
+	 * @param date {@link LocalDate}
+	 */
+	synchronized void add(LocalDate date) {
+		insert((int) date.toEpochDay());
+	}
+
+	/**
+	 * Determines if the provided date is in the index.
+	 *
+	 * @param date {@link LocalDate}
+	 * @return boolean
+	 */
+	synchronized boolean contains(LocalDate date) {
+		return isSet(date.toEpochDay() - base);
+	}
+
+	/**
+	 * Gets the earliest date.
+	 *
+	 * @return {@link LocalDate} null if the index is empty
+	 */
+	synchronized LocalDate first() {
+		return size == 0 ? null : LocalDate.ofEpochDay(days[0]);
+	}
+
+	/**
+	 * Inserts an epoch day into the sorted array and the bitmap.
+	 *
+	 * @param day int
+	 */
+	private void insert(int day) {
+		int index = size == 0 || days[size - 1] < day ? -size - 1 : Arrays.binarySearch(days, 0, size, day);
+		if (index >= 0) {
+			return;
+		}
+		index = -index - 1;
+		if (size == days.length) {
+			days = Arrays.copyOf(days, size * 2);
+		}
+		System.arraycopy(days, index, days, index + 1, size - index);
+		days[index] = day;
+		size++;
+		setBit(day);
+	}
+
+	/**
+	 * Determines if a bit of the bitmap is set.
+	 *
+	 * @param bit long relative to {@link #base}
+	 * @return boolean false if outside the bitmap
+	 */
+	private boolean isSet(long bit) {
+		return bit >= 0 && bit < (long) words.length * Long.SIZE && (words[(int) (bit >>> 6)] & (1L << bit)) != 0;
+	}
+
+	/**
+	 * Gets the latest date.
+	 *
+	 * @return {@link LocalDate} null if the index is empty
+	 */
+	synchronized LocalDate last() {
+		return size == 0 ? null : LocalDate.ofEpochDay(days[size - 1]);
+	}
+
+	/**
+	 * Gets the days of the provided month that are in the index.
+	 *
+	 * @param month {@link YearMonth}
+	 * @return int with bit 0 set if the 1st is in the index, bit 1 for the 2nd and
+	 *         so on
+	 */
+	synchronized int monthMask(YearMonth month) {
+		long first = month.atDay(1).toEpochDay() - base;
+		int mask = 0;
+		for (int day = 0; day < month.lengthOfMonth(); day++) {
+			if (isSet(first + day)) {
+				mask |= 1 << day;
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * Gets the earliest date after the provided one.
+	 *
+	 * @param date {@link LocalDate}
+	 * @return {@link LocalDate} null if there is none
+	 */
+	synchronized LocalDate next(LocalDate date) {
+		int index = Arrays.binarySearch(days, 0, size, (int) date.toEpochDay());
+		index = index >= 0 ? index + 1 : -index - 1;
+		return index < size ? LocalDate.ofEpochDay(days[index]) : null;
+	}
+
+	/**
+	 * Gets the latest date before the provided one.
+	 *
+	 * @param date {@link LocalDate}
+	 * @return {@link LocalDate} null if there is none
+	 */
+	synchronized LocalDate previous(LocalDate date) {
+		int index = Arrays.binarySearch(days, 0, size, (int) date.toEpochDay());
+		index = index >= 0 ? index - 1 : -index - 2;
+		return index >= 0 ? LocalDate.ofEpochDay(days[index]) : null;
+	}
+
+	/**
+	 * Removes a date from the index.
+	 *
+	 * @param date {@link LocalDate}
+	 */
+	synchronized void remove(LocalDate date) {
+		int day = (int) date.toEpochDay();
+		int index = Arrays.binarySearch(days, 0, size, day);
+		if (index < 0) {
+			return;
+		}
+		System.arraycopy(days, index + 1, days, index, size - index - 1);
+		size--;
+		int bit = day - base;
+		words[bit >>> 6] &= ~(1L << bit);
+	}
+
+	/**
+	 * Sets the bit for an epoch day, growing the bitmap in either direction to
+	 * cover it.
+	 *
+	 * @param day int
+	 */
+	private void setBit(int day) {
+		int wordDay = Math.floorDiv(day, Long.SIZE) * Long.SIZE;
+		if (words.length == 0) {
+			base = wordDay;
+			words = new long[1];
+		} else if (wordDay < base) {
+			int shift = (base - wordDay) / Long.SIZE;
+			long[] grown = new long[words.length + shift];
+			System.arraycopy(words, 0, grown, shift, words.length);
+			words = grown;
+			base = wordDay;
+		} else if ((wordDay - base) / Long.SIZE >= words.length) {
+			words = Arrays.copyOf(words, Math.max(words.length * 2, (wordDay - base) / Long.SIZE + 1));
+		}
+		int bit = day - base;
+		words[bit >>> 6] |= 1L << bit;
+	}
+
+	/**
+	 * Gets the number of dates in the index.
+	 *
+	 * @return int
+	 */
+	synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the dates in ascending order.
+	 *
+	 * @return {@link List} of {@link LocalDate}
+	 */
+	synchronized List<LocalDate> toList() {
+		List<LocalDate> dates = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			dates.add(LocalDate.ofEpochDay(days[i]));
+		}
+		return dates;
+	}
+}
@@ -0,0 +1,53 @@
+package ca.footeware.javafx.journal.model;
+
+/**
+ * Tracks whether editor text differs from the last loaded or saved version of
+ * an entry by comparing against a baseline of its length and a 64-bit FNV-1a
+ * hash, so no decryption is needed on each keystroke. A null text is treated
+ * as empty.
+ */
+public class DirtyTracker {
+
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	/**
+	 * Hashes the provided text.
+	 *
+	 * @param text {@link String} not null
+	 * @return long
+	 */
+	private static long hash(String text) {
+		long hash = FNV_OFFSET_BASIS;
+		for (int i = 0; i < text.length(); i++) {
+			hash = (hash ^ text.charAt(i)) * FNV_PRIME;
+		}
+		return hash;
+	}
+
+	private long baselineHash = FNV_OFFSET_BASIS;
+	private int baselineLength;
+
+	/**
+	 * Determines if the provided text differs from the baseline.
+	 *
+	 * @param text {@link String} may be null
+	 * @return boolean true if there are unsaved changes
+	 */
+	public boolean isDirty(String text) {
+		String current = text == null ? "" : text;
+		// the length check settles most keystrokes without hashing
+		return current.length() != baselineLength || hash(current) != baselineHash;
+	}
+
+	/**
+	 * Records the provided text as the saved state of the entry.
+	 *
+	 * @param text {@link String} may be null
+	 */
+	public void reset(String text) {
+		String baseline = text == null ? "" : text;
+		baselineLength = baseline.length();
+		baselineHash = hash(baseline);
+	}
+}
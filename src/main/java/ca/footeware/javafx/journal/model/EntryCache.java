@@ -0,0 +1,97 @@
+package ca.footeware.javafx.journal.model;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least-recently-used cache of decrypted entries, bounded by an estimate of
+ * the memory the cached text occupies rather than by a number of entries.
+ * <p>
+ * {@link String}s are immutable so their contents cannot be zeroed; clearing
+ * the cache drops every reference so the text can be collected.
+ */
+public class EntryCache {
+
+	/**
+	 * Approximate per-entry cost of the map node, key and {@link String} headers.
+	 */
+	private static final long ENTRY_OVERHEAD = 96;
+
+	/**
+	 * Estimates the memory held by a cached entry.
+	 *
+	 * @param key   {@link String}
+	 * @param value {@link String}
+	 * @return long bytes
+	 */
+	private static long sizeOf(String key, String value) {
+		return ENTRY_OVERHEAD + 2L * (key.length() + value.length());
+	}
+
+	private final Map<String, String> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private final long maxBytes;
+	private long size;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxBytes long the approximate memory cap
+	 */
+	public EntryCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Drop every cached entry.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		size = 0;
+	}
+
+	/**
+	 * Gets a cached entry.
+	 *
+	 * @param key {@link String}
+	 * @return {@link String} may be null if not cached
+	 */
+	public synchronized String get(String key) {
+		return entries.get(key);
+	}
+
+	/**
+	 * Caches an entry, evicting the least recently used ones if over the cap.
+	 * Entries larger than the cap on their own are not cached.
+	 *
+	 * @param key   {@link String}
+	 * @param value {@link String}
+	 */
+	public synchronized void put(String key, String value) {
+		remove(key);
+		long entrySize = sizeOf(key, value);
+		if (entrySize > maxBytes) {
+			return;
+		}
+		entries.put(key, value);
+		size += entrySize;
+		Iterator<Map.Entry<String, String>> iterator = entries.entrySet().iterator();
+		while (size > maxBytes && iterator.hasNext()) {
+			Map.Entry<String, String> eldest = iterator.next();
+			size -= sizeOf(eldest.getKey(), eldest.getValue());
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * Removes an entry from the cache.
+	 *
+	 * @param key {@link String}
+	 */
+	public synchronized void remove(String key) {
+		String previous = entries.remove(key);
+		if (previous != null) {
+			size -= sizeOf(key, previous);
+		}
+	}
+}
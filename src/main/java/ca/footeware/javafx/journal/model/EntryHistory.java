@@ -0,0 +1,411 @@
+package ca.footeware.javafx.journal.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
+
+import ca.footeware.javafx.journal.model.JournalLog.Location;
+
+/**
+ * The revision history of a {@link Journal}'s entries, kept in an append-only
+ * {@link JournalLog} beside it. Each record is a version of an entry,
+ * compressed and encrypted with the journal key. Every
+ * {@link #SNAPSHOT_INTERVAL}th version of an entry is stored in full and the
+ * others as a delta against the version before: the common prefix and suffix
+ * lengths and the text between them.
+ */
+class EntryHistory {
+
+	/**
+	 * A revision record, on disk or written since the history was loaded.
+	 *
+	 * @param location   {@link Location} null if not read from disk
+	 * @param ciphertext {@link String} null if not read yet
+	 */
+	private record Slot(Location location, String ciphertext) {
+	}
+
+	/**
+	 * A decrypted revision record.
+	 *
+	 * @param savedAt  long epoch milliseconds
+	 * @param snapshot boolean
+	 * @param prefix   int for a delta, the length of the previous version's text
+	 *                 kept at the start
+	 * @param suffix   int for a delta, the length of the previous version's text
+	 *                 kept at the end
+	 * @param text     {@link String} the full text, or the text between prefix and
+	 *                 suffix
+	 */
+	private record Payload(long savedAt, boolean snapshot, int prefix, int suffix, String text) {
+	}
+
+	private static final int REKEY_BATCH = 256;
+	private static final int SNAPSHOT_INTERVAL = 16;
+
+	/**
+	 * Compresses the provided bytes.
+	 *
+	 * @param bytes byte array
+	 * @return byte array
+	 */
+	private static byte[] deflate(byte[] bytes) {
+		Deflater deflater = new Deflater();
+		try {
+			deflater.setInput(bytes);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 16);
+			byte[] buffer = new byte[4096];
+			while (!deflater.finished()) {
+				out.write(buffer, 0, deflater.deflate(buffer));
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Decompresses the provided bytes.
+	 *
+	 * @param bytes byte array
+	 * @return byte array
+	 * @throws IOException if the bytes are corrupt
+	 */
+	private static byte[] inflate(byte[] bytes) throws IOException {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(bytes);
+			ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 3);
+			byte[] buffer = new byte[4096];
+			while (!inflater.finished()) {
+				int length = inflater.inflate(buffer);
+				if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IOException("Truncated revision.");
+				}
+				out.write(buffer, 0, length);
+			}
+			return out.toByteArray();
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt revision.", e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Finds the revision records in a history file.
+	 *
+	 * @param file {@link Path}
+	 * @return {@link List} of keys and where their records lie, in file order
+	 * @throws IOException
+	 */
+	static List<Map.Entry<String, Location>> records(Path file) throws IOException {
+		List<Map.Entry<String, Location>> records = new ArrayList<>();
+		if (Files.exists(file)) {
+			new JournalLog(file).scan(_ -> false, (key, _, location) -> records.add(Map.entry(key, location)));
+		}
+		return records;
+	}
+
+	/**
+	 * Re-encrypts revision records with another key, appending them to another
+	 * log. The records are otherwise copied as they are.
+	 *
+	 * @param file    {@link Path} the history file
+	 * @param records {@link List} of records found by {@link #records(Path)}
+	 * @param target  {@link JournalLog}
+	 * @param oldKey  {@link SecretKey} the key the records are encrypted with
+	 * @param newKey  {@link SecretKey} the key to encrypt them with
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchPaddingException
+	 * @throws InvalidKeyException
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 * @throws IOException
+	 */
+	static void rekey(Path file, List<Map.Entry<String, Location>> records, JournalLog target, SecretKey oldKey,
+			SecretKey newKey) throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException,
+			InvalidAlgorithmParameterException, IllegalBlockSizeException, BadPaddingException, IOException {
+		JournalLog source = new JournalLog(file);
+		List<Map.Entry<String, String>> batch = new ArrayList<>(REKEY_BATCH);
+		for (Map.Entry<String, Location> record : records) {
+			byte[] payload = Superstar.decryptBytes(source.read(record.getValue()), oldKey);
+			batch.add(Map.entry(record.getKey(), Superstar.encrypt(payload, newKey)));
+			if (batch.size() == REKEY_BATCH) {
+				target.append(batch);
+				batch.clear();
+			}
+		}
+		if (!batch.isEmpty()) {
+			target.append(batch);
+		}
+	}
+
+	private final Path file;
+
+	/**
+	 * The entry whose revision was recorded last, and its text, so that saving
+	 * the same entry again needn't rebuild it from a snapshot.
+	 */
+	private String lastKey;
+	private String lastText;
+	private final JournalLog log;
+	private final List<Map.Entry<String, String>> unsaved = new ArrayList<>();
+	private Map<String, List<Slot>> revisions;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param file {@link Path} the history file, created on first save
+	 */
+	EntryHistory(Path file) {
+		this.file = file;
+		this.log = new JournalLog(file);
+	}
+
+	/**
+	 * Writes the revisions recorded since the last save.
+	 *
+	 * @throws IOException
+	 */
+	synchronized void save() throws IOException {
+		if (unsaved.isEmpty()) {
+			return;
+		}
+		if (!Files.exists(file)) {
+			Files.createFile(file);
+		}
+		log.append(unsaved);
+		unsaved.clear();
+	}
+
+	/**
+	 * Gets the text of a version of an entry.
+	 *
+	 * @param key       {@link String}
+	 * @param number    int the revision number
+	 * @param secretKey {@link SecretKey} the journal key
+	 * @return {@link String}
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchPaddingException
+	 * @throws InvalidKeyException
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 * @throws IOException
+	 */
+	synchronized String getRevision(String key, int number, SecretKey secretKey) throws NoSuchAlgorithmException,
+			NoSuchPaddingException, InvalidKeyException, InvalidAlgorithmParameterException, IllegalBlockSizeException,
+			BadPaddingException, IOException {
+		List<Slot> slots = slots(key);
+		if (number < 0 || number >= slots.size()) {
+			throw new IllegalArgumentException("No revision " + number + " of " + key + ".");
+		}
+		String text = null;
+		for (int i = number - number % SNAPSHOT_INTERVAL; i <= number; i++) {
+			Payload payload = read(slots.get(i), secretKey);
+			if (payload.snapshot()) {
+				text = payload.text();
+			} else {
+				text = text.substring(0, payload.prefix()) + payload.text()
+						+ text.substring(text.length() - payload.suffix());
+			}
+		}
+		return text;
+	}
+
+	/**
+	 * Gets the revisions of an entry, oldest first.
+	 *
+	 * @param key       {@link String}
+	 * @param secretKey {@link SecretKey} the journal key
+	 * @return {@link List} of {@link Revision}
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchPaddingException
+	 * @throws InvalidKeyException
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 * @throws IOException
+	 */
+	synchronized List<Revision> getRevisions(String key, SecretKey secretKey) throws NoSuchAlgorithmException,
+			NoSuchPaddingException, InvalidKeyException, InvalidAlgorithmParameterException, IllegalBlockSizeException,
+			BadPaddingException, IOException {
+		List<Slot> slots = slots(key);
+		List<Revision> list = new ArrayList<>(slots.size());
+		for (int i = 0; i < slots.size(); i++) {
+			Payload payload = read(slots.get(i), secretKey);
+			list.add(new Revision(i, Instant.ofEpochMilli(payload.savedAt()), payload.snapshot()));
+		}
+		return list;
+	}
+
+	/**
+	 * Determines if an entry has any revisions.
+	 *
+	 * @param key {@link String}
+	 * @return boolean
+	 * @throws IOException
+	 */
+	synchronized boolean hasRevisions(String key) throws IOException {
+		return !slots(key).isEmpty();
+	}
+
+	/**
+	 * Decrypts and decodes a revision record.
+	 *
+	 * @param slot      {@link Slot}
+	 * @param secretKey {@link SecretKey}
+	 * @return {@link Payload}
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchPaddingException
+	 * @throws InvalidKeyException
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 * @throws IOException
+	 */
+	private Payload read(Slot slot, SecretKey secretKey) throws NoSuchAlgorithmException, NoSuchPaddingException,
+			InvalidKeyException, InvalidAlgorithmParameterException, IllegalBlockSizeException, BadPaddingException,
+			IOException {
+		String ciphertext = slot.ciphertext() == null ? log.read(slot.location()) : slot.ciphertext();
+		String decoded = new String(inflate(Superstar.decryptBytes(ciphertext, secretKey)), StandardCharsets.UTF_8);
+		int headerEnd = decoded.indexOf('\n');
+		long savedAt = Long.parseLong(decoded, 1, headerEnd, 10);
+		if (decoded.charAt(0) == 'S') {
+			return new Payload(savedAt, true, 0, 0, decoded.substring(headerEnd + 1));
+		}
+		int comma = decoded.indexOf(',', headerEnd);
+		int deltaEnd = decoded.indexOf('\n', comma);
+		return new Payload(savedAt, false, Integer.parseInt(decoded, headerEnd + 1, comma, 10),
+				Integer.parseInt(decoded, comma + 1, deltaEnd, 10), decoded.substring(deltaEnd + 1));
+	}
+
+	/**
+	 * Records a new version of an entry, to be written by the next
+	 * {@link #save()}.
+	 *
+	 * @param key       {@link String}
+	 * @param previous  {@link String} the text before this change, used only if
+	 *                  the entry has no revisions yet, may be null
+	 * @param text      {@link String} the new text, empty if the entry was deleted
+	 * @param secretKey {@link SecretKey} the journal key
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchPaddingException
+	 * @throws InvalidKeyException
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 * @throws IOException
+	 */
+	synchronized void record(String key, String previous, String text, SecretKey secretKey)
+			throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException,
+			InvalidAlgorithmParameterException, IllegalBlockSizeException, BadPaddingException, IOException {
+		List<Slot> slots = slots(key);
+		String last;
+		if (key.equals(lastKey)) {
+			last = lastText;
+		} else if (!slots.isEmpty()) {
+			last = getRevision(key, slots.size() - 1, secretKey);
+		} else if (previous != null) {
+			// keep the version that predates the history
+			write(key, slots, null, previous, secretKey);
+			last = previous;
+		} else {
+			last = null;
+		}
+		if (!text.equals(last)) {
+			write(key, slots, last, text, secretKey);
+		}
+	}
+
+	/**
+	 * Gets the revision records of an entry, loading the history if it hasn't
+	 * been yet.
+	 *
+	 * @param key {@link String}
+	 * @return {@link List} of {@link Slot}
+	 * @throws IOException
+	 */
+	private List<Slot> slots(String key) throws IOException {
+		if (revisions == null) {
+			Map<String, List<Slot>> loaded = new HashMap<>();
+			if (Files.exists(file)) {
+				log.scan(_ -> false, (k, _, location) -> loaded.computeIfAbsent(k, _ -> new ArrayList<>())
+						.add(new Slot(location, null)));
+			}
+			revisions = loaded;
+		}
+		return revisions.computeIfAbsent(key, _ -> new ArrayList<>());
+	}
+
+	/**
+	 * Encodes, compresses and encrypts a revision record.
+	 *
+	 * @param key       {@link String}
+	 * @param slots     {@link List} of the entry's records
+	 * @param last      {@link String} the previous version, null if none
+	 * @param text      {@link String}
+	 * @param secretKey {@link SecretKey}
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchPaddingException
+	 * @throws InvalidKeyException
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 */
+	private void write(String key, List<Slot> slots, String last, String text, SecretKey secretKey)
+			throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException,
+			InvalidAlgorithmParameterException, IllegalBlockSizeException, BadPaddingException {
+		StringBuilder builder = new StringBuilder(text.length() + 32);
+		if (last == null || slots.size() % SNAPSHOT_INTERVAL == 0) {
+			builder.append('S').append(System.currentTimeMillis()).append('\n').append(text);
+		} else {
+			int max = Math.min(last.length(), text.length());
+			int prefix = 0;
+			while (prefix < max && last.charAt(prefix) == text.charAt(prefix)) {
+				prefix++;
+			}
+			// don't split a surrogate pair, whose halves can't be encoded apart
+			if (prefix > 0 && Character.isHighSurrogate(text.charAt(prefix - 1))) {
+				prefix--;
+			}
+			int suffix = 0;
+			while (suffix < max - prefix
+					&& last.charAt(last.length() - 1 - suffix) == text.charAt(text.length() - 1 - suffix)) {
+				suffix++;
+			}
+			if (suffix > 0 && Character.isLowSurrogate(text.charAt(text.length() - suffix))) {
+				suffix--;
+			}
+			builder.append('D').append(System.currentTimeMillis()).append('\n').append(prefix).append(',')
+					.append(suffix).append('\n').append(text, prefix, text.length() - suffix);
+		}
+		String ciphertext = Superstar.encrypt(deflate(builder.toString().getBytes(StandardCharsets.UTF_8)),
+				secretKey);
+		slots.add(new Slot(null, ciphertext));
+		unsaved.add(Map.entry(key, ciphertext));
+		lastKey = key;
+		lastText = text;
+	}
+}
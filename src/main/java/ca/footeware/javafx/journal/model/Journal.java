@@ -4,33 +4,215 @@
 package ca.footeware.javafx.journal.model;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.DoubleConsumer;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
+
+import ca.footeware.javafx.journal.model.JournalLog.Location;
 
 /**
  * A wrapper around a {@link Properties} file persisting a {@link TreeMap} whose
  * keys are date {@link String}s in format yyyy-MM-dd and the values are
  * encrypted {@link String}s.
+ * <p>
+ * The file is an append-only {@link JournalLog}: saving appends only the
+ * entries changed since the last save, and a background compaction rewrites it
+ * once superseded records make up too much of it. It is written as a binary
+ * {@link JournalContainer}; a file in the older {@link java.util.Properties}
+ * text format is read as it is and rewritten as a container on the next save.
+ * <p>
+ * Since format version 2 the file also holds a header of the KDF parameters,
+ * including a single salt from which the journal key is derived. Files without
+ * a header, or entries still in the version 1 format, are migrated in the
+ * background once the password has been verified.
+ * <p>
+ * A journal opened lazily only indexes its entries' dates and where their
+ * ciphertext lies in the file, reading each entry from disk the first time it
+ * is requested.
+ * <p>
+ * Optionally, every version of every entry is kept in an {@link EntryHistory}
+ * beside the journal file.
+ * <p>
+ * Entries are searched through a {@link SearchIndex}, filled in the background
+ * once the journal is opened and written to an encrypted sidecar file when it
+ * is closed.
+ * <p>
+ * Operations needing every entry's plaintext read them through
+ * {@link #readEntries(String, String, EntryHandler)}, which decrypts them in
+ * parallel and hands them over in date order.
+ * <p>
+ * Changing the password re-encrypts every entry into a new file that replaces
+ * the journal only once complete, and can resume if interrupted.
  */
 public class Journal {
 
-	private File file;
+	/**
+	 * Receives entries read by {@link Journal#readEntries(String, String, EntryHandler)}.
+	 */
+	@FunctionalInterface
+	public interface EntryHandler {
+
+		/**
+		 * Handle an entry.
+		 *
+		 * @param key  {@link String} a date in the format yyyy-MM-dd
+		 * @param text {@link String} the decrypted entry
+		 * @throws IOException
+		 */
+		void entry(String key, String text) throws IOException;
+	}
+
+	/**
+	 * Work done on each entry by {@link Journal#inParallel(List, int, String, EntryTask, ResultHandler)}.
+	 *
+	 * @param <T> the type of the result
+	 */
+	@FunctionalInterface
+	private interface EntryTask<T> {
+
+		/**
+		 * Do the work for an entry.
+		 *
+		 * @param key {@link String}
+		 * @return T
+		 * @throws GeneralSecurityException
+		 * @throws IOException
+		 */
+		T apply(String key) throws GeneralSecurityException, IOException;
+	}
+
+	/**
+	 * Receives the results of
+	 * {@link Journal#inParallel(List, int, String, EntryTask, ResultHandler)}.
+	 *
+	 * @param <T> the type of the result
+	 */
+	@FunctionalInterface
+	private interface ResultHandler<T> {
+
+		/**
+		 * Handle a result.
+		 *
+		 * @param key    {@link String}
+		 * @param result T
+		 * @throws GeneralSecurityException
+		 * @throws IOException
+		 */
+		void result(String key, T result) throws GeneralSecurityException, IOException;
+	}
+
+	private static final int COMPACTION_MIN_GARBAGE = 256;
+	private static final double COMPACTION_RATIO = 0.5;
+	private static final String FORMAT_VERSION = "format.version";
+	private static final String KDF_ALGORITHM = "kdf.algorithm";
+	private static final String KDF_ITERATIONS = "kdf.iterations";
+	private static final String KDF_SALT = "kdf.salt";
+	private static final Set<String> HEADER_KEYS = Set.of(FORMAT_VERSION, KDF_ALGORITHM, KDF_ITERATIONS, KDF_SALT);
+	private static final int KEY_CACHE_CAPACITY = 512;
+	private static final int REKEY_BATCH = 256;
+	private static final String REKEY_COMMENT = "rekey ";
+	private static final String REKEY_SUFFIX = ".rekey";
+	private static final Metrics.Histogram SAVE_BYTES = Metrics.histogram("journal.save.bytes");
+	private static final Metrics.Histogram SAVE_TIMES = Metrics.histogram("journal.save.micros");
+	private static final String VERSION = "2";
+	private volatile boolean closed;
+	private Map<String, String> compactionDelta;
+
+	/**
+	 * True to deflate entries long enough to shrink before encrypting them.
+	 */
+	private volatile boolean compression = true;
+	private EntryCache entryCache;
+
+	/**
+	 * Incremented each time the log is replaced by one encrypted with a new key,
+	 * so that a compaction started before isn't swapped in after.
+	 */
+	private int generation;
+	private boolean headerPersisted;
+	private EntryHistory history;
+	private final Path historyFile;
+	private int iterations;
+	private final KeyCache keyCache = new KeyCache(KEY_CACHE_CAPACITY);
+	private final Map<String, Location> locations = new HashMap<>();
+	private final JournalLog log;
 	private Map<String, String> map;
+	private int parallelism = Runtime.getRuntime().availableProcessors();
 	private String password;
-	private Properties properties;
+	private final Path path;
+	private final Set<String> pending = new LinkedHashSet<>();
+
+	/**
+	 * Entries changed while the password is being changed, null otherwise.
+	 */
+	private Set<String> rekeyChanges;
+	private byte[] salt;
+	private final SearchIndex searchIndex = new SearchIndex();
+	private final Path searchIndexFile;
+
+	/**
+	 * Creates a pool of daemon threads.
+	 *
+	 * @param threads int
+	 * @param name    {@link String} the threads' name
+	 * @return {@link ExecutorService}
+	 */
+	private static ExecutorService executor(int threads, String name) {
+		return Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, name);
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Gets the header records describing the format and key derivation.
+	 *
+	 * @param salt       byte array
+	 * @param iterations int
+	 * @return {@link Map}
+	 */
+	private static Map<String, String> header(byte[] salt, int iterations) {
+		Map<String, String> header = new LinkedHashMap<>();
+		header.put(FORMAT_VERSION, VERSION);
+		header.put(KDF_ALGORITHM, Superstar.KDF_ALGORITHM);
+		header.put(KDF_ITERATIONS, Integer.toString(iterations));
+		header.put(KDF_SALT, Base64.getEncoder().encodeToString(salt));
+		return header;
+	}
 
 	/**
 	 * Constructor.
@@ -40,19 +222,85 @@ public class Journal {
 	 * @throws IOException if the journal cannot be loaded
 	 */
 	public Journal(File file, String password) throws IOException {
-		this.file = file;
+		this(file, password, false);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param file     {@link File}
+	 * @param password {@link String}
+	 * @param lazy     boolean true to read entries from disk only when requested
+	 * @throws IOException if the journal cannot be loaded
+	 */
+	public Journal(File file, String password, boolean lazy) throws IOException {
 		this.password = password;
 		this.map = new TreeMap<>();
-		this.properties = new Properties();
-		try (var in = new FileInputStream(file)) {
-			this.properties.load(in);
+		this.path = file.toPath();
+		this.log = new JournalLog(path, true);
+		this.historyFile = Path.of(file.getPath() + ".history");
+		this.searchIndexFile = Path.of(file.getPath() + ".index");
+		JournalEvents.Open event = new JournalEvents.Open();
+		event.begin();
+		readHeader(load(lazy));
+		event.end();
+		if (event.shouldCommit()) {
+			event.file = path.toString();
+			event.entries = map.size();
+			event.bytes = fileSize();
+			event.lazy = lazy;
+			event.commit();
+		}
+		recoverHistory();
+	}
+
+	/**
+	 * Adds many entries to the journal, encrypting them in parallel. Nothing is
+	 * added unless all are encrypted.
+	 *
+	 * @param entries {@link Map} of dates in the format yyyy-MM-dd to the text of
+	 *                their entries, blank to delete them
+	 * @throws GeneralSecurityException if an entry cannot be encrypted
+	 * @throws IOException              if the revision history cannot be read
+	 */
+	public void addEntries(Map<String, String> entries) throws GeneralSecurityException, IOException {
+		if (entries.isEmpty()) {
+			return;
+		}
+		SecretKey secretKey = getKey();
+		int threads;
+		synchronized (this) {
+			threads = parallelism;
+		}
+		boolean compress = compression;
+		Map<String, Future<String>> futures = new LinkedHashMap<>();
+		Map<String, String> encrypted = new HashMap<>();
+		ExecutorService executor = executor(threads, "journal-encryptor");
+		try {
+			for (Entry<String, String> entry : entries.entrySet()) {
+				String value = entry.getValue();
+				futures.put(entry.getKey(), executor.submit(
+						() -> value == null || value.isBlank() ? null : Superstar.encrypt(value, secretKey, compress)));
+			}
+			for (Entry<String, Future<String>> entry : futures.entrySet()) {
+				encrypted.put(entry.getKey(), entry.getValue().get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted adding entries.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof GeneralSecurityException securityException) {
+				throw securityException;
+			}
+			throw new IOException("Error adding entries.", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		synchronized (this) {
+			for (String key : futures.keySet()) {
+				put(key, entries.get(key), encrypted.get(key));
+			}
 		}
-		/*
-		 * The TreeMap, this.map, is natively sorted by key (so date strings are
-		 * ascending), is the data model object. The Properties file, this.properties,
-		 * is the persistence vector. Copy its entries to the map.
-		 */
-		this.properties.entrySet().forEach(entry -> map.put((String) entry.getKey(), (String) entry.getValue()));
 	}
 
 	/**
@@ -67,25 +315,202 @@ public class Journal {
 	 * @throws BadPaddingException
 	 * @throws InvalidAlgorithmParameterException
 	 * @throws InvalidKeySpecException
+	 * @throws IOException if the revision history cannot be read
+	 */
+	public synchronized void addEntry(String key, String value)
+			throws InvalidKeyException, NoSuchAlgorithmException, NoSuchPaddingException, IllegalBlockSizeException,
+			BadPaddingException, InvalidAlgorithmParameterException, InvalidKeySpecException, IOException {
+		boolean blank = value == null || value.isBlank();
+		put(key, value, blank ? null : Superstar.encrypt(value, getKey(), compression));
+	}
+
+	/**
+	 * Gets the ciphertext of an entry, reading it from disk if it hasn't been yet.
+	 * Must be called holding the lock, so that the log isn't replaced while it is
+	 * read.
+	 *
+	 * @param key {@link String}
+	 * @return {@link String} may be null if there's no entry for the provided date
+	 * @throws IOException
+	 */
+	private String ciphertext(String key) throws IOException {
+		String encrypted = map.get(key);
+		if (encrypted == null) {
+			Location location = locations.get(key);
+			if (location != null) {
+				encrypted = log.read(location);
+				map.put(key, encrypted);
+				locations.remove(key);
+			}
+		}
+		return encrypted;
+	}
+
+	/**
+	 * Closes the journal, stopping any migration, writing the search index if it
+	 * changed and zeroing and dropping the keys derived while it was open.
+	 */
+	public synchronized void close() {
+		closed = true;
+		if (searchIndex.isReady() && searchIndex.isDirty()) {
+			try {
+				searchIndex.write(searchIndexFile, getKey(), stamp());
+			} catch (GeneralSecurityException | IOException _) {
+				// rebuilt from the entries on next open
+			}
+		}
+		keyCache.clear();
+		if (entryCache != null) {
+			entryCache.clear();
+		}
+	}
+
+	/**
+	 * Rewrites the log with only the live entries. The snapshot is written without
+	 * holding the lock; entries saved in the meantime are appended to it before it
+	 * is swapped in.
+	 */
+	private void compact() {
+		Map<String, String> header;
+		Map<String, String> snapshot;
+		Map<String, Location> unread;
+		int started;
+		synchronized (this) {
+			started = generation;
+			header = header();
+			snapshot = new TreeMap<>(map);
+			unread = new HashMap<>(locations);
+		}
+		JournalEvents.Compaction event = new JournalEvents.Compaction();
+		event.begin();
+		Path compacted = null;
+		try {
+			// read without the lock: a password change may swap the log in the meantime,
+			// in which case what was read is garbage or fails, but the generation check
+			// below discards the snapshot either way
+			for (Entry<String, Location> entry : unread.entrySet()) {
+				snapshot.put(entry.getKey(), log.read(entry.getValue()));
+			}
+			JournalLog.Snapshot written = log.writeSnapshot(header, snapshot);
+			compacted = written.file();
+			synchronized (this) {
+				// a journal reopened after close may already be appending to the file, and
+				// one whose password changed has been rewritten under the new key
+				if (!closed && generation == started) {
+					log.appendToSnapshot(compacted, compactionDelta);
+					log.replaceWith(compacted, (long) header.size() + snapshot.size() + compactionDelta.size());
+					compacted = null;
+					// entries still unread have moved
+					unread.forEach((key, location) -> {
+						if (locations.get(key) == location) {
+							locations.put(key, written.locations().get(key));
+						}
+					});
+				}
+			}
+			event.end();
+			if (event.shouldCommit()) {
+				event.entries = snapshot.size();
+				event.bytes = fileSize();
+				event.swapped = compacted == null;
+				event.commit();
+			}
+		} catch (IOException _) {
+			// the log is untouched and compaction is retried after a later save
+		} finally {
+			synchronized (this) {
+				compactionDelta = null;
+			}
+			if (compacted != null) {
+				try {
+					Files.deleteIfExists(compacted);
+				} catch (IOException _) {
+					// overwritten by the next compaction
+				}
+			}
+		}
+	}
+
+	/**
+	 * Decrypts the provided entry, whichever format it is in.
+	 *
+	 * @param encrypted {@link String}
+	 * @return {@link String}
+	 * @throws InvalidKeyException
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchPaddingException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws InvalidKeySpecException
 	 */
-	public void addEntry(String key, String value)
+	private String decrypt(String encrypted)
 			throws InvalidKeyException, NoSuchAlgorithmException, NoSuchPaddingException, IllegalBlockSizeException,
 			BadPaddingException, InvalidAlgorithmParameterException, InvalidKeySpecException {
-		if (value == null || value.isBlank()) {
-			map.remove(key);
-		} else {
-			String encrypted = Superstar.encrypt(value, password);
-			map.put(key, encrypted);
+		if (Superstar.isLegacy(encrypted)) {
+			return Superstar.decrypt(encrypted, password, keyCache);
+		}
+		return Superstar.decrypt(encrypted, getKey());
+	}
+
+	/**
+	 * Decrypts an entry without caching it or the key of a version 1 entry.
+	 *
+	 * @param key       {@link String}
+	 * @param secretKey {@link SecretKey} the journal key
+	 * @return {@link String} null if there's no entry for the provided date or the
+	 *         journal is closed
+	 * @throws GeneralSecurityException
+	 * @throws IOException
+	 */
+	private String decryptStored(String key, SecretKey secretKey) throws GeneralSecurityException, IOException {
+		String encrypted = closed ? null : storedCiphertext(key);
+		if (encrypted == null) {
+			return null;
 		}
+		// don't pollute the key cache with single-use keys
+		return Superstar.isLegacy(encrypted) ? Superstar.decrypt(encrypted, password, null)
+				: Superstar.decrypt(encrypted, secretKey);
 	}
 
 	/**
-	 * Gets all entries from the journal.
+	 * Gets the size of the journal file, for recording in events.
 	 *
-	 * @return Map<String, String>
+	 * @return long 0 if it cannot be determined
+	 */
+	private long fileSize() {
+		try {
+			return Files.size(path);
+		} catch (IOException _) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Fills the search index from its sidecar file or, if that is missing or out
+	 * of date, by decrypting every entry in parallel.
 	 */
-	public Map<String, String> getEntries() {
-		return map;
+	private void fillSearchIndex() {
+		Throwable failure = null;
+		try {
+			if (!searchIndex.read(searchIndexFile, getKey(), stamp())) {
+				readEntries(null, null, (key, text) -> searchIndex.index(DateIndex.parse(key), text));
+			}
+		} catch (GeneralSecurityException | IOException | RuntimeException | Error e) {
+			// searches must not wait forever
+			failure = e;
+		} finally {
+			searchIndex.filled(failure);
+		}
+	}
+
+	/**
+	 * Gets the keys of all entries in the journal, in ascending order.
+	 *
+	 * @return {@link Set} of {@link String}
+	 */
+	public synchronized Set<String> getKeys() {
+		return new LinkedHashSet<>(map.keySet());
 	}
 
 	/**
@@ -100,40 +525,824 @@ public class Journal {
 	 * @throws BadPaddingException
 	 * @throws InvalidAlgorithmParameterException
 	 * @throws InvalidKeySpecException
+	 * @throws IOException if the entry cannot be read from disk
 	 */
 	public String getEntry(String key)
 			throws InvalidKeyException, NoSuchAlgorithmException, NoSuchPaddingException, IllegalBlockSizeException,
-			BadPaddingException, InvalidAlgorithmParameterException, InvalidKeySpecException {
-		String encrypted = map.get(key);
-		if (encrypted != null) {
-			return Superstar.decrypt(encrypted, password);
+			BadPaddingException, InvalidAlgorithmParameterException, InvalidKeySpecException, IOException {
+		String encrypted;
+		EntryCache cache;
+		synchronized (this) {
+			cache = entryCache;
+			if (cache != null) {
+				String cached = cache.get(key);
+				if (cached != null) {
+					return cached;
+				}
+			}
+			encrypted = ciphertext(key);
+		}
+		if (encrypted == null) {
+			return null;
+		}
+		String value = decrypt(encrypted);
+		if (cache != null) {
+			synchronized (this) {
+				// don't cache if the entry was replaced while decrypting
+				if (map.get(key) == encrypted && cache == entryCache) {
+					cache.put(key, value);
+				}
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Gets a version of an entry from its revision history.
+	 *
+	 * @param key    {@link String}
+	 * @param number int the revision number, from 0 for the oldest
+	 * @return {@link String} empty if the entry was deleted in that version
+	 * @throws InvalidKeyException
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchPaddingException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws InvalidKeySpecException
+	 * @throws IOException
+	 */
+	public String getRevision(String key, int number)
+			throws InvalidKeyException, NoSuchAlgorithmException, NoSuchPaddingException, IllegalBlockSizeException,
+			BadPaddingException, InvalidAlgorithmParameterException, InvalidKeySpecException, IOException {
+		EntryHistory entryHistory = requireHistory();
+		return entryHistory.getRevision(key, number, getKey());
+	}
+
+	/**
+	 * Gets the revision history of an entry.
+	 *
+	 * @param key {@link String}
+	 * @return {@link List} of {@link Revision} oldest first
+	 * @throws InvalidKeyException
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchPaddingException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws InvalidKeySpecException
+	 * @throws IOException
+	 */
+	public List<Revision> getRevisions(String key)
+			throws InvalidKeyException, NoSuchAlgorithmException, NoSuchPaddingException, IllegalBlockSizeException,
+			BadPaddingException, InvalidAlgorithmParameterException, InvalidKeySpecException, IOException {
+		EntryHistory entryHistory = requireHistory();
+		return entryHistory.getRevisions(key, getKey());
+	}
+
+	/**
+	 * Gets the journal key, derived once from the password and the journal's salt.
+	 *
+	 * @return {@link SecretKey}
+	 * @throws NoSuchAlgorithmException
+	 * @throws InvalidKeySpecException
+	 */
+	private SecretKey getKey() throws NoSuchAlgorithmException, InvalidKeySpecException {
+		return Superstar.deriveKey(password, salt, iterations, keyCache);
+	}
+
+	/**
+	 * Starts filling the search index on a background thread. Should only be
+	 * called once the password is known to be correct; searches wait until it is
+	 * filled.
+	 */
+	public void indexInBackground() {
+		Thread indexer = new Thread(this::fillSearchIndex, "journal-indexer");
+		indexer.setDaemon(true);
+		indexer.start();
+	}
+
+	/**
+	 * Does some work on each of the provided entries on a pool of threads, handing
+	 * the results to the handler in order on the calling thread. At most twice as
+	 * many entries as there are threads are worked on ahead of the handler, so
+	 * memory use doesn't grow with the journal.
+	 *
+	 * @param <T>     the type of the results
+	 * @param keys    {@link List} of {@link String}
+	 * @param threads int
+	 * @param name    {@link String} the threads' name
+	 * @param task    {@link EntryTask}
+	 * @param handler {@link ResultHandler}
+	 * @throws GeneralSecurityException if the task or handler fails to decrypt or
+	 *                                  encrypt
+	 * @throws IOException              if the task or handler fails otherwise or
+	 *                                  the journal is closed
+	 */
+	private <T> void inParallel(List<String> keys, int threads, String name, EntryTask<T> task,
+			ResultHandler<T> handler) throws GeneralSecurityException, IOException {
+		JournalEvents.ParallelEntries event = new JournalEvents.ParallelEntries();
+		event.begin();
+		ExecutorService executor = executor(threads, name);
+		try {
+			Deque<Future<T>> window = new ArrayDeque<>();
+			int submitted = 0;
+			for (String key : keys) {
+				while (submitted < keys.size() && window.size() < threads * 2) {
+					String next = keys.get(submitted++);
+					window.add(executor.submit(() -> task.apply(next)));
+				}
+				T result = window.remove().get();
+				if (closed) {
+					throw new IOException("The journal was closed.");
+				}
+				handler.result(key, result);
+			}
+			event.end();
+			if (event.shouldCommit()) {
+				event.task = name;
+				event.entries = keys.size();
+				event.threads = threads;
+				event.commit();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted reading entries.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof GeneralSecurityException securityException) {
+				throw securityException;
+			}
+			if (e.getCause() instanceof IOException ioException) {
+				throw ioException;
+			}
+			throw new IOException("Error reading entries.", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Determines if an entry is in the version 1 format, without reading it from
+	 * disk.
+	 *
+	 * @param key       {@link String}
+	 * @param encrypted {@link String} null if not read yet
+	 * @return boolean
+	 */
+	private boolean isLegacy(String key, String encrypted) {
+		return encrypted == null ? locations.get(key).legacy() : Superstar.isLegacy(encrypted);
+	}
+
+	/**
+	 * Determines if the provided password is the journal's.
+	 *
+	 * @param candidate {@link String}
+	 * @return boolean
+	 */
+	public synchronized boolean isPassword(String candidate) {
+		return candidate != null && MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8),
+				candidate.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Replays the log into the map.
+	 *
+	 * @param lazy boolean true to only record where entries lie in the file
+	 * @return {@link Map} the header records
+	 * @throws IOException
+	 */
+	private Map<String, String> load(boolean lazy) throws IOException {
+		/*
+		 * The TreeMap, this.map, is natively sorted by key (so date strings are
+		 * ascending), is the data model object. The Properties file, replayed from the
+		 * log, is the persistence vector. Copy its live entries to the map, or just
+		 * their keys with a null value if they're to be read later.
+		 */
+		Map<String, String> header = new HashMap<>();
+		try {
+			log.scan(key -> !lazy || HEADER_KEYS.contains(key), (key, value, location) -> {
+				if (HEADER_KEYS.contains(key)) {
+					header.put(key, value);
+				} else if (location.length() == 0) {
+					map.remove(key);
+					locations.remove(key);
+				} else if (value == null) {
+					map.put(key, null);
+					locations.put(key, location);
+				} else {
+					map.put(key, value);
+					locations.remove(key);
+				}
+			});
+		} catch (JournalLog.UnsupportedSyntaxException _) {
+			// hand-edited, fall back to reading everything through Properties
+			header.clear();
+			map.clear();
+			locations.clear();
+			Properties properties = log.load();
+			properties.forEach((k, v) -> {
+				if (HEADER_KEYS.contains(k)) {
+					header.put((String) k, (String) v);
+				} else if (!((String) v).isEmpty()) {
+					map.put((String) k, (String) v);
+				}
+			});
+		}
+		return header;
+	}
+
+	/**
+	 * Re-encrypts every version 1 entry with the journal key, then saves. Entries
+	 * edited in the meantime are left alone as they are already version 2.
+	 */
+	private void migrate() {
+		List<String> keys = new ArrayList<>();
+		synchronized (this) {
+			map.forEach((k, v) -> {
+				if (isLegacy(k, v)) {
+					keys.add(k);
+				}
+			});
+		}
+		try {
+			for (String key : keys) {
+				if (closed) {
+					return;
+				}
+				String legacy;
+				synchronized (this) {
+					legacy = ciphertext(key);
+				}
+				if (legacy != null && Superstar.isLegacy(legacy)) {
+					// don't pollute the key cache with single-use keys
+					String plaintext = Superstar.decrypt(legacy, password, null);
+					String migrated = Superstar.encrypt(plaintext, getKey(), compression);
+					synchronized (this) {
+						if (map.replace(key, legacy, migrated)) {
+							pending.add(key);
+						}
+					}
+				}
+			}
+			synchronized (this) {
+				if (!closed) {
+					save();
+				}
+			}
+		} catch (GeneralSecurityException | IOException _) {
+			// entries left in version 1 remain readable and are retried on next open
+		}
+	}
+
+	/**
+	 * Starts migrating any version 1 entries to the version 2 format on a
+	 * background thread. Should only be called once the password is known to be
+	 * correct.
+	 */
+	public void migrateInBackground() {
+		boolean hasLegacy;
+		synchronized (this) {
+			hasLegacy = map.entrySet().stream().anyMatch(entry -> isLegacy(entry.getKey(), entry.getValue()));
+		}
+		if (hasLegacy) {
+			Thread migrator = new Thread(this::migrate, "journal-migration");
+			migrator.setDaemon(true);
+			migrator.start();
+		}
+	}
+
+	/**
+	 * Gets the header records describing the format and key derivation.
+	 *
+	 * @return {@link Map}
+	 */
+	private Map<String, String> header() {
+		return header(salt, iterations);
+	}
+
+	/**
+	 * Adds an entry already encrypted, recording its previous version if history
+	 * is enabled. Must be called holding the lock.
+	 *
+	 * @param key       {@link String} a date in the format yyyy-mm-dd
+	 * @param value     {@link String} the entry's text, blank to delete it
+	 * @param encrypted {@link String} the encrypted text, null to delete it
+	 * @throws InvalidKeyException
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchPaddingException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws InvalidKeySpecException
+	 * @throws IOException if the revision history cannot be read
+	 */
+	private void put(String key, String value, String encrypted)
+			throws InvalidKeyException, NoSuchAlgorithmException, NoSuchPaddingException, IllegalBlockSizeException,
+			BadPaddingException, InvalidAlgorithmParameterException, InvalidKeySpecException, IOException {
+		if (history != null) {
+			String previous = null;
+			if (!history.hasRevisions(key)) {
+				String current = ciphertext(key);
+				previous = current == null ? null : decrypt(current);
+			}
+			history.record(key, previous, encrypted == null ? "" : value, getKey());
+		}
+		pending.add(key);
+		if (rekeyChanges != null) {
+			rekeyChanges.add(key);
+		}
+		if (encrypted == null) {
+			map.remove(key);
+			locations.remove(key);
+			if (entryCache != null) {
+				entryCache.remove(key);
+			}
+			searchIndex.put(DateIndex.parse(key), null);
+		} else {
+			map.put(key, encrypted);
+			locations.remove(key);
+			if (entryCache != null) {
+				entryCache.put(key, value);
+			}
+			searchIndex.put(DateIndex.parse(key), value);
+		}
+	}
+
+	/**
+	 * Decrypts the entries between two dates in parallel, handing them to the
+	 * handler in date order on the calling thread. At most twice as many entries
+	 * as there are threads are decrypted ahead of the handler, so memory use
+	 * doesn't grow with the journal.
+	 *
+	 * @param from    {@link String} the first date in the format yyyy-MM-dd, or
+	 *                null for the earliest
+	 * @param to      {@link String} the last date in the format yyyy-MM-dd, or null
+	 *                for the latest
+	 * @param handler {@link EntryHandler}
+	 * @throws GeneralSecurityException if an entry cannot be decrypted
+	 * @throws IOException              if an entry cannot be read, the handler
+	 *                                  fails or the journal is closed
+	 */
+	public void readEntries(String from, String to, EntryHandler handler)
+			throws GeneralSecurityException, IOException {
+		List<String> keys = new ArrayList<>();
+		int threads;
+		synchronized (this) {
+			for (String key : map.keySet()) {
+				if ((from == null || key.compareTo(from) >= 0) && (to == null || key.compareTo(to) <= 0)) {
+					keys.add(key);
+				}
+			}
+			threads = parallelism;
+		}
+		if (keys.isEmpty()) {
+			return;
+		}
+		SecretKey secretKey = getKey();
+		inParallel(keys, threads, "journal-reader", key -> decryptStored(key, secretKey), (key, text) -> {
+			// null if deleted since
+			if (text != null) {
+				handler.entry(key, text);
+			}
+		});
+	}
+
+	/**
+	 * Reads the provided header records. A missing header indicates a version 1 or
+	 * brand new journal, which is given a fresh salt.
+	 *
+	 * @param header {@link Map}
+	 * @throws IOException if the header is unsupported
+	 */
+	private void readHeader(Map<String, String> header) throws IOException {
+		String version = header.get(FORMAT_VERSION);
+		String algorithm = header.get(KDF_ALGORITHM);
+		String iterationCount = header.get(KDF_ITERATIONS);
+		String encodedSalt = header.get(KDF_SALT);
+		if (version == null) {
+			salt = Superstar.newSalt();
+			iterations = Superstar.KDF_ITERATIONS;
+		} else if (VERSION.equals(version) && Superstar.KDF_ALGORITHM.equals(algorithm) && iterationCount != null
+				&& encodedSalt != null) {
+			try {
+				salt = Base64.getDecoder().decode(encodedSalt);
+				iterations = Integer.parseInt(iterationCount);
+				headerPersisted = true;
+			} catch (IllegalArgumentException e) {
+				throw new IOException("Corrupt journal header.", e);
+			}
+		} else {
+			throw new IOException("Unsupported journal format " + version + " using " + algorithm + ".");
+		}
+	}
+
+	/**
+	 * Completes a password change interrupted between replacing the journal file
+	 * and its revision history: the re-encrypted history is swapped in if the
+	 * journal was, and discarded otherwise.
+	 *
+	 * @throws IOException
+	 */
+	private void recoverHistory() throws IOException {
+		Path rekeyed = Path.of(historyFile + REKEY_SUFFIX);
+		if (Files.exists(rekeyed)) {
+			String comment = new JournalLog(rekeyed).readComment();
+			if (headerPersisted && comment != null
+					&& comment.equals(REKEY_COMMENT + Base64.getEncoder().encodeToString(salt))) {
+				Files.move(rekeyed, historyFile, StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} else {
+				Files.delete(rekeyed);
+			}
+		}
+	}
+
+	/**
+	 * Changes the password, re-encrypting every entry with a key derived from it
+	 * and a fresh salt. Entries are decrypted and re-encrypted in parallel and
+	 * streamed to a file beside the journal, which is swapped in once complete so
+	 * that the journal is never left half rewritten. Entries saved in the meantime
+	 * are re-encrypted just before the swap.
+	 * <p>
+	 * If the change is interrupted the file is kept, and changing to the same
+	 * password again resumes from it as long as the journal hasn't been saved
+	 * since. The revision history is re-encrypted too, and the search index
+	 * rewritten with the new key.
+	 *
+	 * @param newPassword {@link String}
+	 * @param progress    {@link DoubleConsumer} told the fraction of entries done,
+	 *                    from 0 to 1, each time it grows by a percent. Called on
+	 *                    the calling thread.
+	 * @throws GeneralSecurityException if an entry cannot be decrypted or
+	 *                                  encrypted
+	 * @throws IOException              if the journal cannot be read or written or
+	 *                                  is closed
+	 */
+	public void rekey(String newPassword, DoubleConsumer progress) throws GeneralSecurityException, IOException {
+		List<String> keys;
+		List<Entry<String, Location>> revisions;
+		String stamp;
+		int threads;
+		synchronized (this) {
+			if (rekeyChanges != null) {
+				throw new IllegalStateException("The password is already being changed.");
+			}
+			save();
+			keys = new ArrayList<>(map.keySet());
+			revisions = EntryHistory.records(historyFile);
+			stamp = stamp();
+			threads = parallelism;
+			rekeyChanges = new HashSet<>();
+		}
+		try {
+			SecretKey oldKey = getKey();
+			Path rekeyed = Path.of(path + REKEY_SUFFIX);
+			JournalLog target = new JournalLog(rekeyed, true);
+			String comment = REKEY_COMMENT + stamp;
+			Map<String, String> header = new HashMap<>();
+			Set<String> done = new HashSet<>();
+			SecretKey resumed = Files.exists(rekeyed) ? resumeRekey(target, comment, newPassword, header, done)
+					: null;
+			if (resumed == null) {
+				header = header(Superstar.newSalt(), Superstar.KDF_ITERATIONS);
+				target.create(comment, header);
+				done.clear();
+			}
+			byte[] newSalt = Base64.getDecoder().decode(header.get(KDF_SALT));
+			int newIterations = Integer.parseInt(header.get(KDF_ITERATIONS));
+			SecretKey newKey = resumed != null ? resumed
+					: Superstar.deriveKey(newPassword, newSalt, newIterations, null);
+
+			// entries, in parallel, checkpointing every batch
+			List<String> remaining = keys.stream().filter(key -> !done.contains(key)).toList();
+			Map<String, String> batch = new LinkedHashMap<>();
+			int[] count = { done.size(), -1 };
+			inParallel(remaining, threads, "journal-rekeyer", key -> {
+				String text = decryptStored(key, oldKey);
+				// null if deleted since, which is a change handled below
+				return text == null ? null : Superstar.encrypt(text, newKey, compression);
+			}, (key, encrypted) -> {
+				if (encrypted != null) {
+					batch.put(key, encrypted);
+					if (batch.size() == REKEY_BATCH) {
+						target.append(batch);
+						batch.clear();
+					}
+				}
+				int percent = (int) (++count[0] * 100L / keys.size());
+				if (percent > count[1]) {
+					count[1] = percent;
+					progress.accept(percent / 100.0);
+				}
+			});
+
+			// the revision history saved so far, without holding the lock
+			JournalLog historyTarget = new JournalLog(Path.of(historyFile + REKEY_SUFFIX));
+			String historyComment = REKEY_COMMENT + header.get(KDF_SALT);
+			if (!revisions.isEmpty()) {
+				historyTarget.create(historyComment, Map.of());
+				EntryHistory.rekey(historyFile, revisions, historyTarget, oldKey, newKey);
+			}
+
+			synchronized (this) {
+				if (closed) {
+					throw new IOException("The journal was closed.");
+				}
+				for (String key : rekeyChanges) {
+					String encrypted = ciphertext(key);
+					batch.put(key, encrypted == null ? null : Superstar.encrypt(decrypt(encrypted), newKey, compression));
+				}
+				if (!batch.isEmpty()) {
+					target.append(batch);
+				}
+				if (history != null) {
+					history.save();
+				}
+				List<Entry<String, Location>> allRevisions = EntryHistory.records(historyFile);
+				if (allRevisions.size() > revisions.size()) {
+					if (revisions.isEmpty()) {
+						historyTarget.create(historyComment, Map.of());
+					}
+					EntryHistory.rekey(historyFile, allRevisions.subList(revisions.size(), allRevisions.size()),
+							historyTarget, oldKey, newKey);
+				}
+
+				// the history is swapped in on next open if this is interrupted
+				log.replaceWith(rekeyed, target.getRecords());
+				if (!allRevisions.isEmpty()) {
+					Files.move(Path.of(historyFile + REKEY_SUFFIX), historyFile, StandardCopyOption.REPLACE_EXISTING,
+							StandardCopyOption.ATOMIC_MOVE);
+				}
+				generation++;
+				password = newPassword;
+				salt = newSalt;
+				iterations = newIterations;
+				headerPersisted = true;
+				keyCache.clear();
+				pending.clear();
+				map.clear();
+				locations.clear();
+				load(true);
+				if (history != null) {
+					history = new EntryHistory(historyFile);
+				}
+				if (searchIndex.isReady()) {
+					searchIndex.write(searchIndexFile, getKey(), stamp());
+				} else {
+					Files.deleteIfExists(searchIndexFile);
+				}
+			}
+			progress.accept(1);
+		} finally {
+			synchronized (this) {
+				rekeyChanges = null;
+			}
+		}
+	}
+
+	/**
+	 * Gets the revision history.
+	 *
+	 * @return {@link EntryHistory}
+	 * @throws IllegalStateException if history is not enabled
+	 */
+	private synchronized EntryHistory requireHistory() {
+		if (history == null) {
+			throw new IllegalStateException("Revision history is not enabled.");
 		}
-		return null;
+		return history;
 	}
 
 	/**
-	 * Saves the journal to disk.
+	 * Prepares to resume a password change from the file left by an interrupted
+	 * one. That's only possible if the file was started from the journal in its
+	 * current state and for the same new password.
 	 *
+	 * @param target      {@link JournalLog} the file left
+	 * @param comment     {@link String} the comment identifying the journal's
+	 *                    state
+	 * @param newPassword {@link String}
+	 * @param header      {@link Map} receives the file's header
+	 * @param done        {@link Set} receives the keys of the entries already
+	 *                    re-encrypted
+	 * @return {@link SecretKey} the new key, or null if the change must start
+	 *         afresh
 	 * @throws IOException
 	 */
-	public void save() throws IOException {
-		properties.clear();
-		map.forEach((k, v) -> properties.put(k, v));
-		try (var out = new FileOutputStream(file)) {
-			properties.store(out, null);
+	private SecretKey resumeRekey(JournalLog target, String comment, String newPassword, Map<String, String> header,
+			Set<String> done) throws IOException {
+		if (!comment.equals(target.readComment())) {
+			return null;
 		}
+		target.truncateTornRecord();
+		Map<String, Location> written = new HashMap<>();
+		try {
+			target.scan(HEADER_KEYS::contains, (key, value, location) -> {
+				if (HEADER_KEYS.contains(key)) {
+					header.put(key, value);
+				} else {
+					written.put(key, location);
+				}
+			});
+			if (!VERSION.equals(header.get(FORMAT_VERSION))
+					|| !Superstar.KDF_ALGORITHM.equals(header.get(KDF_ALGORITHM)) || header.get(KDF_SALT) == null
+					|| header.get(KDF_ITERATIONS) == null) {
+				header.clear();
+				return null;
+			}
+			SecretKey newKey = Superstar.deriveKey(newPassword, Base64.getDecoder().decode(header.get(KDF_SALT)),
+					Integer.parseInt(header.get(KDF_ITERATIONS)), null);
+			// the password is wrong unless it decrypts what's there
+			if (!written.isEmpty()) {
+				Superstar.decrypt(target.read(written.values().iterator().next()), newKey);
+			}
+			done.addAll(written.keySet());
+			return newKey;
+		} catch (JournalLog.UnsupportedSyntaxException | GeneralSecurityException | IllegalArgumentException _) {
+			header.clear();
+			return null;
+		}
+	}
+
+	/**
+	 * Finds the entries matching a query: words, words ending with * to match
+	 * any word starting with them and phrases in double quotes, all of which must
+	 * be found. Waits for the search index to be filled.
+	 *
+	 * @param query {@link String}
+	 * @return {@link List} of {@link LocalDate} in ascending order
+	 * @throws IOException if the search index could not be filled
+	 */
+	public List<LocalDate> search(String query) throws IOException {
+		int[] days = searchIndex.search(query);
+		List<LocalDate> dates = new ArrayList<>(days.length);
+		for (int day : days) {
+			dates.add(LocalDate.ofEpochDay(day));
+		}
+		return dates;
 	}
 
 	/**
-	 * Checks the password can decrypt an entry.
+	 * Enables or disables compressing entries before encrypting them. Entries
+	 * already saved are left as they are and read either way.
+	 *
+	 * @param enabled boolean
+	 */
+	public void setCompression(boolean enabled) {
+		compression = enabled;
+	}
+
+	/**
+	 * Enables or disables caching of decrypted entries.
+	 *
+	 * @param maxBytes long the approximate memory the cache may use, or zero to
+	 *                 disable it
+	 */
+	public synchronized void setEntryCacheLimit(long maxBytes) {
+		if (entryCache != null) {
+			entryCache.clear();
+		}
+		entryCache = maxBytes > 0 ? new EntryCache(maxBytes) : null;
+	}
+
+	/**
+	 * Enables or disables recording the revision history of entries. Revisions
+	 * already on disk are kept either way.
+	 *
+	 * @param enabled boolean
+	 */
+	public synchronized void setHistoryEnabled(boolean enabled) {
+		if (!enabled) {
+			history = null;
+		} else if (history == null) {
+			history = new EntryHistory(historyFile);
+		}
+	}
+
+	/**
+	 * Sets the number of threads decrypting entries in bulk.
+	 *
+	 * @param threads int at least 1
+	 */
+	public synchronized void setParallelism(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one thread is needed.");
+		}
+		parallelism = threads;
+	}
+
+	/**
+	 * Saves the journal to disk by appending the entries changed since the last
+	 * save. A journal without a header yet, or still in the text format, is
+	 * written out in full.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void save() throws IOException {
+		long start = System.nanoTime();
+		long sizeBefore = fileSize();
+		JournalEvents.Save event = new JournalEvents.Save();
+		event.begin();
+		if (!headerPersisted || !pending.isEmpty() && !log.isContainer()) {
+			for (String key : new ArrayList<>(locations.keySet())) {
+				ciphertext(key);
+			}
+			log.rewrite(header(), map);
+			headerPersisted = true;
+			pending.clear();
+			event.full = true;
+			event.records = map.size();
+		} else if (!pending.isEmpty()) {
+			Map<String, String> changes = new LinkedHashMap<>();
+			pending.forEach(key -> changes.put(key, map.get(key)));
+			log.append(changes);
+			pending.clear();
+			event.records = changes.size();
+			if (compactionDelta != null) {
+				compactionDelta.putAll(changes);
+			} else if (shouldCompact()) {
+				compactionDelta = new LinkedHashMap<>();
+				Thread compactor = new Thread(this::compact, "journal-compactor");
+				compactor.setDaemon(true);
+				compactor.start();
+			}
+		}
+		if (history != null) {
+			history.save();
+		}
+		event.end();
+		if (event.records > 0) {
+			long size = fileSize();
+			SAVE_TIMES.recordSince(start);
+			SAVE_BYTES.record(event.full ? size : size - sizeBefore);
+			if (event.shouldCommit()) {
+				event.bytes = size;
+				event.commit();
+			}
+		}
+	}
+
+	/**
+	 * Determines if superseded records and tombstones make up enough of the log to
+	 * be worth rewriting.
+	 *
+	 * @return boolean
+	 */
+	private boolean shouldCompact() {
+		long records = log.getRecords();
+		long garbage = records - map.size() - header().size();
+		return garbage >= COMPACTION_MIN_GARBAGE && garbage >= records * COMPACTION_RATIO;
+	}
+
+	/**
+	 * Identifies the state of the journal file, so that a search index written
+	 * for another state isn't trusted.
+	 *
+	 * @return {@link String}
+	 * @throws IOException
+	 */
+	private String stamp() throws IOException {
+		return Files.size(path) + "@" + Files.getLastModifiedTime(path).toMillis();
+	}
+
+	/**
+	 * Gets the ciphertext of an entry, reading it from disk without keeping it in
+	 * memory if it hasn't been read yet.
+	 *
+	 * @param key {@link String}
+	 * @return {@link String} may be null if there's no entry for the provided date
+	 * @throws IOException
+	 */
+	private synchronized String storedCiphertext(String key) throws IOException {
+		String encrypted = map.get(key);
+		Location location = locations.get(key);
+		return encrypted == null && location != null ? log.read(location) : encrypted;
+	}
+
+	/**
+	 * Checks the password can decrypt an entry, preferring one encrypted with the
+	 * journal key.
 	 *
 	 * @return boolean true if password worked
+	 * @throws IOException if the entry cannot be read from disk
 	 */
-	public boolean testPassword() {
-		if (!map.isEmpty()) {
-			Entry<String, String> entry = map.entrySet().iterator().next();
+	public boolean testPassword() throws IOException {
+		String encrypted = null;
+		synchronized (this) {
+			String key = null;
+			for (Entry<String, String> entry : map.entrySet()) {
+				key = entry.getKey();
+				if (!isLegacy(key, entry.getValue())) {
+					break;
+				}
+			}
+			if (key != null) {
+				encrypted = ciphertext(key);
+			}
+		}
+		if (encrypted != null) {
 			try {
-				Superstar.decrypt(entry.getValue(), password);
+				decrypt(encrypted);
 			} catch (InvalidKeyException | NoSuchAlgorithmException | NoSuchPaddingException
 					| InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException
 					| InvalidKeySpecException _) {
@@ -0,0 +1,552 @@
+package ca.footeware.javafx.journal.model;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.zip.CRC32C;
+
+import ca.footeware.javafx.journal.model.JournalLog.Location;
+import ca.footeware.javafx.journal.model.JournalLog.RecordHandler;
+
+/**
+ * The binary form of a {@link JournalLog}, which stores ciphertext as raw bytes
+ * rather than Base64 text. A header is followed by segments, one per append,
+ * each holding the entries' ciphertext followed by a fixed-width index of
+ * where it lies:
+ *
+ * <pre>
+ * magic       8 bytes, 0x89 JRNL \r \n 0x1A
+ * version     int
+ * length      int, of the rest of the header
+ * comment     UTF
+ * records     int, then each header record's key and value as UTF
+ * segment     repeated
+ *   length    long, of the rest of the segment
+ *   blocks    the ciphertext of each entry, without Base64 or prefix
+ *   index     for each entry its epoch day (int), offset (long) and length
+ *             (int), whose top bit is set for a version 1 entry and which is
+ *             0 for a tombstone
+ *   trailer   the number of index entries (int), the CRC-32C of the index
+ *             (int) and the segment's length again (long)
+ * </pre>
+ *
+ * Opening skips from one segment's index to the next without reading the
+ * ciphertext. A segment torn by a crash fails its check and is ignored, along
+ * with anything after it, and is cut off before the next append.
+ * <p>
+ * Files are read through {@link FileChannel} rather than mapped, as a mapped
+ * file can't be replaced on some platforms until the mapping is collected.
+ */
+final class JournalContainer {
+
+	/**
+	 * A segment whose index has been read.
+	 *
+	 * @param start long the offset of the segment's length
+	 * @param end   long the offset just past its trailer
+	 * @param index {@link ByteBuffer}
+	 */
+	private record Segment(long start, long end, ByteBuffer index) {
+
+		/**
+		 * Gets the offset just past the segment's blocks.
+		 *
+		 * @return long
+		 */
+		private long blocksEnd() {
+			return end - TRAILER - index.capacity();
+		}
+	}
+
+	/**
+	 * Reads the ciphertext of a segment's entries in order, a buffer at a time.
+	 */
+	private static final class BlockReader {
+
+		private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		private final FileChannel channel;
+		private final long end;
+		private long start;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param channel {@link FileChannel}
+		 * @param end     long the offset just past the blocks
+		 */
+		private BlockReader(FileChannel channel, long end) {
+			this.channel = channel;
+			this.end = end;
+			this.buffer.limit(0);
+		}
+
+		/**
+		 * Reads the ciphertext of an entry.
+		 *
+		 * @param location {@link Location}
+		 * @return {@link String} the entry as Base64 text
+		 * @throws IOException
+		 */
+		private String read(Location location) throws IOException {
+			long offset = location.offset();
+			if (offset < start || offset + location.length() > start + buffer.limit()) {
+				if (location.length() > buffer.capacity()) {
+					buffer = ByteBuffer.allocate(location.length());
+				}
+				buffer.clear();
+				buffer.limit((int) Math.min(buffer.capacity(), end - offset));
+				readFully(channel, buffer, offset);
+				buffer.flip();
+				start = offset;
+			}
+			return toText(buffer.array(), (int) (offset - start), location.length(), location.legacy());
+		}
+	}
+
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final int INDEX_ENTRY_SIZE = Integer.BYTES + Long.BYTES + Integer.BYTES;
+
+	/**
+	 * The bit of an index entry's length set for a version 1 entry.
+	 */
+	private static final int LEGACY = Integer.MIN_VALUE;
+	private static final byte[] MAGIC = { (byte) 0x89, 'J', 'R', 'N', 'L', '\r', '\n', 0x1A };
+	private static final int PREAMBLE_SIZE = MAGIC.length + Integer.BYTES + Integer.BYTES;
+	private static final int TRAILER = Integer.BYTES + Integer.BYTES + Long.BYTES;
+	private static final int VERSION = 1;
+
+	/**
+	 * Appends a segment of records to the file, first cutting off one torn by a
+	 * crash, and forces it to disk.
+	 *
+	 * @param path    {@link Path}
+	 * @param changes {@link Collection} of key and value, null values being
+	 *                tombstones
+	 * @throws IOException
+	 */
+	static void append(Path path, Collection<? extends Map.Entry<String, String>> changes) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			long end = validEnd(channel);
+			if (end < channel.size()) {
+				channel.truncate(end);
+			}
+			writeSegment(channel, end, changes, null);
+			channel.force(false);
+		}
+	}
+
+	/**
+	 * Starts the file afresh with the provided comment and header, forcing it to
+	 * disk.
+	 *
+	 * @param path    {@link Path}
+	 * @param comment {@link String}
+	 * @param header  {@link Map}
+	 * @throws IOException
+	 */
+	static void create(Path path, String comment, Map<String, String> header) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			writeHeader(channel, comment, header);
+			channel.force(false);
+		}
+	}
+
+	/**
+	 * Determines if the channel's file starts with the container's magic number.
+	 *
+	 * @param channel {@link FileChannel}
+	 * @return boolean
+	 * @throws IOException
+	 */
+	private static boolean hasMagic(FileChannel channel) throws IOException {
+		if (channel.size() < MAGIC.length) {
+			return false;
+		}
+		ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+		readFully(channel, magic, 0);
+		return Arrays.equals(magic.array(), MAGIC);
+	}
+
+	/**
+	 * Determines if the file is a container rather than
+	 * {@link java.util.Properties} text.
+	 *
+	 * @param path {@link Path}
+	 * @return boolean false if the file doesn't exist
+	 * @throws IOException
+	 */
+	static boolean isContainer(Path path) throws IOException {
+		if (!path.toFile().isFile()) {
+			return false;
+		}
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return hasMagic(channel);
+		}
+	}
+
+	/**
+	 * Reads the ciphertext of an entry.
+	 *
+	 * @param path     {@link Path}
+	 * @param location {@link Location}
+	 * @return {@link String} the entry as Base64 text
+	 * @throws IOException
+	 */
+	static String read(Path path, Location location) throws IOException {
+		byte[] bytes = new byte[location.length()];
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			readFully(channel, ByteBuffer.wrap(bytes), location.offset());
+		}
+		return toText(bytes, 0, bytes.length, location.legacy());
+	}
+
+	/**
+	 * Reads the comment in the header.
+	 *
+	 * @param path {@link Path}
+	 * @return {@link String} null if the header is incomplete
+	 * @throws IOException
+	 */
+	static String readComment(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return readHeader(channel, null);
+		} catch (IOException _) {
+			return null;
+		}
+	}
+
+	/**
+	 * Reads bytes from a channel until the buffer is full.
+	 *
+	 * @param channel  {@link FileChannel}
+	 * @param buffer   {@link ByteBuffer}
+	 * @param position long
+	 * @throws IOException if the file ends first
+	 */
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		long start = position - buffer.position();
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, start + buffer.position()) < 0) {
+				throw new IOException("Journal truncated at offset " + (start + buffer.position()) + ".");
+			}
+		}
+	}
+
+	/**
+	 * Reads the header.
+	 *
+	 * @param channel {@link FileChannel}
+	 * @param records {@link Map} receives the header records, may be null
+	 * @return {@link String} the comment
+	 * @throws IOException if the file isn't a container or its header is
+	 *                     incomplete
+	 */
+	private static String readHeader(FileChannel channel, Map<String, String> records) throws IOException {
+		if (!hasMagic(channel)) {
+			throw new IOException("Not a journal container.");
+		}
+		ByteBuffer preamble = ByteBuffer.allocate(PREAMBLE_SIZE);
+		readFully(channel, preamble, 0);
+		int version = preamble.getInt(MAGIC.length);
+		if (version != VERSION) {
+			throw new IOException("Unsupported journal container version " + version + ".");
+		}
+		int length = preamble.getInt(MAGIC.length + Integer.BYTES);
+		if (length < 0 || length > channel.size() - PREAMBLE_SIZE) {
+			throw new IOException("Journal header truncated.");
+		}
+		ByteBuffer header = ByteBuffer.allocate(length);
+		readFully(channel, header, PREAMBLE_SIZE);
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(header.array()))) {
+			String comment = in.readUTF();
+			if (records != null) {
+				for (int i = in.readInt(); i > 0; i--) {
+					records.put(in.readUTF(), in.readUTF());
+				}
+			}
+			return comment;
+		}
+	}
+
+	/**
+	 * Replays the file's records, header first. Only the ciphertext of keys
+	 * matching the predicate is read.
+	 *
+	 * @param path      {@link Path}
+	 * @param readValue {@link Predicate} selecting the keys whose values are read
+	 * @param handler   {@link RecordHandler} told a null location for header
+	 *                  records
+	 * @return long the number of records
+	 * @throws IOException
+	 */
+	static long scan(Path path, Predicate<String> readValue, RecordHandler handler) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			Map<String, String> header = new LinkedHashMap<>();
+			readHeader(channel, header);
+			header.forEach((key, value) -> handler.record(key, value, null));
+			long records = header.size();
+			for (Segment segment = segment(channel, segmentsStart(channel)); segment != null; segment = segment(
+					channel, segment.end())) {
+				BlockReader blocks = new BlockReader(channel, segment.blocksEnd());
+				ByteBuffer index = segment.index();
+				while (index.hasRemaining()) {
+					int day = index.getInt();
+					long offset = index.getLong();
+					int length = index.getInt();
+					Location location = new Location(offset, length & ~LEGACY, (length & LEGACY) != 0);
+					if (offset < segment.start() || offset + location.length() > segment.blocksEnd()) {
+						throw new IOException("Corrupt journal index at offset " + segment.start() + ".");
+					}
+					String key = LocalDate.ofEpochDay(day).toString();
+					String value = null;
+					if (readValue.test(key)) {
+						value = location.length() == 0 ? "" : blocks.read(location);
+					}
+					records++;
+					handler.record(key, value, location);
+				}
+			}
+			return records;
+		}
+	}
+
+	/**
+	 * Reads the index of the segment starting at an offset.
+	 *
+	 * @param channel {@link FileChannel}
+	 * @param start   long
+	 * @return {@link Segment} null if there's none or it's torn
+	 * @throws IOException
+	 */
+	private static Segment segment(FileChannel channel, long start) throws IOException {
+		long size = channel.size();
+		if (size - start < Long.BYTES + TRAILER) {
+			return null;
+		}
+		ByteBuffer prefix = ByteBuffer.allocate(Long.BYTES);
+		readFully(channel, prefix, start);
+		long length = prefix.getLong(0);
+		if (length < TRAILER || length > size - start - Long.BYTES) {
+			return null;
+		}
+		long end = start + Long.BYTES + length;
+		ByteBuffer trailer = ByteBuffer.allocate(TRAILER);
+		readFully(channel, trailer, end - TRAILER);
+		int count = trailer.getInt(0);
+		if (trailer.getLong(2 * Integer.BYTES) != length || count < 0
+				|| (long) count * INDEX_ENTRY_SIZE > length - TRAILER) {
+			return null;
+		}
+		ByteBuffer index = ByteBuffer.allocate(count * INDEX_ENTRY_SIZE);
+		readFully(channel, index, end - TRAILER - index.capacity());
+		CRC32C crc = new CRC32C();
+		crc.update(index.array());
+		return (int) crc.getValue() == trailer.getInt(Integer.BYTES) ? new Segment(start, end, index.flip()) : null;
+	}
+
+	/**
+	 * Gets the offset of the first segment.
+	 *
+	 * @param channel {@link FileChannel}
+	 * @return long
+	 * @throws IOException if the file isn't a container
+	 */
+	private static long segmentsStart(FileChannel channel) throws IOException {
+		readHeader(channel, null);
+		ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+		readFully(channel, length, MAGIC.length + Integer.BYTES);
+		return PREAMBLE_SIZE + length.getInt(0);
+	}
+
+	/**
+	 * Converts an entry's ciphertext to the Base64 text the rest of the journal
+	 * handles.
+	 *
+	 * @param bytes  byte array
+	 * @param offset int
+	 * @param length int
+	 * @param legacy boolean true for a version 1 entry
+	 * @return {@link String}
+	 */
+	private static String toText(byte[] bytes, int offset, int length, boolean legacy) {
+		ByteBuffer encoded = Base64.getEncoder().encode(ByteBuffer.wrap(bytes, offset, length));
+		String text = new String(encoded.array(), 0, encoded.limit(), StandardCharsets.ISO_8859_1);
+		return legacy ? text : Superstar.V2_PREFIX + text;
+	}
+
+	/**
+	 * Cuts off a segment torn by a crash.
+	 *
+	 * @param path {@link Path}
+	 * @throws IOException
+	 */
+	static void truncateTornSegment(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			long end = validEnd(channel);
+			if (end < channel.size()) {
+				channel.truncate(end);
+				channel.force(false);
+			}
+		}
+	}
+
+	/**
+	 * Finds the end of the last whole segment. That's usually the end of the
+	 * file, which is checked first so that appending needn't read every index.
+	 *
+	 * @param channel {@link FileChannel}
+	 * @return long
+	 * @throws IOException if the file isn't a container
+	 */
+	private static long validEnd(FileChannel channel) throws IOException {
+		long start = segmentsStart(channel);
+		long size = channel.size();
+		if (size == start) {
+			return size;
+		}
+		if (size - start >= Long.BYTES + TRAILER) {
+			ByteBuffer trailer = ByteBuffer.allocate(TRAILER);
+			readFully(channel, trailer, size - TRAILER);
+			long last = size - Long.BYTES - trailer.getLong(2 * Integer.BYTES);
+			if (last >= start && last < size) {
+				Segment segment = segment(channel, last);
+				if (segment != null && segment.end() == size) {
+					return size;
+				}
+			}
+		}
+		long end = start;
+		for (Segment segment = segment(channel, start); segment != null; segment = segment(channel, end)) {
+			end = segment.end();
+		}
+		return end;
+	}
+
+	/**
+	 * Writes the file afresh with the provided header and entries in one
+	 * segment.
+	 *
+	 * @param path    {@link Path}
+	 * @param comment {@link String}
+	 * @param header  {@link Map}
+	 * @param entries {@link Map}
+	 * @return {@link Map} of the entries' locations within the file
+	 * @throws IOException
+	 */
+	static Map<String, Location> write(Path path, String comment, Map<String, String> header,
+			Map<String, String> entries) throws IOException {
+		Map<String, Location> locations = new LinkedHashMap<>();
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			writeSegment(channel, writeHeader(channel, comment, header), entries.entrySet(), locations);
+			channel.force(false);
+		}
+		return locations;
+	}
+
+	/**
+	 * Writes the header at the start of the channel.
+	 *
+	 * @param channel {@link FileChannel}
+	 * @param comment {@link String}
+	 * @param header  {@link Map}
+	 * @return long the offset of the first segment
+	 * @throws IOException
+	 */
+	private static long writeHeader(FileChannel channel, String comment, Map<String, String> header)
+			throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.write(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(0);
+			out.writeUTF(comment);
+			out.writeInt(header.size());
+			for (Map.Entry<String, String> record : header.entrySet()) {
+				out.writeUTF(record.getKey());
+				out.writeUTF(record.getValue());
+			}
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+		buffer.putInt(MAGIC.length + Integer.BYTES, buffer.capacity() - PREAMBLE_SIZE);
+		channel.write(buffer, 0);
+		return buffer.capacity();
+	}
+
+	/**
+	 * Writes a segment. Its length is filled in last, so that a segment cut short
+	 * is recognized as torn.
+	 *
+	 * @param channel   {@link FileChannel}
+	 * @param start     long the offset to write it at
+	 * @param records   {@link Collection} of key and value, null values being
+	 *                  tombstones
+	 * @param locations {@link Map} receives the entries' locations, may be null
+	 * @throws IOException if a key isn't a date or a value isn't Base64
+	 */
+	private static void writeSegment(FileChannel channel, long start,
+			Collection<? extends Map.Entry<String, String>> records, Map<String, Location> locations)
+			throws IOException {
+		ByteBuffer index = ByteBuffer.allocate(records.size() * INDEX_ENTRY_SIZE);
+		long offset = start + Long.BYTES;
+		channel.position(start);
+		// not closed, as that would close the channel
+		DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+		out.writeLong(0);
+		for (Map.Entry<String, String> record : records) {
+			String key = record.getKey();
+			String value = record.getValue();
+			int day;
+			byte[] ciphertext;
+			boolean tombstone = value == null || value.isEmpty();
+			boolean legacy = !tombstone && Superstar.isLegacy(value);
+			try {
+				day = Math.toIntExact(LocalDate.parse(key).toEpochDay());
+				ciphertext = tombstone ? new byte[0]
+						: Base64.getDecoder().decode(legacy ? value : value.substring(Superstar.V2_PREFIX.length()));
+			} catch (DateTimeException | ArithmeticException | IllegalArgumentException e) {
+				throw new IOException("Cannot store the entry for " + key + ".", e);
+			}
+			out.write(ciphertext);
+			index.putInt(day).putLong(offset).putInt(legacy ? ciphertext.length | LEGACY : ciphertext.length);
+			if (locations != null && ciphertext.length > 0) {
+				locations.put(key, new Location(offset, ciphertext.length, legacy));
+			}
+			offset += ciphertext.length;
+		}
+		CRC32C crc = new CRC32C();
+		crc.update(index.array());
+		long length = offset - start - Long.BYTES + index.capacity() + TRAILER;
+		out.write(index.array());
+		out.writeInt(records.size());
+		out.writeInt((int) crc.getValue());
+		out.writeLong(length);
+		out.flush();
+		channel.write(ByteBuffer.allocate(Long.BYTES).putLong(0, length), start);
+	}
+
+	/**
+	 * Constructor, hidden because containers are handled statically.
+	 */
+	private JournalContainer() {
+	}
+}
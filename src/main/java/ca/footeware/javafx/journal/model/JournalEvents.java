@@ -0,0 +1,164 @@
+package ca.footeware.javafx.journal.model;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Java Flight Recorder events around the operations that can make the journal
+ * slow: opening and saving it, deriving keys, bulk decryption and date
+ * queries. Each records its duration along with entry counts and sizes, so a
+ * recording shows which step a slow journal is spending its time in.
+ * <p>
+ * Events are filled in only once {@link Event#shouldCommit()} says they'll be
+ * recorded, so they cost next to nothing when no recording is running.
+ */
+final class JournalEvents {
+
+	/**
+	 * Compacting the journal file in the background.
+	 */
+	@Name("ca.footeware.journal.Compaction")
+	@Label("Journal Compaction")
+	@Category("Journal")
+	@Description("Rewriting the journal file with only its live entries")
+	static final class Compaction extends Event {
+
+		@Label("Bytes")
+		@DataAmount
+		long bytes;
+
+		@Label("Entries")
+		int entries;
+
+		@Label("Swapped In")
+		@Description("False if the journal changed in a way that discarded the compacted file")
+		boolean swapped;
+	}
+
+	/**
+	 * A query of the dates that have entries.
+	 */
+	@Name("ca.footeware.journal.DateQuery")
+	@Label("Journal Date Query")
+	@Category("Journal")
+	@Description("Finding dates with entries, as the calendar and navigation do")
+	@Threshold("1 ms")
+	@StackTrace(false)
+	static final class DateQuery extends Event {
+
+		@Label("Entries")
+		int entries;
+
+		@Label("Query")
+		String query;
+
+		/**
+		 * Ends the event and commits it if it's to be recorded.
+		 *
+		 * @param query {@link String} what was asked
+		 * @param index {@link DateIndex} the index queried
+		 */
+		void commit(String query, DateIndex index) {
+			end();
+			if (shouldCommit()) {
+				this.query = query;
+				this.entries = index.size();
+				commit();
+			}
+		}
+	}
+
+	/**
+	 * Deriving a key from a password.
+	 */
+	@Name("ca.footeware.journal.KeyDerivation")
+	@Label("Journal Key Derivation")
+	@Category("Journal")
+	@Description("Deriving a key from a password with PBKDF2, which is slow by design")
+	static final class KeyDerivation extends Event {
+
+		@Label("Algorithm")
+		String algorithm;
+
+		@Label("Iterations")
+		int iterations;
+	}
+
+	/**
+	 * Loading a journal file.
+	 */
+	@Name("ca.footeware.journal.Open")
+	@Label("Journal Open")
+	@Category("Journal")
+	@Description("Replaying a journal file into memory")
+	static final class Open extends Event {
+
+		@Label("Bytes")
+		@DataAmount
+		long bytes;
+
+		@Label("Entries")
+		int entries;
+
+		@Label("File")
+		String file;
+
+		@Label("Lazy")
+		@Description("True if only the entries' dates and locations were read")
+		boolean lazy;
+	}
+
+	/**
+	 * Working on many entries in parallel.
+	 */
+	@Name("ca.footeware.journal.ParallelEntries")
+	@Label("Journal Parallel Entries")
+	@Category("Journal")
+	@Description("Decrypting, and perhaps re-encrypting, many entries on a pool of threads")
+	static final class ParallelEntries extends Event {
+
+		@Label("Entries")
+		int entries;
+
+		@Label("Task")
+		String task;
+
+		@Label("Threads")
+		int threads;
+	}
+
+	/**
+	 * Saving a journal file.
+	 */
+	@Name("ca.footeware.journal.Save")
+	@Label("Journal Save")
+	@Category("Journal")
+	@Description("Writing changed entries to the journal file")
+	static final class Save extends Event {
+
+		@Label("Bytes")
+		@DataAmount
+		@Description("The size of the journal file once saved")
+		long bytes;
+
+		@Label("Full Rewrite")
+		@Description("True if the whole file was written rather than appended to")
+		boolean full;
+
+		@Label("Records")
+		@Description("The number of entries written")
+		int records;
+	}
+
+	/**
+	 * Constructor, hidden because the events are nested classes.
+	 */
+	private JournalEvents() {
+	}
+}
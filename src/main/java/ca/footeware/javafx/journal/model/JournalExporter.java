@@ -0,0 +1,392 @@
+package ca.footeware.javafx.journal.model;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.function.DoubleConsumer;
+
+import ca.footeware.javafx.journal.exceptions.JournalException;
+
+/**
+ * Exports the decrypted entries of the open journal in date order, streaming
+ * each to the file as it is decrypted so that memory use doesn't depend on the
+ * size of the journal.
+ */
+public class JournalExporter {
+
+	/**
+	 * The formats entries can be exported in.
+	 */
+	public enum Format {
+
+		/**
+		 * An array of objects with date and text members.
+		 */
+		JSON("JSON", "json") {
+			@Override
+			void begin(Writer writer, String title) throws IOException {
+				writer.write("[");
+			}
+
+			@Override
+			void end(Writer writer, boolean empty) throws IOException {
+				writer.write(empty ? "]\n" : "\n]\n");
+			}
+
+			@Override
+			void entry(Writer writer, LocalDate date, String text, boolean first) throws IOException {
+				writer.write(first ? "\n" : ",\n");
+				writer.write("  {\"date\": \"");
+				writer.write(date.toString());
+				writer.write("\", \"text\": \"");
+				escapeJson(writer, text);
+				writer.write("\"}");
+			}
+		},
+
+		/**
+		 * A page with a section per entry.
+		 */
+		HTML("HTML", "html") {
+			@Override
+			void begin(Writer writer, String title) throws IOException {
+				writer.write("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"utf-8\">\n<title>");
+				escapeHtml(writer, title);
+				writer.write("</title>\n<style>.entry { white-space: pre-wrap; }</style>\n</head>\n<body>\n<h1>");
+				escapeHtml(writer, title);
+				writer.write("</h1>\n");
+			}
+
+			@Override
+			void end(Writer writer, boolean empty) throws IOException {
+				writer.write("</body>\n</html>\n");
+			}
+
+			@Override
+			void entry(Writer writer, LocalDate date, String text, boolean first) throws IOException {
+				writer.write("<section>\n<h2>");
+				writer.write(date.toString());
+				writer.write("</h2>\n<div class=\"entry\">");
+				escapeHtml(writer, text);
+				writer.write("</div>\n</section>\n");
+			}
+		},
+
+		/**
+		 * A document with a heading per entry. Lines of an entry that would be
+		 * read as a date heading when imported are escaped with a backslash.
+		 */
+		MARKDOWN("Markdown", "md") {
+			@Override
+			void begin(Writer writer, String title) throws IOException {
+				writer.write("# ");
+				writer.write(title);
+				writer.write("\n");
+			}
+
+			@Override
+			void end(Writer writer, boolean empty) throws IOException {
+				// nothing to close
+			}
+
+			@Override
+			void entry(Writer writer, LocalDate date, String text, boolean first) throws IOException {
+				writer.write("\n## ");
+				writer.write(date.toString());
+				writer.write("\n\n");
+				escapeMarkdown(writer, text);
+				if (!text.endsWith("\n")) {
+					writer.write("\n");
+				}
+			}
+		};
+
+		private final String extension;
+		private final String label;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param label     {@link String} the name shown to the user
+		 * @param extension {@link String} the file name extension
+		 */
+		Format(String label, String extension) {
+			this.label = label;
+			this.extension = extension;
+		}
+
+		/**
+		 * Write whatever comes before the entries.
+		 *
+		 * @param writer {@link Writer}
+		 * @param title  {@link String}
+		 * @throws IOException
+		 */
+		abstract void begin(Writer writer, String title) throws IOException;
+
+		/**
+		 * Write whatever comes after the entries.
+		 *
+		 * @param writer {@link Writer}
+		 * @param empty  boolean true if no entries were written
+		 * @throws IOException
+		 */
+		abstract void end(Writer writer, boolean empty) throws IOException;
+
+		/**
+		 * Write an entry.
+		 *
+		 * @param writer {@link Writer}
+		 * @param date   {@link LocalDate}
+		 * @param text   {@link String}
+		 * @param first  boolean true if it's the first entry in the file
+		 * @throws IOException
+		 */
+		abstract void entry(Writer writer, LocalDate date, String text, boolean first) throws IOException;
+
+		/**
+		 * Gets the file name extension, without the dot.
+		 *
+		 * @return {@link String}
+		 */
+		public String getExtension() {
+			return extension;
+		}
+
+		/**
+		 * Gets the name shown to the user.
+		 *
+		 * @return {@link String}
+		 */
+		public String getLabel() {
+			return label;
+		}
+	}
+
+	/**
+	 * Writes an entry's text with a backslash before each line that
+	 * {@link JournalImporter} would otherwise read as the start of another entry.
+	 *
+	 * @param writer {@link Writer}
+	 * @param text   {@link String}
+	 * @throws IOException
+	 */
+	private static void escapeMarkdown(Writer writer, String text) throws IOException {
+		int start = 0;
+		while (start <= text.length()) {
+			int end = text.indexOf('\n', start);
+			if (end < 0) {
+				end = text.length();
+			}
+			if (JournalImporter.needsEscape(text.subSequence(start, end), JournalImporter.DATE_HEADING)) {
+				writer.write('\\');
+			}
+			writer.write(text, start, end - start);
+			if (end < text.length()) {
+				writer.write('\n');
+			}
+			start = end + 1;
+		}
+	}
+
+	/**
+	 * Writes text escaped for HTML element content or attribute values.
+	 *
+	 * @param writer {@link Writer}
+	 * @param text   {@link String}
+	 * @throws IOException
+	 */
+	private static void escapeHtml(Writer writer, String text) throws IOException {
+		int start = 0;
+		for (int i = 0; i < text.length(); i++) {
+			String escape = switch (text.charAt(i)) {
+			case '&' -> "&amp;";
+			case '<' -> "&lt;";
+			case '>' -> "&gt;";
+			case '"' -> "&quot;";
+			case '\'' -> "&#39;";
+			default -> null;
+			};
+			if (escape != null) {
+				writer.write(text, start, i - start);
+				writer.write(escape);
+				start = i + 1;
+			}
+		}
+		writer.write(text, start, text.length() - start);
+	}
+
+	/**
+	 * Writes text escaped as the contents of a JSON string.
+	 *
+	 * @param writer {@link Writer}
+	 * @param text   {@link String}
+	 * @throws IOException
+	 */
+	private static void escapeJson(Writer writer, String text) throws IOException {
+		int start = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			String escape = switch (c) {
+			case '"' -> "\\\"";
+			case '\\' -> "\\\\";
+			case '\n' -> "\\n";
+			case '\r' -> "\\r";
+			case '\t' -> "\\t";
+			default -> c < 0x20 ? String.format("\\u%04x", (int) c) : null;
+			};
+			if (escape != null) {
+				writer.write(text, start, i - start);
+				writer.write(escape);
+				start = i + 1;
+			}
+		}
+		writer.write(text, start, text.length() - start);
+	}
+
+	/**
+	 * Exports every entry of the open journal. Queued saves are written first.
+	 *
+	 * @param target      {@link Path} the file to write. When split by year, the
+	 *                    year is added to its name, before the extension, for
+	 *                    each year's file.
+	 * @param format      {@link Format}
+	 * @param splitByYear boolean true to write a file per year
+	 * @param progress    {@link DoubleConsumer} told the fraction done, from 0 to
+	 *                    1, each time it grows by a percent. Called on the
+	 *                    exporting thread.
+	 * @throws JournalException if an entry cannot be read or a file written
+	 */
+	public static void export(Path target, Format format, boolean splitByYear, DoubleConsumer progress)
+			throws JournalException {
+		new JournalExporter(target, format, splitByYear, progress).run();
+	}
+
+	private int done;
+	private boolean empty = true;
+	private final Format format;
+	private final DoubleConsumer progress;
+	private int reported = -1;
+	private final boolean splitByYear;
+	private final Path target;
+	private int total;
+	private Writer writer;
+	private int year;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param target      {@link Path}
+	 * @param format      {@link Format}
+	 * @param splitByYear boolean
+	 * @param progress    {@link DoubleConsumer}
+	 */
+	private JournalExporter(Path target, Format format, boolean splitByYear, DoubleConsumer progress) {
+		this.target = target;
+		this.format = format;
+		this.splitByYear = splitByYear;
+		this.progress = progress;
+	}
+
+	/**
+	 * Finishes and closes the file being written, if any.
+	 *
+	 * @throws IOException
+	 */
+	private void close() throws IOException {
+		if (writer != null) {
+			try (Writer closing = writer) {
+				writer = null;
+				format.end(closing, empty);
+			}
+		}
+	}
+
+	/**
+	 * Writes an entry, moving on to the next year's file if need be.
+	 *
+	 * @param date {@link LocalDate}
+	 * @param text {@link String}
+	 * @throws IOException
+	 */
+	private void entry(LocalDate date, String text) throws IOException {
+		if (writer == null || splitByYear && date.getYear() != year) {
+			close();
+			year = date.getYear();
+			open(splitByYear ? yearFile(year) : target, splitByYear ? "Journal " + year : "Journal");
+		}
+		format.entry(writer, date, text, empty);
+		empty = false;
+		done++;
+		report();
+	}
+
+	/**
+	 * Starts writing a file.
+	 *
+	 * @param file  {@link Path}
+	 * @param title {@link String}
+	 * @throws IOException
+	 */
+	private void open(Path file, String title) throws IOException {
+		writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+		empty = true;
+		format.begin(writer, title);
+	}
+
+	/**
+	 * Reports progress if it has grown by a percent since last reported.
+	 */
+	private void report() {
+		int percent = total == 0 ? 100 : (int) (done * 100L / total);
+		if (percent > reported) {
+			reported = percent;
+			progress.accept(Math.min(1, percent / 100.0));
+		}
+	}
+
+	/**
+	 * Exports the entries.
+	 *
+	 * @throws JournalException
+	 */
+	private void run() throws JournalException {
+		try {
+			// counted once queued saves are written, as they are before reading
+			JournalManager.flush();
+			total = JournalManager.getEntryCount();
+			report();
+			try {
+				JournalManager.readEntries(this::entry);
+				if (writer == null && !splitByYear) {
+					// an empty journal still gets a file
+					open(target, "Journal");
+				}
+			} finally {
+				close();
+			}
+			done = total;
+			report();
+		} catch (IOException e) {
+			throw new JournalException("Error exporting journal.", e);
+		}
+	}
+
+	/**
+	 * Gets the file for a year's entries: the target with the year added to its
+	 * name.
+	 *
+	 * @param year int
+	 * @return {@link Path}
+	 */
+	private Path yearFile(int year) {
+		String name = target.getFileName().toString();
+		int dot = name.lastIndexOf('.');
+		String stem = dot > 0 ? name.substring(0, dot) : name;
+		String extension = dot > 0 ? name.substring(dot) : "." + format.getExtension();
+		return target.resolveSibling(stem + "-" + year + extension);
+	}
+}
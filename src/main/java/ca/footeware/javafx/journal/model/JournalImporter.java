@@ -0,0 +1,485 @@
+package ca.footeware.javafx.journal.model;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import ca.footeware.javafx.journal.exceptions.JournalException;
+
+/**
+ * Imports dated entries from other diaries into the open journal. All entries
+ * are read first, then added in one batch that is encrypted in parallel and
+ * saved once. An imported entry for a date that already has one is appended to
+ * it, unless the existing entry already contains it.
+ */
+public class JournalImporter {
+
+	/**
+	 * The formats entries can be imported from.
+	 */
+	public enum Format {
+
+		/**
+		 * An array of objects with date and text members, as exported, or an object
+		 * whose members are dates and their text.
+		 */
+		JSON("JSON", "json"),
+
+		/**
+		 * A Markdown file, or a folder of them, with entries under headings that
+		 * are dates, as exported. A file without such headings but named for a date
+		 * is a single entry.
+		 * <p>
+		 * A line that would be a date heading but for a leading backslash is part of
+		 * the entry, the backslash being dropped, as the exporter escapes such lines.
+		 */
+		MARKDOWN("Markdown", "md"),
+
+		/**
+		 * Plain text in which each entry starts on a line beginning with its date.
+		 * A line beginning with a backslash and then a date is part of the entry,
+		 * without the backslash.
+		 */
+		TEXT("Plain text", "txt");
+
+		/**
+		 * Guesses the format of a file or folder from its name.
+		 *
+		 * @param source {@link Path}
+		 * @return {@link Format}
+		 */
+		public static Format of(Path source) {
+			if (Files.isDirectory(source)) {
+				return MARKDOWN;
+			}
+			String name = source.getFileName().toString().toLowerCase(Locale.ROOT);
+			for (Format format : values()) {
+				if (name.endsWith("." + format.extension)) {
+					return format;
+				}
+			}
+			return TEXT;
+		}
+
+		private final String extension;
+		private final String label;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param label     {@link String} the name shown to the user
+		 * @param extension {@link String} the file name extension
+		 */
+		Format(String label, String extension) {
+			this.label = label;
+			this.extension = extension;
+		}
+
+		/**
+		 * Gets the file name extension, without the dot.
+		 *
+		 * @return {@link String}
+		 */
+		public String getExtension() {
+			return extension;
+		}
+
+		/**
+		 * Gets the name shown to the user.
+		 *
+		 * @return {@link String}
+		 */
+		public String getLabel() {
+			return label;
+		}
+	}
+
+	/**
+	 * Just enough of a JSON parser to read entries: objects become {@link Map}s,
+	 * arrays {@link List}s and scalars {@link String}s, {@link Double}s,
+	 * {@link Boolean}s or null.
+	 */
+	private static final class JsonParser {
+
+		private int position;
+		private final String text;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param text {@link String}
+		 */
+		private JsonParser(String text) {
+			this.text = text;
+		}
+
+		/**
+		 * Consumes the provided character if it's next, after any whitespace.
+		 *
+		 * @param c char
+		 * @return boolean true if it was consumed
+		 */
+		private boolean consume(char c) {
+			if (peek() == c) {
+				position++;
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Consumes the expected character, after any whitespace.
+		 *
+		 * @param expected char
+		 * @throws IOException if another character is found
+		 */
+		private void expect(char expected) throws IOException {
+			if (!consume(expected)) {
+				throw error("Expected '" + expected + "'");
+			}
+		}
+
+		/**
+		 * Creates an exception locating a syntax error.
+		 *
+		 * @param message {@link String}
+		 * @return {@link IOException}
+		 */
+		private IOException error(String message) {
+			return new IOException(message + " at character " + position + " of the JSON.");
+		}
+
+		/**
+		 * Skips whitespace and returns the next character without consuming it.
+		 *
+		 * @return char 0 at the end of the text
+		 */
+		private char peek() {
+			while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+				position++;
+			}
+			return position < text.length() ? text.charAt(position) : 0;
+		}
+
+		/**
+		 * Parses the whole text as one value.
+		 *
+		 * @return {@link Object}
+		 * @throws IOException if the text is not valid JSON
+		 */
+		private Object parse() throws IOException {
+			Object value = value();
+			if (peek() != 0) {
+				throw error("Unexpected text");
+			}
+			return value;
+		}
+
+		/**
+		 * Parses a string, the opening quote being next.
+		 *
+		 * @return {@link String}
+		 * @throws IOException
+		 */
+		private String string() throws IOException {
+			expect('"');
+			StringBuilder builder = new StringBuilder();
+			while (position < text.length()) {
+				char c = text.charAt(position++);
+				if (c == '"') {
+					return builder.toString();
+				}
+				if (c != '\\') {
+					builder.append(c);
+				} else if (position < text.length()) {
+					char escaped = text.charAt(position++);
+					switch (escaped) {
+					case 'b' -> builder.append('\b');
+					case 'f' -> builder.append('\f');
+					case 'n' -> builder.append('\n');
+					case 'r' -> builder.append('\r');
+					case 't' -> builder.append('\t');
+					case 'u' -> {
+						if (position + 4 > text.length()) {
+							throw error("Truncated escape");
+						}
+						try {
+							builder.append((char) Integer.parseInt(text, position, position + 4, 16));
+						} catch (NumberFormatException _) {
+							throw error("Bad escape");
+						}
+						position += 4;
+					}
+					default -> builder.append(escaped);
+					}
+				}
+			}
+			throw error("Unterminated string");
+		}
+
+		/**
+		 * Parses the next value.
+		 *
+		 * @return {@link Object}
+		 * @throws IOException
+		 */
+		private Object value() throws IOException {
+			if (consume('{')) {
+				Map<String, Object> object = new LinkedHashMap<>();
+				if (consume('}')) {
+					return object;
+				}
+				do {
+					String name = string();
+					expect(':');
+					object.put(name, value());
+				} while (consume(','));
+				expect('}');
+				return object;
+			}
+			if (consume('[')) {
+				List<Object> array = new ArrayList<>();
+				if (consume(']')) {
+					return array;
+				}
+				do {
+					array.add(value());
+				} while (consume(','));
+				expect(']');
+				return array;
+			}
+			if (peek() == '"') {
+				return string();
+			}
+			int start = position;
+			while (position < text.length() && "{}[],:\"".indexOf(text.charAt(position)) < 0
+					&& !Character.isWhitespace(text.charAt(position))) {
+				position++;
+			}
+			String literal = text.substring(start, position);
+			return switch (literal) {
+			case "true" -> Boolean.TRUE;
+			case "false" -> Boolean.FALSE;
+			case "null" -> null;
+			default -> {
+				try {
+					yield Double.valueOf(literal);
+				} catch (NumberFormatException _) {
+					position = start;
+					throw error("Unexpected value");
+				}
+			}
+			};
+		}
+	}
+
+	/**
+	 * A Markdown heading that is a date.
+	 */
+	static final Pattern DATE_HEADING = Pattern.compile("#{1,6}\\s+(\\d{4}-\\d{2}-\\d{2})\\s*#*\\s*");
+
+	/**
+	 * A line of plain text starting with a date, the entry's text possibly
+	 * following it.
+	 */
+	private static final Pattern DATED_LINE = Pattern.compile("(\\d{4}-\\d{2}-\\d{2})[\\s:-]*(.*)");
+
+	/**
+	 * The names tried, in order, for the text of an entry in a JSON object.
+	 */
+	private static final List<String> TEXT_MEMBERS = List.of("text", "content", "body", "entry");
+
+	/**
+	 * Parses a date in the format yyyy-MM-dd.
+	 *
+	 * @param text {@link String}
+	 * @return {@link LocalDate} null if it's not a valid date
+	 */
+	private static LocalDate date(String text) {
+		try {
+			return LocalDate.parse(text);
+		} catch (DateTimeParseException _) {
+			return null;
+		}
+	}
+
+	/**
+	 * Determines if a line of an entry's text must be escaped with a leading
+	 * backslash, so that it isn't read as the start of another entry. That's the
+	 * case if it would be read as one, or would be once any leading backslashes
+	 * are removed, so that escaping can be undone by removing one.
+	 *
+	 * @param line  {@link CharSequence}
+	 * @param start {@link Pattern} matching lines that start entries
+	 * @return boolean
+	 */
+	static boolean needsEscape(CharSequence line, Pattern start) {
+		int i = 0;
+		while (i < line.length() && line.charAt(i) == '\\') {
+			i++;
+		}
+		return start.matcher(line.subSequence(i, line.length())).matches();
+	}
+
+	/**
+	 * Imports entries from a file or folder into the open journal.
+	 *
+	 * @param source {@link Path}
+	 * @param format {@link Format}
+	 * @return int the number of entries added or changed
+	 * @throws JournalException if the source cannot be read or the journal saved
+	 */
+	public static int importEntries(Path source, Format format) throws JournalException {
+		JournalImporter importer = new JournalImporter();
+		try {
+			switch (format) {
+			case JSON -> importer.readJson(source);
+			case MARKDOWN -> importer.readMarkdown(source);
+			case TEXT -> importer.readSections(Files.readString(source, StandardCharsets.UTF_8), DATED_LINE);
+			}
+		} catch (IOException e) {
+			throw new JournalException("Error reading " + source.getFileName() + ": " + e.getMessage(), e);
+		}
+		Map<LocalDate, String> changes = new LinkedHashMap<>();
+		for (Map.Entry<LocalDate, String> entry : importer.entries.entrySet()) {
+			LocalDate date = entry.getKey();
+			String text = entry.getValue();
+			String existing = JournalManager.hasDate(date) ? JournalManager.getEntry(date) : null;
+			if (existing == null) {
+				changes.put(date, text);
+			} else if (!existing.contains(text)) {
+				changes.put(date, existing + "\n\n" + text);
+			}
+		}
+		JournalManager.addEntries(changes);
+		return changes.size();
+	}
+
+	private final Map<LocalDate, String> entries = new TreeMap<>();
+
+	/**
+	 * Constructor, hidden because importing starts with
+	 * {@link #importEntries(Path, Format)}.
+	 */
+	private JournalImporter() {
+	}
+
+	/**
+	 * Adds an entry read, appending it to any other read for the same date.
+	 *
+	 * @param date {@link LocalDate} may be null if none has been read yet
+	 * @param text {@link CharSequence}
+	 */
+	private void add(LocalDate date, CharSequence text) {
+		String stripped = text.toString().strip();
+		if (date != null && !stripped.isEmpty()) {
+			entries.merge(date, stripped, (first, second) -> first + "\n\n" + second);
+		}
+	}
+
+	/**
+	 * Reads entries from a JSON file.
+	 *
+	 * @param file {@link Path}
+	 * @throws IOException
+	 */
+	private void readJson(Path file) throws IOException {
+		Object root = new JsonParser(Files.readString(file, StandardCharsets.UTF_8)).parse();
+		if (root instanceof List<?> array) {
+			for (Object element : array) {
+				if (element instanceof Map<?, ?> object && object.get("date") instanceof String date) {
+					for (String member : TEXT_MEMBERS) {
+						if (object.get(member) instanceof String text) {
+							// a timestamp may follow the date
+							add(date(date.length() > 10 ? date.substring(0, 10) : date), text);
+							break;
+						}
+					}
+				}
+			}
+		} else if (root instanceof Map<?, ?> object) {
+			object.forEach((date, text) -> {
+				if (text instanceof String string) {
+					add(date((String) date), string);
+				}
+			});
+		} else {
+			throw new IOException("Expected an array or object of entries.");
+		}
+	}
+
+	/**
+	 * Reads entries from a Markdown file or every Markdown file in a folder and its
+	 * subfolders.
+	 *
+	 * @param source {@link Path}
+	 * @throws IOException
+	 */
+	private void readMarkdown(Path source) throws IOException {
+		List<Path> files;
+		if (Files.isDirectory(source)) {
+			try (Stream<Path> walk = Files.walk(source)) {
+				files = walk.filter(Files::isRegularFile)
+						.filter(file -> file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".md"))
+						.sorted().toList();
+			}
+		} else {
+			files = List.of(source);
+		}
+		for (Path file : files) {
+			String content = Files.readString(file, StandardCharsets.UTF_8);
+			if (!readSections(content, DATE_HEADING)) {
+				String name = file.getFileName().toString();
+				add(name.length() >= 10 ? date(name.substring(0, 10)) : null, content);
+			}
+		}
+	}
+
+	/**
+	 * Reads entries from text in which each starts on a line matching the
+	 * provided pattern. The pattern's first group is the date and its optional
+	 * second group the start of the entry's text. Text before the first entry is
+	 * ignored. A line escaped as described by
+	 * {@link #needsEscape(CharSequence, Pattern)} is text, one backslash being
+	 * removed.
+	 *
+	 * @param content {@link String}
+	 * @param start   {@link Pattern}
+	 * @return boolean true if any entry was found
+	 */
+	private boolean readSections(String content, Pattern start) {
+		LocalDate date = null;
+		StringBuilder text = new StringBuilder();
+		boolean found = false;
+		for (String line : content.split("\\R", -1)) {
+			Matcher matcher = start.matcher(line);
+			LocalDate next = matcher.matches() ? date(matcher.group(1)) : null;
+			if (next != null) {
+				add(date, text);
+				date = next;
+				text.setLength(0);
+				found = true;
+				if (matcher.groupCount() > 1) {
+					text.append(matcher.group(2)).append('\n');
+				}
+			} else if (date != null) {
+				boolean escaped = line.startsWith("\\") && needsEscape(line, start);
+				text.append(line, escaped ? 1 : 0, line.length()).append('\n');
+			}
+		}
+		add(date, text);
+		return found;
+	}
+}
@@ -0,0 +1,583 @@
+package ca.footeware.javafx.journal.model;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.Predicate;
+
+/**
+ * The on-disk form of a {@link Journal}: an append-only log of
+ * <code>key=value</code> records in {@link Properties} text format. Loading
+ * replays the log so the last record for a key wins, and an empty value is a
+ * tombstone marking a deleted entry. The log is compacted by rewriting it
+ * with only the live records and swapping it in atomically.
+ * <p>
+ * Keys are dates and header names and values are Base64, neither of which
+ * needs escaping, so records are written verbatim. Files written by
+ * {@link Properties#store(java.io.OutputStream, String)} escape some value
+ * characters, which are unescaped when read.
+ * <p>
+ * A log may instead be a {@link JournalContainer}, which holds the same records
+ * without the Base64 encoding. Either is read, and a log created as binary is
+ * written as a container whenever it is created or rewritten.
+ */
+class JournalLog {
+
+	/**
+	 * Where a record's value lies in the log.
+	 *
+	 * @param offset long the byte offset of the value
+	 * @param length int the length of the value in bytes
+	 * @param legacy boolean true if the value is a version 1 entry
+	 */
+	record Location(long offset, int length, boolean legacy) {
+	}
+
+	/**
+	 * Receives the records of the log in order.
+	 */
+	@FunctionalInterface
+	interface RecordHandler {
+
+		/**
+		 * Handle a record.
+		 *
+		 * @param key      {@link String}
+		 * @param value    {@link String} null if it was not read
+		 * @param location {@link Location} null for the header records of a
+		 *                 {@link JournalContainer}
+		 */
+		void record(String key, String value, Location location);
+	}
+
+	/**
+	 * A compacted copy of the log, ready to be swapped in.
+	 *
+	 * @param file      {@link Path}
+	 * @param locations {@link Map} of the entries' values within the file
+	 */
+	record Snapshot(Path file, Map<String, Location> locations) {
+	}
+
+	/**
+	 * Thrown by {@link JournalLog#scan(Predicate, RecordHandler)} for syntax that
+	 * only {@link Properties#load(java.io.InputStream)} understands.
+	 */
+	static class UnsupportedSyntaxException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param offset long
+		 */
+		UnsupportedSyntaxException(long offset) {
+			super("Unsupported record syntax at offset " + offset + ".");
+		}
+	}
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Determines if the provided byte is whitespace to {@link Properties}.
+	 *
+	 * @param b byte
+	 * @return boolean
+	 */
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\f';
+	}
+
+	/**
+	 * Decodes a value, unescaping it if necessary.
+	 *
+	 * @param bytes  byte array
+	 * @param offset int
+	 * @param length int
+	 * @return {@link String}
+	 */
+	private static String decode(byte[] bytes, int offset, int length) {
+		String raw = new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+		if (raw.indexOf('\\') < 0) {
+			return raw;
+		}
+		StringBuilder builder = new StringBuilder(raw.length());
+		for (int i = 0; i < raw.length(); i++) {
+			char c = raw.charAt(i);
+			if (c != '\\' || i + 1 == raw.length()) {
+				builder.append(c);
+				continue;
+			}
+			c = raw.charAt(++i);
+			switch (c) {
+			case 't' -> builder.append('\t');
+			case 'n' -> builder.append('\n');
+			case 'r' -> builder.append('\r');
+			case 'f' -> builder.append('\f');
+			case 'u' -> {
+				builder.append((char) Integer.parseInt(raw.substring(i + 1, i + 5), 16));
+				i += 4;
+			}
+			default -> builder.append(c);
+			}
+		}
+		return builder.toString();
+	}
+
+	private final boolean binary;
+
+	/**
+	 * True if the file is a {@link JournalContainer}.
+	 */
+	private boolean container;
+	private final Path path;
+	private long records;
+
+	/**
+	 * Constructor for a log kept as {@link Properties} text.
+	 *
+	 * @param path {@link Path}
+	 */
+	JournalLog(Path path) {
+		this.path = path;
+		this.binary = false;
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param path   {@link Path}
+	 * @param binary boolean true to write the log as a {@link JournalContainer}
+	 *               when it's created or rewritten
+	 * @throws IOException
+	 */
+	JournalLog(Path path, boolean binary) throws IOException {
+		this.path = path;
+		this.binary = binary;
+		this.container = JournalContainer.isContainer(path);
+	}
+
+	/**
+	 * Appends records to the log. A null value is written as a tombstone.
+	 *
+	 * @param changes {@link Map} of key to value
+	 * @throws IOException
+	 */
+	void append(Map<String, String> changes) throws IOException {
+		append(changes.entrySet());
+	}
+
+	/**
+	 * Appends records to the log, which may repeat keys.
+	 *
+	 * @param changes {@link Collection} of key and value, null values being
+	 *                tombstones
+	 * @throws IOException
+	 */
+	void append(Collection<? extends Map.Entry<String, String>> changes) throws IOException {
+		if (container) {
+			JournalContainer.append(path, changes);
+		} else {
+			appendTo(path, changes);
+		}
+		records += changes.size();
+	}
+
+	/**
+	 * Appends records to the provided file and forces them to disk.
+	 *
+	 * @param target  {@link Path}
+	 * @param changes {@link Collection} of key and value, null values being
+	 *                tombstones
+	 * @throws IOException
+	 */
+	private static void appendTo(Path target, Collection<? extends Map.Entry<String, String>> changes)
+			throws IOException {
+		try (FileChannel channel = FileChannel.open(target, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			long size = channel.size();
+			StringBuilder builder = new StringBuilder();
+			// a record torn by a crash must not swallow the first one appended
+			if (size > 0) {
+				ByteBuffer last = ByteBuffer.allocate(1);
+				channel.read(last, size - 1);
+				if (last.get(0) != '\n') {
+					builder.append('\n');
+				}
+			}
+			for (Map.Entry<String, String> change : changes) {
+				String value = change.getValue();
+				builder.append(change.getKey()).append('=').append(value == null ? "" : value).append('\n');
+			}
+			channel.position(size);
+			channel.write(StandardCharsets.ISO_8859_1.encode(builder.toString()));
+			channel.force(false);
+		}
+	}
+
+	/**
+	 * Appends records to a file written by {@link #writeSnapshot(Map, Map)}.
+	 *
+	 * @param snapshot {@link Path}
+	 * @param changes  {@link Map} of key to value, null values being tombstones
+	 * @throws IOException
+	 */
+	void appendToSnapshot(Path snapshot, Map<String, String> changes) throws IOException {
+		if (binary) {
+			JournalContainer.append(snapshot, changes.entrySet());
+		} else {
+			appendTo(snapshot, changes.entrySet());
+		}
+	}
+
+	/**
+	 * Starts the log afresh with a comment line and the provided header, forcing
+	 * it to disk.
+	 *
+	 * @param comment {@link String} the comment, without its leading #
+	 * @param header  {@link Map}
+	 * @throws IOException
+	 */
+	void create(String comment, Map<String, String> header) throws IOException {
+		records = header.size();
+		container = binary;
+		if (binary) {
+			JournalContainer.create(path, comment, header);
+			return;
+		}
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+				Writer writer = new BufferedWriter(
+						new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.ISO_8859_1))) {
+			writer.write("#" + comment + "\n");
+			for (Map.Entry<String, String> entry : header.entrySet()) {
+				writeRecord(writer, entry.getKey(), entry.getValue());
+			}
+			writer.flush();
+			channel.force(false);
+		}
+	}
+
+	/**
+	 * Gets the number of records in the log, live or superseded.
+	 *
+	 * @return long
+	 */
+	long getRecords() {
+		return records;
+	}
+
+	/**
+	 * Determines if the file is a {@link JournalContainer} rather than
+	 * {@link Properties} text.
+	 *
+	 * @return boolean
+	 */
+	boolean isContainer() {
+		return container;
+	}
+
+	/**
+	 * Replays the log through {@link Properties}, which understands every syntax
+	 * it can write.
+	 *
+	 * @return {@link Properties} the last value of every key, tombstones included
+	 *         as empty values
+	 * @throws IOException
+	 */
+	Properties load() throws IOException {
+		if (container) {
+			Properties properties = new Properties();
+			records = JournalContainer.scan(path, _ -> true, (key, value, _) -> properties.put(key, value));
+			return properties;
+		}
+		records = 0;
+		Properties properties = new Properties() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public synchronized Object put(Object key, Object value) {
+				records++;
+				return super.put(key, value);
+			}
+		};
+		try (var in = new FileInputStream(path.toFile())) {
+			properties.load(in);
+		}
+		return properties;
+	}
+
+	/**
+	 * Reads a value from the log.
+	 *
+	 * @param location {@link Location}
+	 * @return {@link String}
+	 * @throws IOException
+	 */
+	String read(Location location) throws IOException {
+		if (container) {
+			return JournalContainer.read(path, location);
+		}
+		byte[] bytes = new byte[location.length()];
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, location.offset() + buffer.position()) < 0) {
+					throw new IOException("Journal truncated at offset " + location.offset() + ".");
+				}
+			}
+		}
+		return decode(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Reads the comment on the first line of the log.
+	 *
+	 * @return {@link String} without its leading #, or null if the log doesn't
+	 *         start with a comment
+	 * @throws IOException
+	 */
+	String readComment() throws IOException {
+		if (container) {
+			return JournalContainer.readComment(path);
+		}
+		try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.ISO_8859_1)) {
+			String line = reader.readLine();
+			return line != null && line.startsWith("#") ? line.substring(1) : null;
+		}
+	}
+
+	/**
+	 * Atomically replaces the log with a file written by
+	 * {@link #writeSnapshot(Map, Map)}.
+	 *
+	 * @param snapshot {@link Path}
+	 * @param count    long the number of records in the snapshot
+	 * @throws IOException
+	 */
+	void replaceWith(Path snapshot, long count) throws IOException {
+		Files.move(snapshot, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		container = JournalContainer.isContainer(path);
+		records = count;
+	}
+
+	/**
+	 * Rewrites the log with only the provided header and entries.
+	 *
+	 * @param header  {@link Map}
+	 * @param entries {@link Map}
+	 * @throws IOException
+	 */
+	void rewrite(Map<String, String> header, Map<String, String> entries) throws IOException {
+		replaceWith(writeSnapshot(header, entries).file(), (long) header.size() + entries.size());
+	}
+
+	/**
+	 * Replays the log, recording where each value lies so that it can be read
+	 * later with {@link #read(Location)}. Only the values of keys matching the
+	 * predicate are read during the scan.
+	 *
+	 * @param readValue {@link Predicate} selecting the keys whose values are read
+	 * @param handler   {@link RecordHandler}
+	 * @throws UnsupportedSyntaxException if a record uses escaped keys or
+	 *                                    continuation lines, in which case
+	 *                                    {@link #load()} must be used instead
+	 * @throws IOException
+	 */
+	void scan(Predicate<String> readValue, RecordHandler handler) throws IOException {
+		if (container) {
+			records = JournalContainer.scan(path, readValue, handler);
+			return;
+		}
+		records = 0;
+		byte[] line = new byte[256];
+		int lineLength = 0;
+		long lineOffset = 0;
+		long position = 0;
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			boolean eof = false;
+			while (!eof) {
+				buffer.clear();
+				eof = channel.read(buffer) < 0;
+				buffer.flip();
+				while (buffer.hasRemaining() || eof) {
+					byte b = eof ? (byte) '\n' : buffer.get();
+					if (b == '\n' || b == '\r') {
+						scanLine(line, lineLength, lineOffset, readValue, handler);
+						lineLength = 0;
+						lineOffset = position + 1;
+						if (eof) {
+							break;
+						}
+					} else {
+						if (lineLength == line.length) {
+							line = Arrays.copyOf(line, line.length * 2);
+						}
+						line[lineLength++] = b;
+					}
+					position++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Parses a single line of the log.
+	 *
+	 * @param line      byte array
+	 * @param length    int
+	 * @param offset    long the offset of the line in the log
+	 * @param readValue {@link Predicate}
+	 * @param handler   {@link RecordHandler}
+	 * @throws UnsupportedSyntaxException
+	 */
+	private void scanLine(byte[] line, int length, long offset, Predicate<String> readValue, RecordHandler handler)
+			throws UnsupportedSyntaxException {
+		int i = 0;
+		while (i < length && isWhitespace(line[i])) {
+			i++;
+		}
+		if (i == length || line[i] == '#' || line[i] == '!') {
+			return; // blank or comment
+		}
+		int keyStart = i;
+		while (i < length && line[i] != '=' && line[i] != ':' && !isWhitespace(line[i])) {
+			if (line[i] == '\\') {
+				throw new UnsupportedSyntaxException(offset + i);
+			}
+			i++;
+		}
+		String key = new String(line, keyStart, i - keyStart, StandardCharsets.ISO_8859_1);
+		while (i < length && isWhitespace(line[i])) {
+			i++;
+		}
+		if (i < length && (line[i] == '=' || line[i] == ':')) {
+			i++;
+		}
+		while (i < length && isWhitespace(line[i])) {
+			i++;
+		}
+		// an odd number of trailing backslashes continues the value on the next line
+		int backslashes = 0;
+		while (backslashes < length - i && line[length - 1 - backslashes] == '\\') {
+			backslashes++;
+		}
+		if (backslashes % 2 == 1) {
+			throw new UnsupportedSyntaxException(offset + length);
+		}
+		int valueLength = length - i;
+		Location location = new Location(offset + i, valueLength,
+				valueLength > 0 && line[i] != Superstar.V2_PREFIX.charAt(0));
+		String value = readValue.test(key) ? decode(line, i, valueLength) : null;
+		records++;
+		handler.record(key, value, location);
+	}
+
+	/**
+	 * Drops a record torn by a crash from the end of the log, so that it isn't
+	 * mistaken for a whole one.
+	 *
+	 * @throws IOException
+	 */
+	void truncateTornRecord() throws IOException {
+		if (container) {
+			JournalContainer.truncateTornSegment(path);
+			return;
+		}
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			long end = channel.size();
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			while (end > 0) {
+				buffer.clear();
+				long start = Math.max(0, end - BUFFER_SIZE);
+				buffer.limit((int) (end - start));
+				while (buffer.hasRemaining() && channel.read(buffer, start + buffer.position()) >= 0) {
+					// read the whole block
+				}
+				for (int i = buffer.position() - 1; i >= 0; i--) {
+					if (buffer.get(i) == '\n') {
+						if (start + i + 1 < channel.size()) {
+							channel.truncate(start + i + 1);
+							channel.force(false);
+						}
+						return;
+					}
+				}
+				end = start;
+			}
+			channel.truncate(0);
+		}
+	}
+
+	/**
+	 * Writes a record.
+	 *
+	 * @param writer {@link Writer}
+	 * @param key    {@link String}
+	 * @param value  {@link String}
+	 * @throws IOException
+	 */
+	private static void writeRecord(Writer writer, String key, String value) throws IOException {
+		writer.write(key);
+		writer.write('=');
+		writer.write(value);
+		writer.write('\n');
+	}
+
+	/**
+	 * Writes the header and entries to a temporary file beside the log, ready to
+	 * be swapped in by {@link #replaceWith(Path, long)}.
+	 *
+	 * @param header  {@link Map}
+	 * @param entries {@link Map}
+	 * @return {@link Snapshot}
+	 * @throws IOException
+	 */
+	Snapshot writeSnapshot(Map<String, String> header, Map<String, String> entries) throws IOException {
+		Path snapshot = path.resolveSibling(path.getFileName() + ".compact");
+		if (binary) {
+			return new Snapshot(snapshot, JournalContainer.write(snapshot, new Date().toString(), header, entries));
+		}
+		Map<String, Location> locations = new HashMap<>();
+		try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+				Writer writer = new BufferedWriter(
+						new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.ISO_8859_1))) {
+			String comment = "#" + new Date() + "\n";
+			writer.write(comment);
+			long offset = comment.length();
+			for (Map.Entry<String, String> entry : header.entrySet()) {
+				writeRecord(writer, entry.getKey(), entry.getValue());
+				offset += entry.getKey().length() + entry.getValue().length() + 2;
+			}
+			for (Map.Entry<String, String> entry : entries.entrySet()) {
+				String value = entry.getValue();
+				writeRecord(writer, entry.getKey(), value);
+				long valueOffset = offset + entry.getKey().length() + 1;
+				locations.put(entry.getKey(), new Location(valueOffset, value.length(), Superstar.isLegacy(value)));
+				offset = valueOffset + value.length() + 1;
+			}
+			writer.flush();
+			channel.force(false);
+		}
+		return new Snapshot(snapshot, locations);
+	}
+}
@@ -5,15 +5,19 @@ package ca.footeware.javafx.journal.model;
 
 import java.io.File;
 import java.io.IOException;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
 import java.time.LocalDate;
+import java.time.YearMonth;
 import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.DoubleConsumer;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
@@ -27,8 +31,78 @@ import ca.footeware.javafx.journal.exceptions.JournalException;
  */
 public class JournalManager {
 
+	/**
+	 * Receives entries read by
+	 * {@link JournalManager#readEntries(LocalDate, LocalDate, EntryConsumer)}.
+	 */
+	@FunctionalInterface
+	public interface EntryConsumer {
+
+		/**
+		 * Accept an entry.
+		 *
+		 * @param date {@link LocalDate}
+		 * @param text {@link String}
+		 * @throws IOException
+		 */
+		void accept(LocalDate date, String text) throws IOException;
+	}
+
+	/**
+	 * System property that, set to false, stops new and edited entries being
+	 * compressed before they are encrypted.
+	 */
+	public static final String COMPRESSION_PROPERTY = "journal.compression";
+
+	/**
+	 * System property giving the approximate number of bytes of decrypted entries
+	 * to cache in memory. Caching is off unless it is set.
+	 */
+	public static final String ENTRY_CACHE_PROPERTY = "journal.entryCache.bytes";
+
+	/**
+	 * System property that, set to true, records the revision history of entries.
+	 */
+	public static final String HISTORY_PROPERTY = "journal.history";
+
+	/**
+	 * System property giving the number of threads decrypting entries in bulk,
+	 * one per processor unless it is set.
+	 */
+	public static final String PARALLELISM_PROPERTY = "journal.parallelism";
+
+	private static DateIndex dateIndex;
 	private static final DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
 	private static Journal journal;
+	private static final Metrics.Histogram OPEN_TIMES = Metrics.histogram("journal.open.micros");
+	private static SaveScheduler saveScheduler;
+
+	/**
+	 * Adds many entries to the journal at once, encrypting them in parallel, and
+	 * saves it once. Queued saves are written first.
+	 *
+	 * @param entries {@link Map} of dates to the text of their entries, blank to
+	 *                delete them
+	 * @throws JournalException
+	 */
+	public static void addEntries(Map<LocalDate, String> entries) throws JournalException {
+		flush();
+		Map<String, String> keyed = new LinkedHashMap<>();
+		entries.forEach((date, text) -> keyed.put(date.format(dateFormatter), text));
+		try {
+			journal.addEntries(keyed);
+		} catch (GeneralSecurityException | IOException e) {
+			throw new JournalException("Error adding entries to journal.", e);
+		}
+		entries.forEach((date, text) -> {
+			if (text == null || text.isBlank()) {
+				dateIndex.remove(date);
+			} else {
+				dateIndex.add(date);
+			}
+		});
+		saveJournal();
+	}
 
 	/**
 	 * Add an entry to the journal.
@@ -40,20 +114,93 @@ public class JournalManager {
 	public static void addEntry(LocalDate key, String value) throws JournalException {
 		try {
 			journal.addEntry(key.format(dateFormatter), value);
+			if (value == null || value.isBlank()) {
+				dateIndex.remove(key);
+			} else {
+				dateIndex.add(key);
+			}
 		} catch (InvalidKeyException | NoSuchAlgorithmException | NoSuchPaddingException | IllegalBlockSizeException
-				| BadPaddingException | InvalidAlgorithmParameterException | InvalidKeySpecException e) {
+				| BadPaddingException | InvalidAlgorithmParameterException | InvalidKeySpecException
+				| IOException e) {
 			throw new JournalException("Error adding entry to journal.", e);
 		}
 	}
 
+	/**
+	 * Changes the password of the open journal, re-encrypting every entry and its
+	 * revision history in parallel into a new file that replaces the journal once
+	 * complete. Queued saves are written first, and entries saved meanwhile are
+	 * included. An interrupted change resumes where it left off when retried with
+	 * the same new password.
+	 *
+	 * @param oldPassword {@link String} the current password
+	 * @param newPassword {@link String}
+	 * @param progress    {@link DoubleConsumer} told the fraction done, from 0 to
+	 *                    1, each time it grows by a percent. Called on the calling
+	 *                    thread.
+	 * @throws JournalException if the current password is incorrect, the
+	 *                          password is already being changed or the journal
+	 *                          cannot be re-encrypted
+	 */
+	public static void changePassword(String oldPassword, String newPassword, DoubleConsumer progress)
+			throws JournalException {
+		if (!journal.isPassword(oldPassword)) {
+			throw new JournalException("Incorrect password.");
+		}
+		flush();
+		try {
+			journal.rekey(newPassword, progress);
+		} catch (IllegalStateException e) {
+			throw new JournalException(e.getMessage(), e);
+		} catch (GeneralSecurityException | IOException e) {
+			throw new JournalException("Error changing password.", e);
+		}
+	}
+
+	/**
+	 * Closes the open journal, if any, once its queued saves are written, releasing
+	 * its cached keys.
+	 *
+	 * @throws JournalException if a queued save failed
+	 */
+	public static void closeJournal() throws JournalException {
+		if (journal != null) {
+			try {
+				// not yet started if the password was incorrect
+				if (saveScheduler != null) {
+					saveScheduler.close();
+				}
+			} finally {
+				journal.close();
+				journal = null;
+				dateIndex = null;
+				saveScheduler = null;
+			}
+		}
+	}
+
+	/**
+	 * Applies the settings from the system properties to a journal just opened.
+	 *
+	 * @param opened {@link Journal}
+	 */
+	private static void configure(Journal opened) {
+		opened.setCompression(Boolean.parseBoolean(System.getProperty(COMPRESSION_PROPERTY, "true")));
+		opened.setEntryCacheLimit(Long.getLong(ENTRY_CACHE_PROPERTY, 0));
+		opened.setHistoryEnabled(Boolean.getBoolean(HISTORY_PROPERTY));
+		opened.setParallelism(Integer.getInteger(PARALLELISM_PROPERTY, Runtime.getRuntime().availableProcessors()));
+	}
+
 	/**
 	 * Creates a new journal at the specified pathName with the specified password.
 	 *
 	 * @param pathName {@link String}
 	 * @param password {@link String}
 	 * @throws IOException
+	 * @throws JournalException if the previously open journal's queued saves
+	 *                          failed
 	 */
-	public static void createNewJournal(String pathName, String password) throws IOException {
+	public static void createNewJournal(String pathName, String password) throws IOException, JournalException {
 		File file = new File(pathName);
 		if (!file.exists()) {
 			boolean newFileCreated = file.createNewFile();
@@ -61,8 +208,25 @@ public class JournalManager {
 				throw new IOException("Unknown error, new file not created.");
 			}
 		}
+		closeJournal();
 		journal = new Journal(file, password);
+		dateIndex = new DateIndex(journal.getKeys());
+		configure(journal);
 		journal.save();
+		journal.indexInBackground();
+		saveScheduler = new SaveScheduler(JournalManager::addEntry, JournalManager::saveJournal);
+	}
+
+	/**
+	 * Waits until every entry queued by {@link #saveEntry(LocalDate, String)} has
+	 * been written to disk.
+	 *
+	 * @throws JournalException if a queued save failed
+	 */
+	public static void flush() throws JournalException {
+		if (saveScheduler != null) {
+			saveScheduler.flush();
+		}
 	}
 
 	/**
@@ -77,28 +241,41 @@ public class JournalManager {
 			if (date == null) {
 				throw new IllegalArgumentException("Provided date must not be null.");
 			}
+			if (saveScheduler != null && saveScheduler.isPending(date)) {
+				String pending = saveScheduler.getPending(date);
+				return pending == null || pending.isBlank() ? null : pending;
+			}
 			String formatted = date.format(dateFormatter);
 			return journal.getEntry(formatted);
 		} catch (IllegalArgumentException e) {
 			throw new JournalException("Error: " + e.getMessage(), e);
 		} catch (InvalidKeyException | NoSuchAlgorithmException | NoSuchPaddingException | IllegalBlockSizeException
-				| BadPaddingException | InvalidAlgorithmParameterException | InvalidKeySpecException e) {
+				| BadPaddingException | InvalidAlgorithmParameterException | InvalidKeySpecException
+				| IOException e) {
 			throw new JournalException("Error fetching journal entry.", e);
 		}
 	}
 
+	/**
+	 * Gets the number of entries in the journal.
+	 *
+	 * @return int
+	 */
+	public static int getEntryCount() {
+		return dateIndex.size();
+	}
+
 	/**
 	 * Gets the list of entry date values; the set of keys.
 	 *
 	 * @return {@link List} of {@link LocalDate}
 	 */
 	public static List<LocalDate> getEntryDates() {
-		List<LocalDate> keys = new ArrayList<>();
-		Map<String, String> entries = journal.getEntries();
-		for (String key : entries.keySet()) {
-			keys.add(LocalDate.parse(key, dateFormatter));
-		}
-		return keys;
+		JournalEvents.DateQuery event = new JournalEvents.DateQuery();
+		event.begin();
+		List<LocalDate> dates = dateIndex.toList();
+		event.commit("dates", dateIndex);
+		return dates;
 	}
 
 	/**
@@ -107,11 +284,11 @@ public class JournalManager {
 	 * @return {@link LocalDate}
 	 */
 	public static LocalDate getFirstEntryDate() {
-		List<LocalDate> entryDates = getEntryDates();
-		if (!entryDates.isEmpty()) {
-			return entryDates.get(0);
-		}
-		return null;
+		JournalEvents.DateQuery event = new JournalEvents.DateQuery();
+		event.begin();
+		LocalDate date = dateIndex.first();
+		event.commit("first", dateIndex);
+		return date;
 	}
 
 	/**
@@ -120,11 +297,26 @@ public class JournalManager {
 	 * @return {@link LocalDate}
 	 */
 	public static LocalDate getLastEntryDate() {
-		List<LocalDate> entryDates = getEntryDates();
-		if (!entryDates.isEmpty()) {
-			return entryDates.get(entryDates.size() - 1);
-		}
-		return null;
+		JournalEvents.DateQuery event = new JournalEvents.DateQuery();
+		event.begin();
+		LocalDate date = dateIndex.last();
+		event.commit("last", dateIndex);
+		return date;
+	}
+
+	/**
+	 * Gets the days of the provided month that have entries.
+	 *
+	 * @param month {@link YearMonth}
+	 * @return int with bit 0 set if the 1st has an entry, bit 1 for the 2nd and so
+	 *         on
+	 */
+	public static int getMonthMask(YearMonth month) {
+		JournalEvents.DateQuery event = new JournalEvents.DateQuery();
+		event.begin();
+		int mask = dateIndex.monthMask(month);
+		event.commit("month", dateIndex);
+		return mask;
 	}
 
 	/**
@@ -135,23 +327,12 @@ public class JournalManager {
 	 *         subsequent entry.
 	 */
 	public static LocalDate getNextEntryDate(LocalDate selectedDate) {
-		List<LocalDate> entryDates = getEntryDates();
-		switch (entryDates.size()) {
-		case 0 -> {
-			return selectedDate;
-		}
-		case 1 -> {
-			return entryDates.get(0).isAfter(selectedDate) ? entryDates.get(0) : selectedDate;
-		}
-		default -> {
-			LocalDate date = parseForNext(selectedDate, entryDates);
-			if (date != null) {
-				return date;
-			}
-		}
-		}
+		JournalEvents.DateQuery event = new JournalEvents.DateQuery();
+		event.begin();
+		LocalDate date = dateIndex.next(selectedDate);
+		event.commit("next", dateIndex);
 		// fallback is same date
-		return selectedDate;
+		return date == null ? selectedDate : date;
 	}
 
 	/**
@@ -162,23 +343,52 @@ public class JournalManager {
 	 *         previous entry
 	 */
 	public static LocalDate getPreviousEntryDate(LocalDate selectedDate) {
-		List<LocalDate> entryDates = getEntryDates();
-		switch (entryDates.size()) {
-		case 0 -> {
-			return selectedDate;
-		}
-		case 1 -> {
-			return entryDates.get(0).isBefore(selectedDate) ? entryDates.get(0) : selectedDate;
-		}
-		default -> {
-			LocalDate date = parseForPrevious(selectedDate, entryDates);
-			if (date != null) {
-				return date;
-			}
+		JournalEvents.DateQuery event = new JournalEvents.DateQuery();
+		event.begin();
+		LocalDate date = dateIndex.previous(selectedDate);
+		event.commit("previous", dateIndex);
+		// fallback is same date
+		return date == null ? selectedDate : date;
+	}
+
+	/**
+	 * Gets a version of an entry from its revision history.
+	 *
+	 * @param date   {@link LocalDate}
+	 * @param number int the revision number, from 0 for the oldest
+	 * @return {@link String} empty if the entry was deleted in that version
+	 * @throws JournalException
+	 */
+	public static String getRevision(LocalDate date, int number) throws JournalException {
+		try {
+			return journal.getRevision(date.format(dateFormatter), number);
+		} catch (IllegalArgumentException | IllegalStateException e) {
+			throw new JournalException("Error: " + e.getMessage(), e);
+		} catch (InvalidKeyException | NoSuchAlgorithmException | NoSuchPaddingException | IllegalBlockSizeException
+				| BadPaddingException | InvalidAlgorithmParameterException | InvalidKeySpecException
+				| IOException e) {
+			throw new JournalException("Error fetching revision.", e);
 		}
+	}
+
+	/**
+	 * Gets the revision history of an entry, recorded when
+	 * {@link #HISTORY_PROPERTY} is set.
+	 *
+	 * @param date {@link LocalDate}
+	 * @return {@link List} of {@link Revision} oldest first
+	 * @throws JournalException
+	 */
+	public static List<Revision> getRevisions(LocalDate date) throws JournalException {
+		try {
+			return journal.getRevisions(date.format(dateFormatter));
+		} catch (IllegalStateException e) {
+			throw new JournalException("Error: " + e.getMessage(), e);
+		} catch (InvalidKeyException | NoSuchAlgorithmException | NoSuchPaddingException | IllegalBlockSizeException
+				| BadPaddingException | InvalidAlgorithmParameterException | InvalidKeySpecException
+				| IOException e) {
+			throw new JournalException("Error fetching revisions.", e);
 		}
-		// fallback is same date
-		return selectedDate;
 	}
 
 	/**
@@ -188,12 +398,31 @@ public class JournalManager {
 	 * @return boolean true if the date is found
 	 */
 	public static boolean hasDate(LocalDate date) {
-		return getEntryDates().contains(date);
+		if (saveScheduler != null && saveScheduler.isPending(date)) {
+			String pending = saveScheduler.getPending(date);
+			return pending != null && !pending.isBlank();
+		}
+		JournalEvents.DateQuery event = new JournalEvents.DateQuery();
+		event.begin();
+		boolean found = dateIndex.contains(date);
+		event.commit("contains", dateIndex);
+		return found;
+	}
+
+	/**
+	 * Determines if a journal is open.
+	 *
+	 * @return boolean
+	 */
+	public static boolean isOpen() {
+		return journal != null;
 	}
 
 	/**
 	 * Opens an existing journal at the specified file path and using the provided
-	 * password.
+	 * password. Only the dates of the entries are read up front, each entry being
+	 * read from disk when first requested. Journals in an older format are
+	 * migrated in the background.
 	 *
 	 * @param path     {@link String}
 	 * @param password {@link String}
@@ -208,63 +437,95 @@ public class JournalManager {
 		if (!file.canWrite()) {
 			throw new IOException("File is read-only: " + file.getAbsolutePath());
 		}
-		journal = new Journal(file, password);
+		closeJournal();
+		long start = System.nanoTime();
+		journal = new Journal(file, password, true);
 		if (!journal.testPassword()) {
+			closeJournal();
 			throw new JournalException("Incorrect password.");
 		}
+		dateIndex = new DateIndex(journal.getKeys());
+		configure(journal);
+		journal.migrateInBackground();
+		journal.indexInBackground();
+		saveScheduler = new SaveScheduler(JournalManager::addEntry, JournalManager::saveJournal);
+		OPEN_TIMES.recordSince(start);
 	}
 
 	/**
-	 * Parse over entryDates. If selectedDate is before the first entryDate, return
-	 * the entryDate. Else if there's a following entryDate, and the selectedDate is
-	 * either equal to that second entryDate, or between the two entryDates, return
-	 * the second entryDate.
+	 * Decrypts every entry in parallel, handing them to the consumer in date order
+	 * on the calling thread.
 	 *
-	 * @param selectedDate {@link LocalDate}
-	 * @param entryDates   {@link List} of {@link LocalDate}
-	 * @return {@link LocalDate}
+	 * @param consumer {@link EntryConsumer}
+	 * @throws JournalException
 	 */
-	private static LocalDate parseForNext(LocalDate selectedDate, List<LocalDate> entryDates) {
-		for (int i = 0; i < entryDates.size(); i++) {
-			LocalDate entryDate1 = entryDates.get(i);
-			if (selectedDate.isBefore(entryDate1)) {
-				return entryDate1;
-			}
-			if ((i + 1) < entryDates.size()) {
-				LocalDate entryDate2 = entryDates.get(i + 1);
-				if (entryDate1.isBefore(selectedDate) && entryDate2.isAfter(selectedDate)) {
-					return entryDate2; // next entry
-				}
-			}
+	public static void readEntries(EntryConsumer consumer) throws JournalException {
+		readEntries(null, null, consumer);
+	}
+
+	/**
+	 * Decrypts the entries between two dates in parallel, handing them to the
+	 * consumer in date order on the calling thread. Queued saves are written
+	 * first.
+	 *
+	 * @param from     {@link LocalDate} the first date, or null for the earliest
+	 * @param to       {@link LocalDate} the last date, or null for the latest
+	 * @param consumer {@link EntryConsumer}
+	 * @throws JournalException if an entry cannot be read or the consumer fails
+	 */
+	public static void readEntries(LocalDate from, LocalDate to, EntryConsumer consumer) throws JournalException {
+		flush();
+		try {
+			journal.readEntries(from == null ? null : from.format(dateFormatter),
+					to == null ? null : to.format(dateFormatter),
+					(key, text) -> consumer.accept(LocalDate.ofEpochDay(DateIndex.parse(key)), text));
+		} catch (GeneralSecurityException | IOException e) {
+			throw new JournalException("Error reading journal entries.", e);
 		}
-		return null;
 	}
 
 	/**
-	 * Parse over entryDates backwards. If selectedDate is after the last entryDate,
-	 * return the entryDate. Else, if there's a following (prior) entryDate, and the
-	 * selectedDate is after that second entryDate, or between the two entryDates,
-	 * return the first entryDate.
+	 * Restores a version of an entry from its revision history, saving it as the
+	 * latest version.
 	 *
-	 * @param selectedDate {@link LocalDate}
-	 * @param entryDates   {@link List} of {@link LocalDate}
-	 * @return {@link LocalDate}
+	 * @param date   {@link LocalDate}
+	 * @param number int the revision number, from 0 for the oldest
+	 * @return {@link CompletableFuture} completed once the entry is on disk
+	 * @throws JournalException if the revision cannot be read
 	 */
-	private static LocalDate parseForPrevious(LocalDate selectedDate, List<LocalDate> entryDates) {
-		for (int i = entryDates.size() - 1; i >= 0; i--) {
-			LocalDate entryDate1 = entryDates.get(i);
-			if (selectedDate.isAfter(entryDate1)) {
-				return entryDate1;
-			}
-			if ((i - 1) >= 0) {
-				LocalDate entryDate2 = entryDates.get(i - 1);
-				if (selectedDate.isAfter(entryDate2)
-						|| (entryDate2.isBefore(selectedDate) && entryDate1.isAfter(selectedDate))) {
-					return entryDate2; // previous entry
-				}
-			}
+	public static CompletableFuture<Void> restoreRevision(LocalDate date, int number) throws JournalException {
+		return saveEntry(date, getRevision(date, number));
+	}
+
+	/**
+	 * Queues an entry to be added to the journal and saved by a single background
+	 * writer, which coalesces bursts of saves into one write.
+	 *
+	 * @param date {@link LocalDate}
+	 * @param text {@link String} the text of the entry, blank to delete it
+	 * @return {@link CompletableFuture} completed once the entry is on disk, or
+	 *         exceptionally with a {@link JournalException}
+	 */
+	public static CompletableFuture<Void> saveEntry(LocalDate date, String text) {
+		return saveScheduler.submit(date, text);
+	}
+
+	/**
+	 * Finds the dates of the entries matching a query. The query is a list of
+	 * words, words ending with * to match any word starting with them and phrases
+	 * in double quotes, all of which must be found in an entry. Matching ignores
+	 * case and punctuation.
+	 *
+	 * @param query {@link String}
+	 * @return {@link List} of {@link LocalDate} in ascending order
+	 * @throws JournalException if the search index could not be built
+	 */
+	public static List<LocalDate> search(String query) throws JournalException {
+		try {
+			return journal.search(query);
+		} catch (IOException e) {
+			throw new JournalException("Error searching journal.", e);
 		}
-		return null;
 	}
 
 	/**
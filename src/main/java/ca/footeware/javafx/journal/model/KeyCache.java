@@ -0,0 +1,102 @@
+package ca.footeware.javafx.journal.model;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * A bounded, least-recently-used cache of AES keys derived by
+ * {@link Superstar}, keyed by the identity of the password and the salt used to
+ * derive them. It lives as long as the {@link Journal} that owns it and its key
+ * material is zeroed when evicted or cleared.
+ */
+public class KeyCache {
+
+	/**
+	 * Identifies a derived key. The password is compared by reference so that the
+	 * cache never holds a copy of it, only the {@link Journal}'s own instance.
+	 *
+	 * @param password {@link String}
+	 * @param salt     byte array
+	 */
+	private record CacheKey(String password, byte[] salt) {
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof CacheKey other && password == other.password && Arrays.equals(salt, other.salt);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(password) + Arrays.hashCode(salt);
+		}
+	}
+
+	private final Map<CacheKey, byte[]> keys;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param capacity int the maximum number of keys held
+	 */
+	public KeyCache(int capacity) {
+		this.keys = new LinkedHashMap<>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<CacheKey, byte[]> eldest) {
+				if (size() > capacity) {
+					Arrays.fill(eldest.getValue(), (byte) 0);
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Zero and drop every cached key.
+	 */
+	public synchronized void clear() {
+		keys.values().forEach(key -> Arrays.fill(key, (byte) 0));
+		keys.clear();
+	}
+
+	/**
+	 * Gets the key derived from the provided password and salt.
+	 *
+	 * @param password {@link String}
+	 * @param salt     byte array
+	 * @return {@link SecretKey} may be null if the key has not been cached
+	 */
+	public synchronized SecretKey get(String password, byte[] salt) {
+		byte[] encoded = keys.get(new CacheKey(password, salt));
+		return encoded == null ? null : new SecretKeySpec(encoded, "AES");
+	}
+
+	/**
+	 * Caches the key derived from the provided password and salt.
+	 *
+	 * @param password   {@link String}
+	 * @param salt       byte array, copied
+	 * @param encodedKey byte array, copied
+	 */
+	public synchronized void put(String password, byte[] salt, byte[] encodedKey) {
+		byte[] previous = keys.put(new CacheKey(password, salt.clone()), encodedKey.clone());
+		if (previous != null) {
+			Arrays.fill(previous, (byte) 0);
+		}
+	}
+
+	/**
+	 * Gets the number of cached keys.
+	 *
+	 * @return int
+	 */
+	public synchronized int size() {
+		return keys.size();
+	}
+}
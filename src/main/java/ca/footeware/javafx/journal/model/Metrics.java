@@ -0,0 +1,398 @@
+package ca.footeware.javafx.journal.model;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An in-process registry of counters and histograms that is always on. Recording
+ * never locks: counters are {@link LongAdder}s and histograms atomic arrays of
+ * buckets, so threads recording at once don't contend. Snapshots are read
+ * without stopping recording and so may be a few events apart across metrics.
+ * <p>
+ * Snapshots can be written periodically, a line of JSON each, to the file
+ * named by {@link #DUMP_FILE_PROPERTY}, every {@link #DUMP_INTERVAL_PROPERTY}
+ * seconds.
+ */
+public final class Metrics {
+
+	/**
+	 * A count of events.
+	 */
+	public static final class Counter {
+
+		private final LongAdder count = new LongAdder();
+
+		/**
+		 * Constructor, hidden because counters are registered with
+		 * {@link Metrics#counter(String)}.
+		 */
+		private Counter() {
+		}
+
+		/**
+		 * Adds to the count.
+		 *
+		 * @param amount long
+		 */
+		public void add(long amount) {
+			count.add(amount);
+		}
+
+		/**
+		 * Gets the count.
+		 *
+		 * @return long
+		 */
+		public long get() {
+			return count.sum();
+		}
+
+		/**
+		 * Adds one to the count.
+		 */
+		public void increment() {
+			count.increment();
+		}
+	}
+
+	/**
+	 * The distribution of recorded values, in buckets that are exact below 8 and
+	 * within an eighth of the value above it.
+	 */
+	public static final class Histogram {
+
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+		private final LongAdder count = new LongAdder();
+		private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+		private final LongAdder sum = new LongAdder();
+
+		/**
+		 * Constructor, hidden because histograms are registered with
+		 * {@link Metrics#histogram(String)}.
+		 */
+		private Histogram() {
+		}
+
+		/**
+		 * Records a value.
+		 *
+		 * @param value long negative values count as 0
+		 */
+		public void record(long value) {
+			long recorded = Math.max(0, value);
+			buckets.incrementAndGet(bucket(recorded));
+			count.increment();
+			sum.add(recorded);
+			max.accumulate(recorded);
+		}
+
+		/**
+		 * Records the microseconds elapsed since the provided time.
+		 *
+		 * @param startNanos long a value of {@link System#nanoTime()}
+		 */
+		public void recordSince(long startNanos) {
+			record((System.nanoTime() - startNanos) / 1000);
+		}
+
+		/**
+		 * Summarizes the values recorded so far.
+		 *
+		 * @return {@link Summary}
+		 */
+		public Summary summarize() {
+			long[] counts = new long[BUCKETS];
+			long total = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				counts[i] = buckets.get(i);
+				total += counts[i];
+			}
+			long highest = max.get();
+			return new Summary(total, sum.sum(), highest, percentile(counts, total, 0.5, highest),
+					percentile(counts, total, 0.95, highest), percentile(counts, total, 0.99, highest));
+		}
+	}
+
+	/**
+	 * The values recorded by a {@link Histogram}.
+	 *
+	 * @param count long the number of values
+	 * @param sum   long their total
+	 * @param max   long the largest
+	 * @param p50   long the median, to within an eighth
+	 * @param p95   long the 95th percentile, to within an eighth
+	 * @param p99   long the 99th percentile, to within an eighth
+	 */
+	public record Summary(long count, long sum, long max, long p50, long p95, long p99) {
+
+		/**
+		 * Gets the mean of the values.
+		 *
+		 * @return double 0 if there are none
+		 */
+		public double mean() {
+			return count == 0 ? 0 : (double) sum / count;
+		}
+	}
+
+	/**
+	 * Every metric's value at a moment.
+	 *
+	 * @param time       {@link Instant} when it was taken
+	 * @param counters   {@link Map} of counter names to their counts, by name
+	 * @param histograms {@link Map} of histogram names to their {@link Summary},
+	 *                   by name
+	 */
+	public record Snapshot(Instant time, Map<String, Long> counters, Map<String, Summary> histograms) {
+
+		/**
+		 * Gets the number of events a second between a previous snapshot and this
+		 * one, a histogram's values counting as its events.
+		 *
+		 * @param name     {@link String} a counter or histogram
+		 * @param previous {@link Snapshot} may be null to rate since metrics started
+		 * @return double
+		 */
+		public double perSecond(String name, Snapshot previous) {
+			long now = count(name);
+			long before = previous == null ? 0 : previous.count(name);
+			long millis = time.toEpochMilli() - (previous == null ? STARTED : previous.time).toEpochMilli();
+			return millis <= 0 ? 0 : (now - before) * 1000.0 / millis;
+		}
+
+		/**
+		 * Gets the count of a counter or histogram.
+		 *
+		 * @param name {@link String}
+		 * @return long 0 if there's no such metric
+		 */
+		private long count(String name) {
+			Long counter = counters.get(name);
+			if (counter != null) {
+				return counter;
+			}
+			Summary summary = histograms.get(name);
+			return summary == null ? 0 : summary.count();
+		}
+
+		/**
+		 * Formats the snapshot as a line of JSON, with rates since the previous one.
+		 *
+		 * @param previous {@link Snapshot} may be null
+		 * @return {@link String}
+		 */
+		String toJson(Snapshot previous) {
+			// metric names are constants needing no escaping
+			StringBuilder json = new StringBuilder("{\"time\": \"").append(time).append("\", \"counters\": {");
+			String separator = "";
+			for (Map.Entry<String, Long> counter : counters.entrySet()) {
+				json.append(separator).append('"').append(counter.getKey()).append("\": {\"count\": ")
+						.append(counter.getValue()).append(", \"perSecond\": ")
+						.append(format(perSecond(counter.getKey(), previous))).append('}');
+				separator = ", ";
+			}
+			json.append("}, \"histograms\": {");
+			separator = "";
+			for (Map.Entry<String, Summary> histogram : histograms.entrySet()) {
+				Summary summary = histogram.getValue();
+				json.append(separator).append('"').append(histogram.getKey()).append("\": {\"count\": ")
+						.append(summary.count()).append(", \"perSecond\": ")
+						.append(format(perSecond(histogram.getKey(), previous))).append(", \"mean\": ")
+						.append(format(summary.mean())).append(", \"p50\": ").append(summary.p50())
+						.append(", \"p95\": ").append(summary.p95()).append(", \"p99\": ").append(summary.p99())
+						.append(", \"max\": ").append(summary.max()).append('}');
+				separator = ", ";
+			}
+			return json.append("}}").toString();
+		}
+	}
+
+	/**
+	 * The number of histogram buckets: 8 exact ones, then 8 for each power of 2
+	 * from 8 up.
+	 */
+	private static final int BUCKETS = (Long.SIZE - 2) * 8;
+
+	/**
+	 * The system property naming the file snapshots are written to, by default
+	 * .journal-metrics.jsonl in the user's home folder.
+	 */
+	public static final String DUMP_FILE_PROPERTY = "journal.metrics.file";
+
+	/**
+	 * The system property setting the seconds between snapshots written to the
+	 * file, 0 to write none. The default is 300.
+	 */
+	public static final String DUMP_INTERVAL_PROPERTY = "journal.metrics.interval";
+
+	/**
+	 * The size at which the snapshot file is moved aside, to a file of the same
+	 * name ending in .1, and a new one started.
+	 */
+	private static final long MAX_DUMP_BYTES = 1024 * 1024;
+
+	private static final Map<String, Counter> counters = new ConcurrentHashMap<>();
+	private static ScheduledExecutorService dumper;
+	private static Path dumpFile;
+	private static final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+	private static Snapshot lastDumped;
+	private static final Instant STARTED = Instant.now();
+
+	/**
+	 * Gets the bucket counting a value.
+	 *
+	 * @param value long not negative
+	 * @return int
+	 */
+	private static int bucket(long value) {
+		if (value < 8) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		return (exponent - 2) * 8 + (int) ((value >>> (exponent - 3)) & 7);
+	}
+
+	/**
+	 * Gets the counter of the provided name, registering it if need be.
+	 *
+	 * @param name {@link String} dotted, such as crypto.decrypts
+	 * @return {@link Counter}
+	 */
+	public static Counter counter(String name) {
+		return counters.computeIfAbsent(name, _ -> new Counter());
+	}
+
+	/**
+	 * Writes a snapshot to the dump file.
+	 */
+	private static synchronized void dump() {
+		Snapshot snapshot = snapshot();
+		try {
+			if (Files.exists(dumpFile) && Files.size(dumpFile) >= MAX_DUMP_BYTES) {
+				Files.move(dumpFile, dumpFile.resolveSibling(dumpFile.getFileName() + ".1"),
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+			try (BufferedWriter writer = Files.newBufferedWriter(dumpFile, StandardCharsets.UTF_8,
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+				writer.write(snapshot.toJson(lastDumped));
+				writer.newLine();
+			}
+		} catch (IOException _) {
+			// metrics are best effort, the next snapshot tries again
+		}
+		lastDumped = snapshot;
+	}
+
+	/**
+	 * Formats a rate or mean with two decimals.
+	 *
+	 * @param value double
+	 * @return {@link String}
+	 */
+	private static String format(double value) {
+		return String.format(Locale.ROOT, "%.2f", value);
+	}
+
+	/**
+	 * Gets the histogram of the provided name, registering it if need be.
+	 *
+	 * @param name {@link String} dotted and ending in the unit recorded, such as
+	 *             journal.save.micros
+	 * @return {@link Histogram}
+	 */
+	public static Histogram histogram(String name) {
+		return histograms.computeIfAbsent(name, _ -> new Histogram());
+	}
+
+	/**
+	 * Gets a percentile of the counted values: the top of the bucket it falls in,
+	 * but no more than the largest value recorded.
+	 *
+	 * @param counts   long array of the count in each bucket
+	 * @param total    long the sum of the counts
+	 * @param fraction double the percentile, from 0 to 1
+	 * @param max      long the largest value recorded
+	 * @return long 0 if nothing is counted
+	 */
+	private static long percentile(long[] counts, long total, double fraction, long max) {
+		long rank = (long) Math.ceil(total * fraction);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank && seen > 0) {
+				if (i < 8) {
+					return i;
+				}
+				int shift = i / 8 - 1;
+				long top = ((8L + i % 8 + 1) << shift) - 1;
+				return Math.min(top, max);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Takes a snapshot of every metric.
+	 *
+	 * @return {@link Snapshot}
+	 */
+	public static Snapshot snapshot() {
+		Map<String, Long> counts = new TreeMap<>();
+		counters.forEach((name, counter) -> counts.put(name, counter.get()));
+		Map<String, Summary> summaries = new TreeMap<>();
+		histograms.forEach((name, histogram) -> summaries.put(name, histogram.summarize()));
+		return new Snapshot(Instant.now(), counts, summaries);
+	}
+
+	/**
+	 * Starts writing snapshots to the file named by {@link #DUMP_FILE_PROPERTY}
+	 * every {@link #DUMP_INTERVAL_PROPERTY} seconds, on a background thread.
+	 */
+	public static synchronized void startDumping() {
+		long interval = Long.getLong(DUMP_INTERVAL_PROPERTY, 300);
+		if (dumper != null || interval <= 0) {
+			return;
+		}
+		dumpFile = Path.of(System.getProperty(DUMP_FILE_PROPERTY,
+				Path.of(System.getProperty("user.home"), ".journal-metrics.jsonl").toString()));
+		dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "journal-metrics");
+			thread.setDaemon(true);
+			return thread;
+		});
+		dumper.scheduleAtFixedRate(Metrics::dump, interval, interval, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Stops writing snapshots, writing a last one first.
+	 */
+	public static synchronized void stopDumping() {
+		if (dumper != null) {
+			dumper.shutdownNow();
+			dumper = null;
+			dump();
+		}
+	}
+
+	/**
+	 * Constructor, hidden because metrics are registered statically.
+	 */
+	private Metrics() {
+	}
+}
@@ -0,0 +1,75 @@
+package ca.footeware.javafx.journal.model;
+
+import java.nio.ByteBuffer;
+import java.security.DrbgParameters;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A shared, thread-safe source of salts and GCM IVs backed by a DRBG that is
+ * seeded once and never blocks afterward.
+ * <p>
+ * IVs follow the deterministic construction of NIST SP 800-38D: a random fixed
+ * field followed by a counter that starts at a random value. Within a process
+ * the counter guarantees no IV is handed out twice, and the random fixed field
+ * and starting point keep separate processes from colliding.
+ */
+public final class NonceSource {
+
+	/**
+	 * Holds the lazily seeded state so that seeding happens on first use.
+	 */
+	private static final class Holder {
+
+		private static final AtomicLong counter;
+		private static final int fixedField;
+		private static final SecureRandom random;
+
+		static {
+			try {
+				random = SecureRandom.getInstance("DRBG",
+						DrbgParameters.instantiation(256, DrbgParameters.Capability.RESEED_ONLY, null));
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException("DRBG is not available.", e);
+			}
+			fixedField = random.nextInt();
+			counter = new AtomicLong(random.nextLong());
+		}
+	}
+
+	/**
+	 * The length in bytes of a GCM IV.
+	 */
+	public static final int IV_LENGTH = 12;
+
+	/**
+	 * Fills the provided array, from the offset, with a GCM IV that has not been
+	 * issued before in this process.
+	 *
+	 * @param iv     byte array with at least {@link #IV_LENGTH} bytes after offset
+	 * @param offset int
+	 */
+	public static void nextIv(byte[] iv, int offset) {
+		ByteBuffer.wrap(iv, offset, IV_LENGTH).putInt(Holder.fixedField).putLong(Holder.counter.getAndIncrement());
+	}
+
+	/**
+	 * Generate a random salt.
+	 *
+	 * @param length int the number of bytes
+	 * @return byte array
+	 */
+	public static byte[] nextSalt(int length) {
+		byte[] salt = new byte[length];
+		Holder.random.nextBytes(salt);
+		return salt;
+	}
+
+	/**
+	 * Constructor, hidden because all methods are static.
+	 */
+	private NonceSource() {
+		// empty
+	}
+}
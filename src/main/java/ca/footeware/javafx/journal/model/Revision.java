@@ -0,0 +1,13 @@
+package ca.footeware.javafx.journal.model;
+
+import java.time.Instant;
+
+/**
+ * Describes one saved version of an entry in its revision history.
+ *
+ * @param number   int the revision number, counting from 0 for the oldest
+ * @param savedAt  {@link Instant} when the version was saved
+ * @param snapshot boolean true if stored in full rather than as a delta
+ */
+public record Revision(int number, Instant savedAt, boolean snapshot) {
+}
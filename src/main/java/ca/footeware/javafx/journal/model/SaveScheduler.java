@@ -0,0 +1,247 @@
+package ca.footeware.javafx.journal.model;
+
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import ca.footeware.javafx.journal.exceptions.JournalException;
+
+/**
+ * A single background writer for journal entries. Saves are queued and applied
+ * in bursts: every entry queued while the previous burst was being written, or
+ * within {@link #COALESCE_MILLIS} of the first, is added to the journal before
+ * it is written to disk once. A later save of the same date replaces an earlier
+ * one still in the queue. Saves not yet applied to the journal can be looked
+ * up so that readers see them. Flushing or closing the scheduler writes what's
+ * queued without waiting for more.
+ */
+class SaveScheduler {
+
+	/**
+	 * Adds an entry to the journal without saving it.
+	 */
+	@FunctionalInterface
+	interface EntryWriter {
+
+		/**
+		 * Add an entry.
+		 *
+		 * @param date {@link LocalDate}
+		 * @param text {@link String} blank to delete the entry
+		 * @throws JournalException
+		 */
+		void write(LocalDate date, String text) throws JournalException;
+	}
+
+	/**
+	 * Writes the journal to disk.
+	 */
+	@FunctionalInterface
+	interface Saver {
+
+		/**
+		 * Save the journal.
+		 *
+		 * @throws JournalException
+		 */
+		void save() throws JournalException;
+	}
+
+	/**
+	 * How long the writer waits for more saves after the first of a burst.
+	 */
+	private static final long COALESCE_MILLIS = 50;
+
+	/**
+	 * Waits for the provided future, unwrapping its failure.
+	 *
+	 * @param future {@link CompletableFuture}
+	 * @throws JournalException
+	 */
+	private static void await(CompletableFuture<Void> future) throws JournalException {
+		try {
+			future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new JournalException("Interrupted waiting for the journal to be saved.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof JournalException journalException) {
+				throw journalException;
+			}
+			throw new JournalException("Error saving journal.", e.getCause());
+		}
+	}
+
+	private boolean closed;
+
+	/**
+	 * True if a flush is waiting for what's queued, which is then written without
+	 * waiting for more.
+	 */
+	private boolean flushing;
+	private CompletableFuture<Void> inFlight;
+	private CompletableFuture<Void> next = new CompletableFuture<>();
+	private final Map<LocalDate, String> queued = new LinkedHashMap<>();
+	private final Saver saver;
+	private final EntryWriter writer;
+	private Map<LocalDate, String> writing = Map.of();
+
+	/**
+	 * Constructor, starting the writer thread.
+	 *
+	 * @param writer {@link EntryWriter}
+	 * @param saver  {@link Saver}
+	 */
+	SaveScheduler(EntryWriter writer, Saver saver) {
+		this.writer = writer;
+		this.saver = saver;
+		Thread thread = new Thread(this::run, "journal-writer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Writes everything queued, then stops the writer.
+	 *
+	 * @throws JournalException if the last write failed
+	 */
+	void close() throws JournalException {
+		CompletableFuture<Void> pending;
+		synchronized (this) {
+			pending = pending();
+			closed = true;
+			notifyAll();
+		}
+		await(pending);
+	}
+
+	/**
+	 * Waits until every save queued so far has been written to disk.
+	 *
+	 * @throws JournalException if the write failed
+	 */
+	void flush() throws JournalException {
+		CompletableFuture<Void> pending;
+		synchronized (this) {
+			pending = pending();
+			if (!queued.isEmpty()) {
+				flushing = true;
+				notifyAll();
+			}
+		}
+		await(pending);
+	}
+
+	/**
+	 * Gets the text of a save not yet applied to the journal.
+	 *
+	 * @param date {@link LocalDate}
+	 * @return {@link String} may be blank if the entry is to be deleted, or null if
+	 *         {@link #isPending(LocalDate)} is false
+	 */
+	synchronized String getPending(LocalDate date) {
+		return queued.containsKey(date) ? queued.get(date) : writing.get(date);
+	}
+
+	/**
+	 * Determines if a save for the provided date is not yet applied to the
+	 * journal.
+	 *
+	 * @param date {@link LocalDate}
+	 * @return boolean
+	 */
+	synchronized boolean isPending(LocalDate date) {
+		return queued.containsKey(date) || writing.containsKey(date);
+	}
+
+	/**
+	 * Gets the future of the last write that includes the saves queued so far.
+	 * Must be called holding the lock.
+	 *
+	 * @return {@link CompletableFuture}
+	 */
+	private CompletableFuture<Void> pending() {
+		if (!queued.isEmpty()) {
+			return next;
+		}
+		return inFlight == null ? CompletableFuture.completedFuture(null) : inFlight;
+	}
+
+	/**
+	 * The writer thread's loop.
+	 */
+	private void run() {
+		while (true) {
+			Map<LocalDate, String> batch;
+			CompletableFuture<Void> done;
+			synchronized (this) {
+				while (queued.isEmpty() && !closed) {
+					try {
+						wait();
+					} catch (InterruptedException _) {
+						// keep writing until closed
+					}
+				}
+				if (queued.isEmpty()) {
+					return;
+				}
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(COALESCE_MILLIS);
+				long remaining = deadline - System.nanoTime();
+				while (!closed && !flushing && remaining > 0) {
+					try {
+						TimeUnit.NANOSECONDS.timedWait(this, remaining);
+					} catch (InterruptedException _) {
+						// write what's queued now
+						break;
+					}
+					remaining = deadline - System.nanoTime();
+				}
+				flushing = false;
+				batch = new LinkedHashMap<>(queued);
+				queued.clear();
+				done = next;
+				next = new CompletableFuture<>();
+				inFlight = done;
+				writing = batch;
+			}
+			try {
+				for (Map.Entry<LocalDate, String> entry : batch.entrySet()) {
+					writer.write(entry.getKey(), entry.getValue());
+				}
+				synchronized (this) {
+					writing = Map.of();
+				}
+				saver.save();
+				done.complete(null);
+			} catch (JournalException | RuntimeException e) {
+				done.completeExceptionally(e);
+			} finally {
+				synchronized (this) {
+					writing = Map.of();
+					if (inFlight == done) {
+						inFlight = null;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Queues an entry to be added to the journal and saved.
+	 *
+	 * @param date {@link LocalDate}
+	 * @param text {@link String} blank to delete the entry
+	 * @return {@link CompletableFuture} completed once the entry is on disk
+	 */
+	synchronized CompletableFuture<Void> submit(LocalDate date, String text) {
+		if (closed) {
+			throw new IllegalStateException("The journal is closed.");
+		}
+		queued.put(date, text);
+		notifyAll();
+		return next;
+	}
+}
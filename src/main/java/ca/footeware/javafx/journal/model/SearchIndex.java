@@ -0,0 +1,538 @@
+package ca.footeware.javafx.journal.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
+
+/**
+ * A full-text inverted index of a journal's entries, mapping each term to the
+ * sorted epoch days of the entries containing it. The terms of each entry are
+ * also kept in order, as ids into the dictionary, so that phrases are matched
+ * without decrypting anything.
+ * <p>
+ * The index is filled once per opening, either from its encrypted sidecar file
+ * or by indexing every entry, and is kept up to date as entries are saved.
+ * Entries saved while it is being filled are not overwritten by the older text
+ * being indexed. Queries wait until it is filled.
+ */
+class SearchIndex {
+
+	/**
+	 * The entries containing a term.
+	 */
+	private static final class Term {
+		private int[] days = new int[4];
+		private final int id;
+		private int pass;
+		private int size;
+		private final String text;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param id   int
+		 * @param text {@link String}
+		 */
+		private Term(int id, String text) {
+			this.id = id;
+			this.text = text;
+		}
+	}
+
+	private static final int FORMAT = 1;
+
+	/**
+	 * Longer words are truncated so that a pasted blob can't bloat the index.
+	 */
+	private static final int MAX_TERM_LENGTH = 64;
+
+	private static final Pattern QUERY = Pattern.compile("\"([^\"]*)\"?|(\\S+)");
+
+	/**
+	 * Adds a day to a term's entries, keeping them sorted.
+	 *
+	 * @param term {@link Term}
+	 * @param day  int
+	 */
+	private static void addDay(Term term, int day) {
+		int index = term.size == 0 || term.days[term.size - 1] < day ? -term.size - 1
+				: Arrays.binarySearch(term.days, 0, term.size, day);
+		if (index >= 0) {
+			return;
+		}
+		index = -index - 1;
+		if (term.size == term.days.length) {
+			term.days = Arrays.copyOf(term.days, term.size * 2);
+		}
+		System.arraycopy(term.days, index, term.days, index + 1, term.size - index);
+		term.days[index] = day;
+		term.size++;
+	}
+
+	/**
+	 * Intersects two sorted arrays of days.
+	 *
+	 * @param a int array
+	 * @param b int array
+	 * @return int array
+	 */
+	private static int[] intersect(int[] a, int[] b) {
+		int[] result = new int[Math.min(a.length, b.length)];
+		int size = 0;
+		for (int i = 0, j = 0; i < a.length && j < b.length;) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				result[size++] = a[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(result, size);
+	}
+
+	/**
+	 * Removes a day from a term's entries.
+	 *
+	 * @param term {@link Term}
+	 * @param day  int
+	 */
+	private static void removeDay(Term term, int day) {
+		int index = Arrays.binarySearch(term.days, 0, term.size, day);
+		if (index >= 0) {
+			System.arraycopy(term.days, index + 1, term.days, index, term.size - index - 1);
+			term.size--;
+		}
+	}
+
+	/**
+	 * Splits text into lower case terms: runs of letters and digits.
+	 *
+	 * @param text {@link String}
+	 * @return {@link List} of {@link String}
+	 */
+	static List<String> tokenize(String text) {
+		List<String> tokens = new ArrayList<>();
+		int start = -1;
+		int length = text.length();
+		for (int i = 0; i <= length;) {
+			int codePoint = i < length ? text.codePointAt(i) : ' ';
+			boolean word = Character.isLetterOrDigit(codePoint);
+			if (word && start < 0) {
+				start = i;
+			} else if (!word && start >= 0) {
+				int end = Math.min(i, start + MAX_TERM_LENGTH);
+				if (Character.isHighSurrogate(text.charAt(end - 1))) {
+					end--;
+				}
+				tokens.add(text.substring(start, end).toLowerCase(Locale.ROOT));
+				start = -1;
+			}
+			i += Character.charCount(codePoint);
+		}
+		return tokens;
+	}
+
+	private final List<Term> byId = new ArrayList<>();
+	private boolean dirty;
+	private final Map<Integer, int[]> documents = new HashMap<>();
+	private boolean filling = true;
+	private int passes;
+	private final CompletableFuture<Void> ready = new CompletableFuture<>();
+	private final TreeMap<String, Term> terms = new TreeMap<>();
+
+	/**
+	 * Days saved while the index is being filled, which it must not overwrite.
+	 */
+	private final Set<Integer> touched = new HashSet<>();
+
+	/**
+	 * Marks the index filled, or failed to fill, and releases waiting queries.
+	 *
+	 * @param failure {@link Throwable} null if the index was filled
+	 */
+	void filled(Throwable failure) {
+		synchronized (this) {
+			filling = false;
+			touched.clear();
+		}
+		if (failure == null) {
+			ready.complete(null);
+		} else {
+			ready.completeExceptionally(failure);
+		}
+	}
+
+	/**
+	 * Gets the dictionary ids of the provided terms, adding any that are new. Must
+	 * be called holding the lock.
+	 *
+	 * @param tokens {@link List} of {@link String}
+	 * @return int array
+	 */
+	private int[] ids(List<String> tokens) {
+		int[] ids = new int[tokens.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = term(tokens.get(i)).id;
+		}
+		return ids;
+	}
+
+	/**
+	 * Indexes an entry while filling the index, unless it has been saved since.
+	 *
+	 * @param day  int the entry's epoch day
+	 * @param text {@link String}
+	 */
+	void index(int day, String text) {
+		List<String> tokens = tokenize(text);
+		synchronized (this) {
+			if (!touched.contains(day)) {
+				replace(day, ids(tokens));
+				dirty = true;
+			}
+		}
+	}
+
+	/**
+	 * Determines if the index has changed since it was read or written.
+	 *
+	 * @return boolean
+	 */
+	synchronized boolean isDirty() {
+		return dirty;
+	}
+
+	/**
+	 * Determines if the index has been filled.
+	 *
+	 * @return boolean
+	 */
+	boolean isReady() {
+		return ready.isDone() && !ready.isCompletedExceptionally();
+	}
+
+	/**
+	 * Gets the entries containing a phrase, matched against each entry's terms in
+	 * order. Must be called holding the lock.
+	 *
+	 * @param tokens {@link List} of {@link String} at least one
+	 * @return int array of sorted epoch days
+	 */
+	private int[] phrase(List<String> tokens) {
+		int[] ids = new int[tokens.size()];
+		int[] days = null;
+		for (int i = 0; i < ids.length; i++) {
+			Term term = terms.get(tokens.get(i));
+			if (term == null) {
+				return new int[0];
+			}
+			ids[i] = term.id;
+			int[] termDays = Arrays.copyOf(term.days, term.size);
+			days = days == null ? termDays : intersect(days, termDays);
+		}
+		if (ids.length == 1) {
+			return days;
+		}
+		int[] matches = new int[days.length];
+		int size = 0;
+		for (int day : days) {
+			int[] document = documents.get(day);
+			for (int start = 0; start + ids.length <= document.length; start++) {
+				int i = 0;
+				while (i < ids.length && document[start + i] == ids[i]) {
+					i++;
+				}
+				if (i == ids.length) {
+					matches[size++] = day;
+					break;
+				}
+			}
+		}
+		return Arrays.copyOf(matches, size);
+	}
+
+	/**
+	 * Gets the entries containing a term starting with the provided prefix. Must
+	 * be called holding the lock.
+	 *
+	 * @param prefix {@link String}
+	 * @return int array of sorted epoch days
+	 */
+	private int[] prefix(String prefix) {
+		int[] days = new int[0];
+		int size = 0;
+		for (Term term : terms.subMap(prefix, prefix + Character.MAX_VALUE).values()) {
+			if (size + term.size > days.length) {
+				days = Arrays.copyOf(days, Math.max(days.length * 2, size + term.size));
+			}
+			System.arraycopy(term.days, 0, days, size, term.size);
+			size += term.size;
+		}
+		Arrays.sort(days, 0, size);
+		int distinct = 0;
+		for (int i = 0; i < size; i++) {
+			if (distinct == 0 || days[distinct - 1] != days[i]) {
+				days[distinct++] = days[i];
+			}
+		}
+		return Arrays.copyOf(days, distinct);
+	}
+
+	/**
+	 * Indexes a saved entry, replacing whatever it held before.
+	 *
+	 * @param day  int the entry's epoch day
+	 * @param text {@link String} blank if the entry was deleted
+	 */
+	void put(int day, String text) {
+		List<String> tokens = text == null ? List.of() : tokenize(text);
+		synchronized (this) {
+			if (filling) {
+				touched.add(day);
+			}
+			replace(day, tokens.isEmpty() ? null : ids(tokens));
+			dirty = true;
+		}
+	}
+
+	/**
+	 * Reads the index from an encrypted sidecar file, unless it was written for a
+	 * different state of the journal.
+	 *
+	 * @param file      {@link Path}
+	 * @param secretKey {@link SecretKey} the journal key
+	 * @param stamp     {@link String} identifying the state of the journal file
+	 * @return boolean true if the index was read, false if the file is missing or
+	 *         stale and the index must be filled from the entries
+	 * @throws IOException
+	 */
+	boolean read(Path file, SecretKey secretKey, String stamp) throws IOException {
+		byte[] bytes;
+		try {
+			bytes = Superstar.decryptBytes(Files.readString(file, StandardCharsets.ISO_8859_1), secretKey);
+		} catch (NoSuchFileException _) {
+			return false;
+		} catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException
+				| InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException
+				| IllegalArgumentException _) {
+			// written with another key or damaged, rebuild it
+			return false;
+		}
+		Map<Integer, int[]> read = new LinkedHashMap<>();
+		String[] dictionary;
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new InflaterInputStream(new ByteArrayInputStream(bytes))))) {
+			if (in.readInt() != FORMAT || !in.readUTF().equals(stamp)) {
+				return false;
+			}
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				int day = in.readInt();
+				int[] ids = new int[in.readInt()];
+				for (int j = 0; j < ids.length; j++) {
+					ids[j] = in.readInt();
+				}
+				read.put(day, ids);
+			}
+			dictionary = new String[in.readInt()];
+			for (int i = 0; i < dictionary.length; i++) {
+				dictionary[i] = in.readUTF();
+			}
+		}
+		synchronized (this) {
+			for (Map.Entry<Integer, int[]> entry : read.entrySet()) {
+				if (!touched.contains(entry.getKey())) {
+					int[] ids = entry.getValue();
+					for (int i = 0; i < ids.length; i++) {
+						ids[i] = term(dictionary[ids[i]]).id;
+					}
+					replace(entry.getKey(), ids);
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Replaces the terms of an entry. Must be called holding the lock.
+	 *
+	 * @param day int the entry's epoch day
+	 * @param ids int array of term ids in order, or null to remove the entry
+	 */
+	private void replace(int day, int[] ids) {
+		int[] old = ids == null ? documents.remove(day) : documents.put(day, ids);
+		if (old != null) {
+			int pass = ++passes;
+			for (int id : old) {
+				Term term = byId.get(id);
+				if (term.pass != pass) {
+					term.pass = pass;
+					removeDay(term, day);
+				}
+			}
+		}
+		if (ids != null) {
+			int pass = ++passes;
+			for (int id : ids) {
+				Term term = byId.get(id);
+				if (term.pass != pass) {
+					term.pass = pass;
+					addDay(term, day);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the entries matching a query, waiting for the index to be filled. The
+	 * query is a list of clauses, all of which must match: a word, a word ending
+	 * with * to match terms starting with it, or a phrase in double quotes.
+	 *
+	 * @param query {@link String}
+	 * @return int array of sorted epoch days
+	 * @throws IOException if the index could not be filled
+	 */
+	int[] search(String query) throws IOException {
+		try {
+			ready.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for the search index.", e);
+		} catch (ExecutionException e) {
+			throw new IOException("The search index could not be built.", e.getCause());
+		}
+		List<Object> clauses = new ArrayList<>();
+		Matcher matcher = QUERY.matcher(query);
+		while (matcher.find()) {
+			if (matcher.group(1) != null) {
+				List<String> tokens = tokenize(matcher.group(1));
+				if (!tokens.isEmpty()) {
+					clauses.add(tokens);
+				}
+			} else {
+				String word = matcher.group(2);
+				boolean prefix = word.endsWith("*");
+				List<String> tokens = tokenize(word);
+				if (prefix && tokens.size() == 1) {
+					clauses.add(tokens.getFirst());
+				} else if (!tokens.isEmpty()) {
+					clauses.add(tokens);
+				}
+			}
+		}
+		if (clauses.isEmpty()) {
+			return new int[0];
+		}
+		synchronized (this) {
+			int[] days = null;
+			for (Object clause : clauses) {
+				@SuppressWarnings("unchecked")
+				int[] matches = clause instanceof String start ? prefix(start) : phrase((List<String>) clause);
+				days = days == null ? matches : intersect(days, matches);
+				if (days.length == 0) {
+					break;
+				}
+			}
+			return days;
+		}
+	}
+
+	/**
+	 * Gets a term from the dictionary, adding it if it's new. Must be called
+	 * holding the lock.
+	 *
+	 * @param text {@link String}
+	 * @return {@link Term}
+	 */
+	private Term term(String text) {
+		Term term = terms.get(text);
+		if (term == null) {
+			term = new Term(byId.size(), text);
+			terms.put(text, term);
+			byId.add(term);
+		}
+		return term;
+	}
+
+	/**
+	 * Writes the index to an encrypted sidecar file, replacing it atomically. Only
+	 * the terms still in use are written.
+	 *
+	 * @param file      {@link Path}
+	 * @param secretKey {@link SecretKey} the journal key
+	 * @param stamp     {@link String} identifying the state of the journal file
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchPaddingException
+	 * @throws InvalidKeyException
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 * @throws IOException
+	 */
+	synchronized void write(Path file, SecretKey secretKey, String stamp)
+			throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException,
+			InvalidAlgorithmParameterException, IllegalBlockSizeException, BadPaddingException, IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Map<Term, Integer> dictionary = new LinkedHashMap<>();
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(bytes)))) {
+			out.writeInt(FORMAT);
+			out.writeUTF(stamp);
+			out.writeInt(documents.size());
+			for (Map.Entry<Integer, int[]> entry : documents.entrySet()) {
+				int[] ids = entry.getValue();
+				out.writeInt(entry.getKey());
+				out.writeInt(ids.length);
+				for (int id : ids) {
+					Term term = byId.get(id);
+					Integer written = dictionary.putIfAbsent(term, dictionary.size());
+					out.writeInt(written == null ? dictionary.size() - 1 : written);
+				}
+			}
+			out.writeInt(dictionary.size());
+			for (Term term : dictionary.keySet()) {
+				out.writeUTF(term.text);
+			}
+		}
+		String encrypted = Superstar.encrypt(bytes.toByteArray(), secretKey);
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		Files.writeString(temporary, encrypted, StandardCharsets.ISO_8859_1);
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		dirty = false;
+	}
+}
@@ -3,25 +3,110 @@ package ca.footeware.javafx.journal.model;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
-import java.util.Base64;
+import java.util.Arrays;
 
 import javax.crypto.BadPaddingException;
-import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
 
 /**
  * Is it an encryption service or something more sinister?
+ * <p>
+ * Two entry formats are understood. Version 1 entries are the Base64 encoding
+ * of salt, IV and ciphertext, and need a key derived from their own salt.
+ * Version 2 entries start with {@link #V2_PREFIX} followed by the Base64
+ * encoding of a flags byte, IV and ciphertext, and are encrypted with a single
+ * key derived once per journal. Bit 0 of the flags is set when the text was
+ * deflated before being encrypted, so entries written before compression have
+ * flags of 0.
  */
 public class Superstar {
 
+	/**
+	 * The iteration count used for PBKDF2 key derivation.
+	 */
+	public static final int KDF_ITERATIONS = 10000;
+
+	/**
+	 * The key derivation algorithm.
+	 */
+	public static final String KDF_ALGORITHM = "PBKDF2WithHmacSHA256";
+
+	/**
+	 * The length in bytes of the salt used for key derivation.
+	 */
+	public static final int SALT_LENGTH = 16;
+
+	/**
+	 * Marks a version 2 entry. It is not part of the Base64 alphabet so it can
+	 * never start a version 1 entry.
+	 */
+	static final String V2_PREFIX = "$";
+
+	private static final Metrics.Counter DECRYPTS = Metrics.counter("crypto.decrypts");
+	private static final int IV_LENGTH = NonceSource.IV_LENGTH;
+	private static final Metrics.Counter KEY_CACHE_HITS = Metrics.counter("crypto.keyCache.hits");
+	private static final Metrics.Histogram KEY_DERIVATIONS = Metrics.histogram("crypto.deriveKey.micros");
+	private static final byte[] NO_FLAGS = { 0 };
+
+	/**
+	 * Decrypt a version 2 entry using the provided journal key.
+	 *
+	 * @param encryptedData {@link String}
+	 * @param secretKey     {@link SecretKey}
+	 * @return {@link String}
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchPaddingException
+	 * @throws InvalidKeyException
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 */
+	public static String decrypt(String encryptedData, SecretKey secretKey)
+			throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException,
+			InvalidAlgorithmParameterException, IllegalBlockSizeException, BadPaddingException {
+		if (isLegacy(encryptedData)) {
+			throw new IllegalArgumentException("Not a version 2 entry.");
+		}
+
+		// Decode the Base64 encoded data following the prefix: flags byte, IV and
+		// encrypted data
+		CryptoContext context = CryptoContext.get();
+		int length = context.decode(encryptedData, V2_PREFIX.length());
+		DECRYPTS.increment();
+		return context.openEntry(secretKey, length);
+	}
+
+	/**
+	 * Decrypt a version 2 envelope holding bytes rather than text.
+	 *
+	 * @param encryptedData {@link String}
+	 * @param secretKey     {@link SecretKey}
+	 * @return byte array
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchPaddingException
+	 * @throws InvalidKeyException
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 */
+	public static byte[] decryptBytes(String encryptedData, SecretKey secretKey)
+			throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException,
+			InvalidAlgorithmParameterException, IllegalBlockSizeException, BadPaddingException {
+		if (isLegacy(encryptedData)) {
+			throw new IllegalArgumentException("Not a version 2 entry.");
+		}
+		CryptoContext context = CryptoContext.get();
+		int length = context.decode(encryptedData, V2_PREFIX.length());
+		DECRYPTS.increment();
+		return context.openBytes(secretKey, 1, 1 + IV_LENGTH, length);
+	}
+
 	/**
 	 * Decrypt data using the given password.
 	 *
@@ -39,31 +124,155 @@ public class Superstar {
 	public static String decrypt(String encryptedData, String password) throws NoSuchAlgorithmException,
 			NoSuchPaddingException, InvalidKeyException, InvalidAlgorithmParameterException, IllegalBlockSizeException,
 			BadPaddingException, InvalidKeySpecException {
+		return decrypt(encryptedData, password, null);
+	}
 
-		// Decode the Base64 encoded data
-		byte[] combined = Base64.getDecoder().decode(encryptedData);
+	/**
+	 * Decrypt data using the given password, reusing a key from the provided cache
+	 * when one has already been derived for the data's salt.
+	 *
+	 * @param encryptedData {@link String}
+	 * @param password      {@link String}
+	 * @param keyCache      {@link KeyCache} may be null
+	 * @return {@link String}
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchPaddingException
+	 * @throws InvalidKeyException
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 * @throws InvalidKeySpecException
+	 */
+	public static String decrypt(String encryptedData, String password, KeyCache keyCache)
+			throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException,
+			InvalidAlgorithmParameterException, IllegalBlockSizeException, BadPaddingException,
+			InvalidKeySpecException {
 
-		// Extract salt (first 16 bytes)
-		byte[] salt = new byte[16];
-		System.arraycopy(combined, 0, salt, 0, 16);
+		// Decode the Base64 encoded data: salt (first 16 bytes), IV (next 12 bytes)
+		// and encrypted data (remaining bytes)
+		CryptoContext context = CryptoContext.get();
+		int length = context.decode(encryptedData, 0);
+		byte[] salt = Arrays.copyOf(context.input(), SALT_LENGTH);
 
-		// Extract IV (next 12 bytes)
-		byte[] ivBytes = new byte[12];
-		System.arraycopy(combined, 16, ivBytes, 0, 12);
+		// Generate the same key using password and extracted salt
+		SecretKey secretKey = deriveKey(password, salt, KDF_ITERATIONS, keyCache);
 
-		// Extract encrypted data (remaining bytes)
-		byte[] encryptedBytes = new byte[combined.length - 28]; // 16 (salt) + 12 (IV) = 28
-		System.arraycopy(combined, 28, encryptedBytes, 0, encryptedBytes.length);
+		DECRYPTS.increment();
+		return context.open(secretKey, SALT_LENGTH, SALT_LENGTH + IV_LENGTH, length);
+	}
 
-		// Generate the same key using password and extracted salt
-		SecretKey secretKey = generateAESKey(password, salt);
+	/**
+	 * Derive a symmetric key for AES encryption from a password and salt, or fetch
+	 * it from the provided cache if it has been derived before. The cache is keyed
+	 * by password and salt only, so callers sharing a cache must use a single
+	 * iteration count.
+	 *
+	 * @param password   {@link String}
+	 * @param salt       byte array
+	 * @param iterations int
+	 * @param keyCache   {@link KeyCache} may be null
+	 * @return {@link SecretKey}
+	 * @throws NoSuchAlgorithmException
+	 * @throws InvalidKeySpecException
+	 */
+	public static SecretKey deriveKey(String password, byte[] salt, int iterations, KeyCache keyCache)
+			throws NoSuchAlgorithmException, InvalidKeySpecException {
+		if (keyCache != null) {
+			SecretKey cached = keyCache.get(password, salt);
+			if (cached != null) {
+				KEY_CACHE_HITS.increment();
+				return cached;
+			}
+		}
+		long start = System.nanoTime();
+		JournalEvents.KeyDerivation event = new JournalEvents.KeyDerivation();
+		event.begin();
+		char[] passwordChars = password.toCharArray();
+		PBEKeySpec spec = new PBEKeySpec(passwordChars, salt, iterations, 256);
+		try {
+			SecretKeyFactory factory = CryptoContext.get().keyFactory(KDF_ALGORITHM);
+			byte[] encodedKey = factory.generateSecret(spec).getEncoded();
+			SecretKey secretKey = new SecretKeySpec(encodedKey, "AES");
+			if (keyCache != null) {
+				keyCache.put(password, salt, encodedKey);
+			}
+			Arrays.fill(encodedKey, (byte) 0);
+			KEY_DERIVATIONS.recordSince(start);
+			event.end();
+			if (event.shouldCommit()) {
+				event.algorithm = KDF_ALGORITHM;
+				event.iterations = iterations;
+				event.commit();
+			}
+			return secretKey;
+		} finally {
+			spec.clearPassword();
+			Arrays.fill(passwordChars, '\0');
+		}
+	}
 
-		Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-		GCMParameterSpec gcmParameterSpec = new GCMParameterSpec(128, ivBytes);
-		cipher.init(Cipher.DECRYPT_MODE, secretKey, gcmParameterSpec);
-		byte[] decryptedBytes = cipher.doFinal(encryptedBytes);
+	/**
+	 * Encrypt bytes in a version 2 envelope using the provided journal key.
+	 *
+	 * @param data      byte array
+	 * @param secretKey {@link SecretKey}
+	 * @return {@link String}
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchPaddingException
+	 * @throws InvalidKeyException
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 */
+	public static String encrypt(byte[] data, SecretKey secretKey)
+			throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException,
+			InvalidAlgorithmParameterException, IllegalBlockSizeException, BadPaddingException {
+		return CryptoContext.get().seal(data, secretKey, NO_FLAGS, V2_PREFIX);
+	}
+
+	/**
+	 * Encrypt data as a version 2 entry using the provided journal key.
+	 *
+	 * @param data      {@link String}
+	 * @param secretKey {@link SecretKey}
+	 * @return {@link String}
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchPaddingException
+	 * @throws InvalidKeyException
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 */
+	public static String encrypt(String data, SecretKey secretKey)
+			throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException,
+			InvalidAlgorithmParameterException, IllegalBlockSizeException, BadPaddingException {
 
-		return new String(decryptedBytes);
+		return encrypt(data, secretKey, false);
+	}
+
+	/**
+	 * Encrypt data as a version 2 entry using the provided journal key, deflating
+	 * it first if asked to and it is long enough to shrink. The flags byte records
+	 * whether it was deflated, so entries are decrypted the same way either way.
+	 *
+	 * @param data      {@link String}
+	 * @param secretKey {@link SecretKey}
+	 * @param compress  boolean true to deflate text that shrinks
+	 * @return {@link String}
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchPaddingException
+	 * @throws InvalidKeyException
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 */
+	public static String encrypt(String data, SecretKey secretKey, boolean compress)
+			throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException,
+			InvalidAlgorithmParameterException, IllegalBlockSizeException, BadPaddingException {
+
+		// Encrypt behind the flags byte and a unique 96-bit IV, then Base64 encode the
+		// whole thing
+		return CryptoContext.get().sealEntry(data, secretKey, V2_PREFIX, compress);
 	}
 
 	/**
@@ -83,45 +292,60 @@ public class Superstar {
 	public static String encrypt(String data, String password) throws NoSuchAlgorithmException, NoSuchPaddingException,
 			InvalidKeyException, InvalidAlgorithmParameterException, InvalidKeySpecException, IllegalBlockSizeException,
 			BadPaddingException {
+		return encrypt(data, password, null);
+	}
+
+	/**
+	 * Encrypt data as a version 1 entry using the given password, caching the
+	 * derived key so that the result can later be decrypted without deriving it
+	 * again.
+	 *
+	 * @param data     {@link String}
+	 * @param password {@link String}
+	 * @param keyCache {@link KeyCache} may be null
+	 * @return {@link String}
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchPaddingException
+	 * @throws InvalidKeyException
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws InvalidKeySpecException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 */
+	public static String encrypt(String data, String password, KeyCache keyCache)
+			throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException,
+			InvalidAlgorithmParameterException, InvalidKeySpecException, IllegalBlockSizeException,
+			BadPaddingException {
 
 		// Generate random salt for key derivation
-		byte[] salt = SecureRandom.getInstanceStrong().generateSeed(16);
+		byte[] salt = newSalt();
 
 		// Generate AES key from the password and salt
-		SecretKey secretKey = generateAESKey(password, salt);
-
-		// Generate a random 96-bit IV
-		byte[] ivBytes = new byte[12];
-		SecureRandom.getInstanceStrong().nextBytes(ivBytes);
-		GCMParameterSpec gcmParameterSpec = new GCMParameterSpec(128, ivBytes);
-		Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-		cipher.init(Cipher.ENCRYPT_MODE, secretKey, gcmParameterSpec);
-		byte[] encryptedData = cipher.doFinal(data.getBytes());
-
-		// Concatenate salt, IV and encrypted data, then Base64 encode the whole thing
-		byte[] combined = new byte[salt.length + ivBytes.length + encryptedData.length];
-		System.arraycopy(salt, 0, combined, 0, salt.length);
-		System.arraycopy(ivBytes, 0, combined, salt.length, ivBytes.length);
-		System.arraycopy(encryptedData, 0, combined, salt.length + ivBytes.length, encryptedData.length);
-
-		return Base64.getEncoder().encodeToString(combined);
+		SecretKey secretKey = deriveKey(password, salt, KDF_ITERATIONS, keyCache);
+
+		// Encrypt behind the salt and a unique 96-bit IV, then Base64 encode the whole
+		// thing
+		return CryptoContext.get().seal(data, secretKey, salt, "");
 	}
 
 	/**
-	 * Generate a symmetric key for AES encryption using a password and salt.
+	 * Determines if the provided entry is in the version 1 format, carrying its
+	 * own salt.
 	 *
-	 * @param password {@link String}
-	 * @param salt     byte array
-	 * @return {@link SecretKey}
-	 * @throws NoSuchAlgorithmException
-	 * @throws InvalidKeySpecException
+	 * @param encryptedData {@link String}
+	 * @return boolean true if the entry predates the journal-wide key
 	 */
-	private static SecretKey generateAESKey(String password, byte[] salt)
-			throws NoSuchAlgorithmException, InvalidKeySpecException {
-		PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, 10000, 256);
-		SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
-		byte[] encodedKey = factory.generateSecret(spec).getEncoded();
-		return new SecretKeySpec(encodedKey, "AES");
+	public static boolean isLegacy(String encryptedData) {
+		return !encryptedData.startsWith(V2_PREFIX);
+	}
+
+	/**
+	 * Generate a random salt for key derivation.
+	 *
+	 * @return byte array
+	 */
+	public static byte[] newSalt() {
+		return NonceSource.nextSalt(SALT_LENGTH);
 	}
 
 	/**
@@ -4,6 +4,7 @@ module javafx.journal {
 	requires transitive javafx.graphics;
 	requires org.controlsfx.controls;
 	requires java.prefs;
+	requires jdk.jfr;
 
 	opens ca.footeware.javafx.journal to javafx.fxml;
 	opens ca.footeware.javafx.journal.controllers to javafx.fxml;
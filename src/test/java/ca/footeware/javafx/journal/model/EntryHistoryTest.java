@@ -0,0 +1,123 @@
+package ca.footeware.javafx.journal.model;
+
+import static ca.footeware.javafx.journal.model.JournalFixture.PASSWORD;
+import static ca.footeware.javafx.journal.model.JournalFixture.key;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests the revision history of entries, rebuilt from snapshots and deltas.
+ */
+class EntryHistoryTest {
+
+	private Path file;
+
+	@TempDir
+	private Path folder;
+
+	/**
+	 * Asserts that the journal, reopened, holds the provided revisions of an
+	 * entry.
+	 *
+	 * @param key       {@link String}
+	 * @param revisions {@link List} of the text of each revision, oldest first
+	 * @throws Exception
+	 */
+	private void assertRevisions(String key, List<String> revisions) throws Exception {
+		Journal journal = open();
+		assertEquals(revisions.size(), journal.getRevisions(key).size());
+		for (int i = 0; i < revisions.size(); i++) {
+			assertEquals(revisions.get(i), journal.getRevision(key, i), "revision " + i);
+		}
+		journal.close();
+	}
+
+	/**
+	 * Creates an empty journal.
+	 *
+	 * @throws Exception
+	 */
+	@BeforeEach
+	void createJournal() throws Exception {
+		file = JournalFixture.create(folder, 0);
+	}
+
+	/**
+	 * Opens the journal with history enabled.
+	 *
+	 * @return {@link Journal}
+	 * @throws Exception
+	 */
+	private Journal open() throws Exception {
+		Journal journal = new Journal(file.toFile(), PASSWORD);
+		journal.setHistoryEnabled(true);
+		return journal;
+	}
+
+	/**
+	 * Saves each text as a version of an entry, checking it can be read back
+	 * straight away.
+	 *
+	 * @param key   {@link String}
+	 * @param texts {@link String} array
+	 * @return {@link List} of the texts
+	 * @throws Exception
+	 */
+	private List<String> save(String key, String... texts) throws Exception {
+		Journal journal = open();
+		for (int i = 0; i < texts.length; i++) {
+			journal.addEntry(key, texts[i]);
+			journal.save();
+			assertEquals(texts[i], journal.getRevision(key, i));
+		}
+		journal.close();
+		return List.of(texts);
+	}
+
+	@Test
+	void keepsSurrogatePairWhole() throws Exception {
+		// the same high surrogate, then different low ones
+		assertRevisions(key(0), save(key(0), "mood: \uD83D\uDE00", "mood: \uD83D\uDE01"));
+		// different high surrogates, then the same low one
+		assertRevisions(key(1), save(key(1), "a\uD83D\uDE00 b", "a\uD801\uDE00 b"));
+	}
+
+	@Test
+	void rebuildsRevisionsOfInterleavedEntries() throws Exception {
+		List<String> first = new ArrayList<>();
+		List<String> second = new ArrayList<>();
+		Journal journal = open();
+		for (int i = 0; i < 40; i++) {
+			String text = "day " + i + " \uD83D\uDE00".repeat(i % 3);
+			first.add("first " + text);
+			journal.addEntry(key(0), first.getLast());
+			if (i % 4 == 0) {
+				second.add("second " + text);
+				journal.addEntry(key(1), second.getLast());
+			}
+			journal.save();
+		}
+		journal.close();
+		assertRevisions(key(0), first);
+		assertRevisions(key(1), second);
+	}
+
+	@Test
+	void recordsChangeToTextOfAnotherEntry() throws Exception {
+		Journal journal = open();
+		journal.addEntry(key(0), "first");
+		journal.addEntry(key(1), "second");
+		journal.addEntry(key(0), "second");
+		journal.save();
+		journal.close();
+		assertRevisions(key(0), List.of("first", "second"));
+		assertRevisions(key(1), List.of("second"));
+	}
+}
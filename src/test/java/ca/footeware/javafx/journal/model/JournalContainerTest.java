@@ -0,0 +1,258 @@
+package ca.footeware.javafx.journal.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import ca.footeware.javafx.journal.model.JournalLog.Location;
+
+/**
+ * Tests the binary container a journal is stored in, including recovery from
+ * a segment torn by a crash.
+ */
+class JournalContainerTest {
+
+	/**
+	 * A record replayed by {@link JournalContainer#scan}.
+	 *
+	 * @param key      {@link String}
+	 * @param value    {@link String}
+	 * @param location {@link Location}
+	 */
+	private record Replayed(String key, String value, Location location) {
+	}
+
+	private static final String COMMENT = "a comment";
+
+	/**
+	 * Gets a version 1 value, which has no prefix.
+	 *
+	 * @param text {@link String} the bytes to encode
+	 * @return {@link String}
+	 */
+	private static String legacy(String text) {
+		return Base64.getEncoder().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Gets a version 2 value.
+	 *
+	 * @param text {@link String} the bytes to encode
+	 * @return {@link String}
+	 */
+	private static String value(String text) {
+		return Superstar.V2_PREFIX + legacy(text);
+	}
+
+	private Path file;
+
+	@TempDir
+	private Path folder;
+
+	private Map<String, String> header;
+
+	/**
+	 * Creates a container with a header and no entries.
+	 *
+	 * @throws IOException
+	 */
+	@BeforeEach
+	void createContainer() throws IOException {
+		file = folder.resolve("test.journal");
+		header = new LinkedHashMap<>();
+		header.put("format.version", "2");
+		header.put("kdf.salt", legacy("salt"));
+		JournalContainer.create(file, COMMENT, header);
+	}
+
+	/**
+	 * Replays the container, reading every value.
+	 *
+	 * @return {@link List} of {@link Replayed}
+	 * @throws IOException
+	 */
+	private List<Replayed> scan() throws IOException {
+		List<Replayed> records = new ArrayList<>();
+		long count = JournalContainer.scan(file, _ -> true,
+				(key, value, location) -> records.add(new Replayed(key, value, location)));
+		assertEquals(records.size(), count);
+		return records;
+	}
+
+	/**
+	 * Gets the values of the entries replayed, the last value of a key winning.
+	 *
+	 * @return {@link Map}
+	 * @throws IOException
+	 */
+	private Map<String, String> values() throws IOException {
+		Map<String, String> values = new LinkedHashMap<>();
+		for (Replayed record : scan()) {
+			if (record.location() != null) {
+				values.put(record.key(), record.value());
+			}
+		}
+		return values;
+	}
+
+	@Test
+	void appendsAfterTornSegment() throws IOException {
+		JournalContainer.append(file, Map.of("2020-01-01", value("first")).entrySet());
+		long whole = Files.size(file);
+		JournalContainer.append(file, Map.of("2020-01-02", value("torn")).entrySet());
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.truncate(Files.size(file) - 3);
+		}
+		JournalContainer.append(file, Map.of("2020-01-03", value("third")).entrySet());
+		assertEquals(Map.of("2020-01-01", value("first"), "2020-01-03", value("third")), values());
+		assertTrue(Files.size(file) > whole);
+	}
+
+	@Test
+	void ignoresSegmentWithCorruptIndex() throws IOException {
+		JournalContainer.append(file, Map.of("2020-01-01", value("first")).entrySet());
+		long whole = Files.size(file);
+		JournalContainer.append(file, Map.of("2020-01-02", value("second")).entrySet());
+		byte[] bytes = Files.readAllBytes(file);
+		// the first byte of the index's epoch day, just before the trailer
+		bytes[bytes.length - 16 - 16] ^= 1;
+		Files.write(file, bytes);
+		assertEquals(Map.of("2020-01-01", value("first")), values());
+		JournalContainer.truncateTornSegment(file);
+		assertEquals(whole, Files.size(file));
+	}
+
+	@Test
+	void ignoresSegmentWithoutLength() throws IOException {
+		JournalContainer.append(file, Map.of("2020-01-01", value("first")).entrySet());
+		long whole = Files.size(file);
+		JournalContainer.append(file, Map.of("2020-01-02", value("second")).entrySet());
+		// as if the process died before the segment's length was filled in
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.allocate(Long.BYTES), whole);
+		}
+		assertEquals(Map.of("2020-01-01", value("first")), values());
+		JournalContainer.truncateTornSegment(file);
+		assertEquals(whole, Files.size(file));
+	}
+
+	@Test
+	void keepsLegacyEntries() throws IOException {
+		Map<String, String> entries = new LinkedHashMap<>();
+		entries.put("2020-01-01", legacy("version 1"));
+		entries.put("2020-01-02", value("version 2"));
+		Map<String, Location> locations = JournalContainer.write(file, COMMENT, header, entries);
+		assertTrue(locations.get("2020-01-01").legacy());
+		assertFalse(locations.get("2020-01-02").legacy());
+		assertEquals(entries, values());
+		assertEquals(legacy("version 1"), JournalContainer.read(file, locations.get("2020-01-01")));
+	}
+
+	@Test
+	void readsOnlySelectedValues() throws IOException {
+		Map<String, String> entries = new LinkedHashMap<>();
+		for (int i = 1; i <= 9; i++) {
+			entries.put("2020-01-0" + i, value("entry " + i));
+		}
+		JournalContainer.write(file, COMMENT, header, entries);
+		Map<String, Location> locations = new LinkedHashMap<>();
+		JournalContainer.scan(file, key -> key.startsWith("kdf."), (key, value, location) -> {
+			if (location == null) {
+				assertEquals(header.get(key), value);
+			} else {
+				assertNull(value);
+				locations.put(key, location);
+			}
+		});
+		assertEquals(entries.keySet(), locations.keySet());
+		for (Map.Entry<String, Location> location : locations.entrySet()) {
+			assertEquals(entries.get(location.getKey()), JournalContainer.read(file, location.getValue()));
+		}
+	}
+
+	@Test
+	void recognizesContainer() throws IOException {
+		assertTrue(JournalContainer.isContainer(file));
+		assertFalse(JournalContainer.isContainer(folder.resolve("missing.journal")));
+		Path text = Files.writeString(folder.resolve("text.journal"), "#" + COMMENT + "\nformat.version=2\n");
+		assertFalse(JournalContainer.isContainer(text));
+		assertThrows(IOException.class, () -> JournalContainer.scan(text, _ -> true, (_, _, _) -> {
+		}));
+		assertNull(JournalContainer.readComment(text));
+	}
+
+	@Test
+	void refusesKeyThatIsNotDate() {
+		assertThrows(IOException.class,
+				() -> JournalContainer.append(file, Map.of("not a date", value("text")).entrySet()));
+	}
+
+	@Test
+	void roundTripsHeaderAndEntries() throws IOException {
+		Map<String, String> entries = new LinkedHashMap<>();
+		entries.put("1999-12-31", value("before"));
+		entries.put("2000-01-01", value("x".repeat(100_000)));
+		entries.put("2024-02-29", value("leap"));
+		Map<String, Location> locations = JournalContainer.write(file, COMMENT, header, entries);
+		assertEquals(COMMENT, JournalContainer.readComment(file));
+		List<Replayed> records = scan();
+		assertEquals(header.size() + entries.size(), records.size());
+		Map<String, String> replayedHeader = new LinkedHashMap<>();
+		for (Replayed record : records.subList(0, header.size())) {
+			assertNull(record.location());
+			replayedHeader.put(record.key(), record.value());
+		}
+		assertEquals(header, replayedHeader);
+		for (Replayed record : records.subList(header.size(), records.size())) {
+			assertEquals(entries.get(record.key()), record.value());
+			assertEquals(locations.get(record.key()), record.location());
+			assertEquals(record.value(), JournalContainer.read(file, record.location()));
+		}
+	}
+
+	@Test
+	void storesTombstones() throws IOException {
+		JournalContainer.append(file, Map.of("2020-01-01", value("first"), "2020-01-02", value("second")).entrySet());
+		Map<String, String> deletions = new LinkedHashMap<>();
+		deletions.put("2020-01-01", null);
+		deletions.put("2020-01-02", "");
+		JournalContainer.append(file, deletions.entrySet());
+		List<Replayed> records = scan();
+		for (Replayed record : records.subList(records.size() - 2, records.size())) {
+			assertEquals(0, record.location().length());
+			assertEquals("", record.value());
+		}
+		assertEquals(Map.of("2020-01-01", "", "2020-01-02", ""), values());
+	}
+
+	@Test
+	void truncatesTornSegment() throws IOException {
+		JournalContainer.append(file, Map.of("2020-01-01", value("first")).entrySet());
+		long whole = Files.size(file);
+		Files.write(file, new byte[] { 0, 0, 0, 0, 0, 0, 1, 0, 42 }, StandardOpenOption.APPEND);
+		assertEquals(Map.of("2020-01-01", value("first")), values());
+		JournalContainer.truncateTornSegment(file);
+		assertEquals(whole, Files.size(file));
+		JournalContainer.truncateTornSegment(file);
+		assertEquals(whole, Files.size(file));
+	}
+}
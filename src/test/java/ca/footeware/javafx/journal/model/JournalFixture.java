@@ -0,0 +1,58 @@
+package ca.footeware.javafx.journal.model;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+
+/**
+ * Journals for tests, holding numbered entries a day apart from 2000-01-01.
+ */
+final class JournalFixture {
+
+	static final String PASSWORD = "password";
+
+	/**
+	 * Creates a journal of the provided number of entries, saved and closed.
+	 *
+	 * @param folder  {@link Path} the folder to create the journal in
+	 * @param entries int
+	 * @return {@link Path} the journal file
+	 * @throws Exception
+	 */
+	static Path create(Path folder, int entries) throws Exception {
+		Path file = Files.createFile(folder.resolve("test.journal"));
+		Journal journal = new Journal(file.toFile(), PASSWORD);
+		for (int i = 0; i < entries; i++) {
+			journal.addEntry(key(i), text(i));
+		}
+		journal.save();
+		journal.close();
+		return file;
+	}
+
+	/**
+	 * Gets the key of an entry.
+	 *
+	 * @param i int
+	 * @return {@link String}
+	 */
+	static String key(int i) {
+		return LocalDate.of(2000, 1, 1).plusDays(i).toString();
+	}
+
+	/**
+	 * Gets the text of an entry.
+	 *
+	 * @param i int
+	 * @return {@link String}
+	 */
+	static String text(int i) {
+		return "entry " + i;
+	}
+
+	/**
+	 * Constructor, hidden because fixtures are created statically.
+	 */
+	private JournalFixture() {
+	}
+}
@@ -0,0 +1,184 @@
+package ca.footeware.javafx.journal.model;
+
+import static ca.footeware.javafx.journal.model.JournalFixture.PASSWORD;
+import static ca.footeware.javafx.journal.model.JournalFixture.key;
+import static ca.footeware.javafx.journal.model.JournalFixture.text;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests a journal's log kept as a binary container, and the conversion of a
+ * journal in the text format to one.
+ */
+class JournalLogTest {
+
+	private static final int ENTRIES = 50;
+
+	private Path file;
+
+	@TempDir
+	private Path folder;
+
+	/**
+	 * Asserts that the journal opens, eagerly and lazily, with the entries written
+	 * by {@link #createJournal()}.
+	 *
+	 * @throws Exception
+	 */
+	private void assertEntries() throws Exception {
+		for (boolean lazy : new boolean[] { false, true }) {
+			Journal journal = new Journal(file.toFile(), PASSWORD, lazy);
+			assertTrue(journal.testPassword());
+			assertEquals(ENTRIES, journal.getKeys().size());
+			for (int i = 0; i < ENTRIES; i++) {
+				assertEquals(text(i), journal.getEntry(key(i)));
+			}
+			journal.close();
+		}
+	}
+
+	/**
+	 * Creates a journal of {@link #ENTRIES} entries.
+	 *
+	 * @throws Exception
+	 */
+	@BeforeEach
+	void createJournal() throws Exception {
+		file = JournalFixture.create(folder, ENTRIES);
+	}
+
+	/**
+	 * Rewrites the journal in the text format, with the same records.
+	 *
+	 * @throws Exception
+	 */
+	private void toText() throws Exception {
+		Map<String, String> header = new LinkedHashMap<>();
+		Map<String, String> entries = new LinkedHashMap<>();
+		new JournalLog(file, true).scan(_ -> true, (key, value, location) -> {
+			if (location == null) {
+				header.put(key, value);
+			} else {
+				entries.put(key, value);
+			}
+		});
+		Path text = folder.resolve("text.journal");
+		JournalLog log = new JournalLog(text);
+		log.create("text", header);
+		log.append(entries);
+		Files.move(text, file, StandardCopyOption.REPLACE_EXISTING);
+		assertFalse(JournalContainer.isContainer(file));
+	}
+
+	@Test
+	void appendsToContainer() throws Exception {
+		JournalLog log = new JournalLog(file, true);
+		assertTrue(log.isContainer());
+		Journal journal = new Journal(file.toFile(), PASSWORD);
+		String added = key(ENTRIES);
+		journal.addEntry(key(0), "changed");
+		journal.addEntry(key(1), "");
+		journal.addEntry(added, "added");
+		long before = Files.size(file);
+		journal.save();
+		journal.close();
+		assertTrue(Files.size(file) > before);
+
+		Properties properties = log.load();
+		assertEquals("", properties.get(key(1)));
+		assertEquals(4 + ENTRIES + 3, log.getRecords());
+		Journal reopened = new Journal(file.toFile(), PASSWORD, true);
+		assertEquals("changed", reopened.getEntry(key(0)));
+		assertNull(reopened.getEntry(key(1)));
+		assertEquals(text(2), reopened.getEntry(key(2)));
+		assertEquals("added", reopened.getEntry(added));
+		reopened.close();
+	}
+
+	@Test
+	void convertsTextOnceChanged() throws Exception {
+		toText();
+		assertEntries();
+
+		// saving with nothing changed leaves the file alone
+		byte[] text = Files.readAllBytes(file);
+		Journal journal = new Journal(file.toFile(), PASSWORD, true);
+		journal.save();
+		journal.close();
+		assertArrayEquals(text, Files.readAllBytes(file));
+
+		journal = new Journal(file.toFile(), PASSWORD, true);
+		journal.addEntry(key(0), "changed");
+		journal.save();
+		journal.addEntry(key(0), text(0));
+		journal.save();
+		journal.close();
+		assertTrue(JournalContainer.isContainer(file));
+		assertTrue(Files.size(file) < text.length);
+		assertEntries();
+	}
+
+	@Test
+	void dropsTornSegment() throws Exception {
+		long whole = Files.size(file);
+		Files.write(file, new byte[] { 0, 0, 0, 0, 0, 0, 1, 0, 42 }, StandardOpenOption.APPEND);
+		JournalLog log = new JournalLog(file, true);
+		log.truncateTornRecord();
+		assertEquals(whole, Files.size(file));
+		assertEntries();
+	}
+
+	@Test
+	void readsLazily() throws Exception {
+		JournalLog log = new JournalLog(file, true);
+		Map<String, JournalLog.Location> locations = new LinkedHashMap<>();
+		Map<String, String> values = new LinkedHashMap<>();
+		log.scan(key -> !key.startsWith("2"), (key, value, location) -> {
+			if (location == null) {
+				assertTrue(value != null && !value.isEmpty());
+			} else {
+				assertNull(value);
+				locations.put(key, location);
+			}
+		});
+		log.scan(_ -> true, (key, value, location) -> {
+			if (location != null) {
+				values.put(key, value);
+			}
+		});
+		assertEquals(ENTRIES, locations.size());
+		for (Map.Entry<String, JournalLog.Location> location : locations.entrySet()) {
+			assertEquals(values.get(location.getKey()), log.read(location.getValue()));
+		}
+	}
+
+	@Test
+	void rewritesAsContainer() throws Exception {
+		toText();
+		JournalLog log = new JournalLog(file, true);
+		assertFalse(log.isContainer());
+		Map<String, String> header = new LinkedHashMap<>();
+		Map<String, String> entries = new LinkedHashMap<>();
+		log.scan(_ -> true, (key, value, _) -> (key.startsWith("2") ? entries : header).put(key, value));
+		log.rewrite(header, entries);
+		assertTrue(log.isContainer());
+		assertEquals(header.size() + entries.size(), log.getRecords());
+		assertFalse(Files.exists(Path.of(file + ".compact")));
+		assertEntries();
+	}
+}
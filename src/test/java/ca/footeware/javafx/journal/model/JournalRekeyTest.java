@@ -0,0 +1,321 @@
+package ca.footeware.javafx.journal.model;
+
+import static ca.footeware.javafx.journal.model.JournalFixture.PASSWORD;
+import static ca.footeware.javafx.journal.model.JournalFixture.key;
+import static ca.footeware.javafx.journal.model.JournalFixture.text;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import ca.footeware.javafx.journal.exceptions.JournalException;
+
+/**
+ * Tests changing a journal's password, including resuming a change that was
+ * interrupted and recovering the revision history after a crash.
+ */
+class JournalRekeyTest {
+
+	/**
+	 * Thrown from a progress callback to interrupt a password change.
+	 */
+	private static final class Interruption extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+	}
+
+	/**
+	 * Enough entries for a password change interrupted halfway to have written a
+	 * batch.
+	 */
+	private static final int ENTRIES = 700;
+	private static final String NEW_PASSWORD = "new password";
+
+	private Path file;
+
+	@TempDir
+	private Path folder;
+
+	/**
+	 * Asserts that the journal opens with the provided password and holds the
+	 * entries written by {@link #createJournal()}, except the first three, which
+	 * are checked by the test.
+	 *
+	 * @param password {@link String}
+	 * @return {@link Journal} open
+	 * @throws Exception
+	 */
+	private Journal assertEntries(String password) throws Exception {
+		Journal journal = new Journal(file.toFile(), password);
+		assertTrue(journal.testPassword());
+		for (int i = 3; i < ENTRIES; i++) {
+			assertEquals(text(i), journal.getEntry(key(i)));
+		}
+		assertFalse(Files.exists(rekeyed()));
+		return journal;
+	}
+
+	/**
+	 * Changes the password, recording the progress reported.
+	 *
+	 * @param journal  {@link Journal}
+	 * @param password {@link String}
+	 * @return {@link List} of the fractions reported
+	 * @throws Exception
+	 */
+	private static List<Double> changePassword(Journal journal, String password) throws Exception {
+		List<Double> progress = new ArrayList<>();
+		journal.rekey(password, progress::add);
+		return progress;
+	}
+
+	/**
+	 * Creates a journal of {@link #ENTRIES} entries.
+	 *
+	 * @throws Exception
+	 */
+	@BeforeEach
+	void createJournal() throws Exception {
+		file = JournalFixture.create(folder, ENTRIES);
+	}
+
+	/**
+	 * Starts changing the password and interrupts the change halfway.
+	 *
+	 * @param password {@link String}
+	 * @throws Exception
+	 */
+	private void interrupt(String password) throws Exception {
+		Journal journal = new Journal(file.toFile(), PASSWORD);
+		assertThrows(Interruption.class, () -> journal.rekey(password, fraction -> {
+			if (fraction >= 0.5) {
+				throw new Interruption();
+			}
+		}));
+		journal.close();
+		assertTrue(Files.exists(rekeyed()));
+	}
+
+	/**
+	 * Gets the file a password change writes the journal to.
+	 *
+	 * @return {@link Path}
+	 */
+	private Path rekeyed() {
+		return Path.of(file + ".rekey");
+	}
+
+	/**
+	 * Gets the text of every revision of the first entry.
+	 *
+	 * @param journal {@link Journal}
+	 * @return {@link List}
+	 * @throws Exception
+	 */
+	private static List<String> revisions(Journal journal) throws Exception {
+		List<String> texts = new ArrayList<>();
+		for (Revision revision : journal.getRevisions(key(0))) {
+			texts.add(journal.getRevision(key(0), revision.number()));
+		}
+		return texts;
+	}
+
+	/**
+	 * Writes two revisions of the first entry, with history enabled.
+	 *
+	 * @return {@link List} of the revisions' text
+	 * @throws Exception
+	 */
+	private List<String> writeRevisions() throws Exception {
+		Journal journal = new Journal(file.toFile(), PASSWORD);
+		journal.setHistoryEnabled(true);
+		journal.addEntry(key(0), "revised once");
+		journal.save();
+		journal.addEntry(key(0), "revised twice");
+		journal.save();
+		List<String> revisions = revisions(journal);
+		journal.close();
+		assertTrue(revisions.size() >= 2);
+		return revisions;
+	}
+
+	@Test
+	void changesPassword() throws Exception {
+		Journal journal = new Journal(file.toFile(), PASSWORD);
+		List<Double> progress = changePassword(journal, NEW_PASSWORD);
+		assertEquals(0.0, progress.getFirst());
+		assertEquals(1.0, progress.getLast());
+		assertTrue(journal.isPassword(NEW_PASSWORD));
+		journal.close();
+		Journal old = new Journal(file.toFile(), PASSWORD);
+		assertFalse(old.testPassword());
+		old.close();
+		assertEntries(NEW_PASSWORD).close();
+	}
+
+	@Test
+	void discardsHistoryIfCrashedBeforeJournalReplaced() throws Exception {
+		List<String> revisions = writeRevisions();
+		Path history = Path.of(file + ".history");
+		Path oldJournal = Files.copy(file, folder.resolve("old.journal"));
+		Path oldHistory = Files.copy(history, folder.resolve("old.history"));
+		Journal journal = new Journal(file.toFile(), PASSWORD);
+		changePassword(journal, NEW_PASSWORD);
+		journal.close();
+
+		// as if the process died before the re-encrypted journal was swapped in
+		Files.move(history, Path.of(history + ".rekey"));
+		Files.move(oldHistory, history);
+		Files.move(oldJournal, file, StandardCopyOption.REPLACE_EXISTING);
+
+		journal = new Journal(file.toFile(), PASSWORD);
+		assertTrue(journal.testPassword());
+		assertFalse(Files.exists(Path.of(history + ".rekey")));
+		journal.setHistoryEnabled(true);
+		assertEquals(revisions, revisions(journal));
+		journal.close();
+	}
+
+	@Test
+	void dropsTornRecordBeforeResuming() throws Exception {
+		interrupt(NEW_PASSWORD);
+		Files.write(rekeyed(), new byte[] { 0, 0, 0, 0, 0, 0, 1, 0, 42 }, StandardOpenOption.APPEND);
+		Journal journal = new Journal(file.toFile(), PASSWORD);
+		List<Double> progress = changePassword(journal, NEW_PASSWORD);
+		journal.close();
+		assertTrue(progress.getFirst() > 0.3, "resumed at " + progress.getFirst());
+		Journal reopened = assertEntries(NEW_PASSWORD);
+		assertEquals(text(0), reopened.getEntry(key(0)));
+		reopened.close();
+	}
+
+	@Test
+	void includesEntriesChangedDuringChange() throws Exception {
+		Journal journal = new Journal(file.toFile(), PASSWORD);
+		String added = key(ENTRIES + 1);
+		boolean[] changed = new boolean[1];
+		journal.rekey(NEW_PASSWORD, fraction -> {
+			if (fraction >= 0.5 && !changed[0]) {
+				changed[0] = true;
+				try {
+					// already re-encrypted, so only the changes can carry them over
+					journal.addEntry(key(0), "changed");
+					journal.addEntry(key(1), "");
+					journal.addEntry(added, "added");
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		});
+		journal.close();
+		Journal reopened = assertEntries(NEW_PASSWORD);
+		assertEquals("changed", reopened.getEntry(key(0)));
+		assertNull(reopened.getEntry(key(1)));
+		assertEquals(text(2), reopened.getEntry(key(2)));
+		assertEquals("added", reopened.getEntry(added));
+		reopened.close();
+	}
+
+	@Test
+	void recoversHistoryIfCrashedAfterJournalReplaced() throws Exception {
+		List<String> revisions = writeRevisions();
+		Path history = Path.of(file + ".history");
+		Path oldHistory = Files.copy(history, folder.resolve("old.history"));
+		Journal journal = new Journal(file.toFile(), PASSWORD);
+		changePassword(journal, NEW_PASSWORD);
+		journal.close();
+
+		// as if the process died between swapping in the journal and its history
+		Files.move(history, Path.of(history + ".rekey"));
+		Files.move(oldHistory, history);
+
+		journal = new Journal(file.toFile(), NEW_PASSWORD);
+		assertTrue(journal.testPassword());
+		assertFalse(Files.exists(Path.of(history + ".rekey")));
+		journal.setHistoryEnabled(true);
+		assertEquals(revisions, revisions(journal));
+		journal.close();
+	}
+
+	@Test
+	void refusesConcurrentChange() throws Exception {
+		Journal journal = new Journal(file.toFile(), PASSWORD);
+		IllegalStateException[] thrown = new IllegalStateException[1];
+		journal.rekey(NEW_PASSWORD, _ -> {
+			if (thrown[0] == null) {
+				thrown[0] = assertThrows(IllegalStateException.class, () -> journal.rekey("another", _ -> {
+				}));
+			}
+		});
+		journal.close();
+		assertEntries(NEW_PASSWORD).close();
+	}
+
+	@Test
+	void resumesInterruptedChange() throws Exception {
+		interrupt(NEW_PASSWORD);
+		Journal journal = new Journal(file.toFile(), PASSWORD);
+		List<Double> progress = changePassword(journal, NEW_PASSWORD);
+		journal.close();
+		// at least a batch of entries was kept from the interrupted change
+		assertTrue(progress.getFirst() > 0.3, "resumed at " + progress.getFirst());
+		Journal reopened = assertEntries(NEW_PASSWORD);
+		assertEquals(text(0), reopened.getEntry(key(0)));
+		reopened.close();
+	}
+
+	@Test
+	void startsAfreshForAnotherPassword() throws Exception {
+		interrupt("other password");
+		Journal journal = new Journal(file.toFile(), PASSWORD);
+		List<Double> progress = changePassword(journal, NEW_PASSWORD);
+		journal.close();
+		assertEquals(0.0, progress.getFirst());
+		assertEntries(NEW_PASSWORD).close();
+	}
+
+	@Test
+	void startsAfreshIfSavedSinceInterrupted() throws Exception {
+		interrupt(NEW_PASSWORD);
+		Journal journal = new Journal(file.toFile(), PASSWORD);
+		journal.addEntry(key(0), "saved since");
+		journal.save();
+		List<Double> progress = changePassword(journal, NEW_PASSWORD);
+		journal.close();
+		assertEquals(0.0, progress.getFirst());
+		Journal reopened = assertEntries(NEW_PASSWORD);
+		assertEquals("saved since", reopened.getEntry(key(0)));
+		reopened.close();
+	}
+
+	@Test
+	void wrapsConcurrentChangeInJournalException() throws Exception {
+		JournalManager.openJournal(file.toString(), PASSWORD);
+		try {
+			JournalException[] thrown = new JournalException[1];
+			JournalManager.changePassword(PASSWORD, NEW_PASSWORD, _ -> {
+				if (thrown[0] == null) {
+					thrown[0] = assertThrows(JournalException.class,
+							() -> JournalManager.changePassword(PASSWORD, "another", _ -> {
+							}));
+				}
+			});
+			assertEquals("The password is already being changed.", thrown[0].getMessage());
+		} finally {
+			JournalManager.closeJournal();
+		}
+		assertEntries(NEW_PASSWORD).close();
+	}
+}